@@ -67,6 +67,9 @@ public class PluginAnnotation<T extends Annotation> {
     // Falback plugin - plugin is used if no other plugin in the group version matches
     final boolean fallback;
 
+    // compiled method, created by the handler on registration
+    private volatile PluginMethodInvoker methodInvoker;
+
     public PluginAnnotation(Class<?> pluginClass, Object plugin, T annotation, Method method) {
         this.pluginClass = pluginClass;
         this.plugin = plugin;
@@ -121,6 +124,22 @@ public class PluginAnnotation<T extends Annotation> {
         return field;
     }
 
+    /**
+     * Compiled method for invocation by a handler. The invoker is created once, each annotation type
+     * is processed by a single handler with the same argument types.
+     *
+     * @param argumentTypes argument types supported by the handler
+     * @return the invoker
+     */
+    public PluginMethodInvoker getMethodInvoker(Class<?>[] argumentTypes) {
+        PluginMethodInvoker invoker = methodInvoker;
+        if (invoker == null) {
+            invoker = new PluginMethodInvoker(method, plugin, argumentTypes);
+            methodInvoker = invoker;
+        }
+        return invoker;
+    }
+
     public boolean shouldCheckVersion() {
         return //
         (this.plugin == null)//
@@ -18,31 +18,45 @@
  */
 package org.hotswap.agent.annotation.handler;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.reflect.InvocationTargetException;
 import java.security.ProtectionDomain;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
+import org.hotswap.agent.config.PluginConfiguration;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
-import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.AppClassLoaderExecutor;
 import org.hotswap.agent.util.HaClassFileTransformer;
+import org.hotswap.agent.util.TransformSession;
 import org.hotswap.agent.versions.DeploymentInfo;
 
 public class PluginClassFileTransformer implements HaClassFileTransformer {
     protected static AgentLogger LOGGER = AgentLogger.getLogger(PluginClassFileTransformer.class);
 
+    // supported types of method parameters, index in the array is the parameter binding
+    private static final Class<?>[] ARGUMENT_TYPES = {ClassLoader.class, String.class, Class.class,
+            ProtectionDomain.class, byte[].class, ClassPool.class, CtClass.class, LoadEvent.class,
+            AppClassLoaderExecutor.class};
+    private static final int ARG_CLASS_LOADER = 0;
+    private static final int ARG_CLASS_NAME = 1;
+    private static final int ARG_CLASS = 2;
+    private static final int ARG_PROTECTION_DOMAIN = 3;
+    private static final int ARG_BYTES = 4;
+    private static final int ARG_CLASS_POOL = 5;
+    private static final int ARG_CT_CLASS = 6;
+    private static final int ARG_LOAD_EVENT = 7;
+    private static final int ARG_APP_CLASS_LOADER_EXECUTOR = 8;
 
     private final OnClassLoadEvent onClassLoadAnnotation;
 
@@ -52,11 +66,17 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
 
     private final PluginManager pluginManager;
 
+    private final PluginMethodInvoker methodInvoker;
+
+    // result of version check per classloader (deployment of a classloader does not change)
+    private final Map<ClassLoader, Boolean> versionMatches = Collections.synchronizedMap(new WeakHashMap<ClassLoader, Boolean>());
+
     public PluginClassFileTransformer(PluginManager pluginManager, PluginAnnotation<OnClassLoadEvent> pluginAnnotation) {
         this.pluginManager = pluginManager;
         this.pluginAnnotation = pluginAnnotation;
         this.onClassLoadAnnotation = pluginAnnotation.getAnnotation();
         this.events = Arrays.asList(onClassLoadAnnotation.events());
+        this.methodInvoker = pluginAnnotation.getMethodInvoker(ARGUMENT_TYPES);
     }
 
     @Override
@@ -65,8 +85,11 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
     }
 
     public boolean isPluginDisabled(ClassLoader loader){
-        if(loader != null && pluginManager != null && pluginManager.getPluginConfiguration(loader) != null) {
-            return pluginManager.getPluginConfiguration(loader).isDisabledPlugin(pluginAnnotation.getPluginClass());
+        if (pluginManager != null) {
+            PluginConfiguration configuration = pluginManager.getPluginConfiguration(loader);
+            if (configuration != null) {
+                return configuration.isDisabledPlugin(pluginAnnotation.getPluginClass());
+            }
         }
         // can't tell
         return false;
@@ -86,53 +109,74 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
 
     public boolean versionMatches(ClassLoader loader){
         if (pluginAnnotation.shouldCheckVersion()) {
-            DeploymentInfo info = DeploymentInfo.fromClassLoader(loader);
-            if (!pluginAnnotation.matches(info)) {
-                LOGGER.debug("SKIPPING METHOD: {}, Deployment info: {}\n did not match with {}\n or {}", pluginAnnotation.method, info, pluginAnnotation.methodMatcher, pluginAnnotation.pluginMatcher);
-                return false;
+            Boolean matches = versionMatches.get(loader);
+            if (matches == null) {
+                DeploymentInfo info = DeploymentInfo.fromClassLoaderCached(loader);
+                matches = pluginAnnotation.matches(info);
+                if (!matches) {
+                    LOGGER.debug("SKIPPING METHOD: {}, Deployment info: {}\n did not match with {}\n or {}", pluginAnnotation.method, info, pluginAnnotation.methodMatcher, pluginAnnotation.pluginMatcher);
+                }
+                versionMatches.put(loader, matches);
             }
+            return matches;
         }
         return true;
     }
 
     @Override
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
-        if ((classBeingRedefined == null) ? !events.contains(LoadEvent.DEFINE) : !events.contains(LoadEvent.REDEFINE)) {
-            LOGGER.trace("Not a handled event!", events);
-            return classfileBuffer;
+        TransformSession session = new TransformSession(loader, className, classfileBuffer);
+        try {
+            transform(session, classBeingRedefined, protectionDomain);
+            return session.getBytes();
+        } catch (CannotCompileException e) {
+            LOGGER.error("Cannot compile class after manipulation on plugin '" + pluginAnnotation.getPluginClass() + "' class '" + className + "'.", e);
+        } catch (IOException e) {
+            LOGGER.error("IOException in transform method on plugin '" + pluginAnnotation.getPluginClass() + "' class '" + className + "'.", e);
+        } finally {
+            session.close();
         }
+        return classfileBuffer;
+    }
 
+    /**
+     * Transform the class within shared transformation session. The result is kept in the session.
+     *
+     * @param session shared state of the transformation (class loader, name, bytes, CtClass)
+     * @param classBeingRedefined the class being redefined, null for class definition
+     * @param protectionDomain protection domain
+     */
+    public void transform(TransformSession session, Class<?> classBeingRedefined, ProtectionDomain protectionDomain) {
         // check disabled plugins
-        // noinspection unchecked
-        if (pluginManager.getPluginConfiguration(loader).isDisabledPlugin(pluginAnnotation.getPluginClass())) {
+        if (isPluginDisabled(session.getClassLoader())) {
             LOGGER.trace("Plugin NOT enabled! {}", pluginAnnotation);
-            return classfileBuffer;
+            return;
         }
 
-        return transform(pluginManager, pluginAnnotation, loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
-    }
-
-
-    @Override
-    public String toString() {
-        return "\n\t\t\tPluginClassFileTransformer [pluginAnnotation=" + pluginAnnotation + "]";
+        transformApplicable(session, classBeingRedefined, protectionDomain);
     }
 
     /**
-     * Creats javaassist CtClass for bytecode manipulation. Add default
-     * classloader.
+     * Transform the class within shared transformation session, the plugin is known to be enabled and applicable
+     * in the classloader (resolved by HotswapTransformer).
      *
-     * @param bytes new class definition
-     * @param classLoader loader
-     * @return created class
-     * @throws NotFoundException
+     * @param session shared state of the transformation (class loader, name, bytes, CtClass)
+     * @param classBeingRedefined the class being redefined, null for class definition
+     * @param protectionDomain protection domain
      */
-    private static CtClass createCtClass(byte[] bytes, ClassLoader classLoader) throws IOException {
-        ClassPool cp = new ClassPool();
-        cp.appendSystemPath();
-        cp.appendClassPath(new LoaderClassPath(classLoader));
+    public void transformApplicable(TransformSession session, Class<?> classBeingRedefined, ProtectionDomain protectionDomain) {
+        if ((classBeingRedefined == null) ? !events.contains(LoadEvent.DEFINE) : !events.contains(LoadEvent.REDEFINE)) {
+            LOGGER.trace("Not a handled event!", events);
+            return;
+        }
 
-        return cp.makeClass(new ByteArrayInputStream(bytes));
+        transform(pluginManager, pluginAnnotation, methodInvoker, session, classBeingRedefined, protectionDomain);
+    }
+
+
+    @Override
+    public String toString() {
+        return "\n\t\t\tPluginClassFileTransformer [pluginAnnotation=" + pluginAnnotation + "]";
     }
 
     /**
@@ -148,100 +192,106 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
      * Transformation callback as registered in initMethod:
      * hotswapTransformer.registerTransformer(). Resolve method parameters to
      * actual values, provide convenience parameters of javassist to streamline
-     * the transformation.
+     * the transformation. ClassPool and CtClass are shared within the transformation session,
+     * the class is serialized back to bytecode only if it was modified.
      */
-    private static byte[] transform(PluginManager pluginManager, PluginAnnotation<OnClassLoadEvent> pluginAnnotation, ClassLoader classLoader, String className, Class<?> redefiningClass, ProtectionDomain protectionDomain, byte[] bytes) {
+    private static void transform(PluginManager pluginManager, PluginAnnotation<OnClassLoadEvent> pluginAnnotation,
+                                  PluginMethodInvoker methodInvoker, TransformSession session,
+                                  Class<?> redefiningClass, ProtectionDomain protectionDomain) {
+        ClassLoader classLoader = session.getClassLoader();
+        String className = session.getClassName();
+
         LOGGER.trace("Transforming.... '{}' using: '{}'", className, pluginAnnotation);
         // skip synthetic classes
         if (pluginAnnotation.getAnnotation().skipSynthetic()) {
             if (isSyntheticClass(className) || (redefiningClass != null && redefiningClass.isSynthetic())) {
-                return bytes;
+                return;
             }
         }
 
         // skip anonymous class
         if (pluginAnnotation.getAnnotation().skipAnonymous()) {
             if (className.matches("\\$\\d+$")) {
-                return bytes;
+                return;
             }
         }
 
-        // ensure classloader initiated
+        if (methodInvoker.getUnknownParameterType() != null) {
+            LOGGER.error("Unable to call init method on plugin '" + pluginAnnotation.getPluginClass() + "'." + " Method parameter type '" + methodInvoker.getUnknownParameterType() + "' is not recognized for @Init annotation.");
+            return;
+        }
+
+        // ensure classloader initiated and plugin classes available (the transformation may reference them)
         if (classLoader != null) {
             pluginManager.initClassLoader(classLoader, protectionDomain);
+            pluginManager.patchClassLoader(classLoader, pluginAnnotation.getPluginClass().getName(), protectionDomain);
         }
 
-        // default result
-        byte[] result = bytes;
-
-        // we may need to crate CtClass on behalf of the client and close it
-        // after invocation.
+        // shared CtClass, if requested by the method
         CtClass ctClass = null;
 
-        List<Object> args = new ArrayList<>();
-        for (Class<?> type : pluginAnnotation.getMethod().getParameterTypes()) {
-            if (type.isAssignableFrom(ClassLoader.class)) {
-                args.add(classLoader);
-            } else if (type.isAssignableFrom(String.class)) {
-                args.add(className);
-            } else if (type.isAssignableFrom(Class.class)) {
-                args.add(redefiningClass);
-            } else if (type.isAssignableFrom(ProtectionDomain.class)) {
-                args.add(protectionDomain);
-            } else if (type.isAssignableFrom(byte[].class)) {
-                args.add(bytes);
-            } else if (type.isAssignableFrom(ClassPool.class)) {
-                ClassPool classPool = new ClassPool();
-                classPool.appendSystemPath();
-                LOGGER.trace("Adding loader classpath " + classLoader);
-                classPool.appendClassPath(new LoaderClassPath(classLoader));
-                args.add(classPool);
-            } else if (type.isAssignableFrom(CtClass.class)) {
-                try {
-                    ctClass = createCtClass(bytes, classLoader);
-                    args.add(ctClass);
-                } catch (IOException e) {
-                    LOGGER.error("Unable create CtClass for '" + className + "'.", e);
-                    return result;
-                }
-            } else if (type.isAssignableFrom(LoadEvent.class)) {
-                args.add(redefiningClass == null ? LoadEvent.DEFINE : LoadEvent.REDEFINE);
-            } else if (type.isAssignableFrom(AppClassLoaderExecutor.class)) {
-                args.add(new AppClassLoaderExecutor(classLoader, protectionDomain));
-            } else {
-                LOGGER.error("Unable to call init method on plugin '" + pluginAnnotation.getPluginClass() + "'." + " Method parameter type '" + type + "' is not recognized for @Init annotation.");
-                return result;
+        int[] bindings = methodInvoker.getBindings();
+        Object[] args = new Object[bindings.length];
+        for (int i = 0; i < bindings.length; i++) {
+            switch (bindings[i]) {
+                case ARG_CLASS_LOADER:
+                    args[i] = classLoader;
+                    break;
+                case ARG_CLASS_NAME:
+                    args[i] = className;
+                    break;
+                case ARG_CLASS:
+                    args[i] = redefiningClass;
+                    break;
+                case ARG_PROTECTION_DOMAIN:
+                    args[i] = protectionDomain;
+                    break;
+                case ARG_BYTES:
+                    try {
+                        args[i] = session.getBytes();
+                    } catch (Exception e) {
+                        LOGGER.error("Unable create bytecode for '" + className + "'.", e);
+                        return;
+                    }
+                    break;
+                case ARG_CLASS_POOL:
+                    args[i] = session.getClassPool();
+                    break;
+                case ARG_CT_CLASS:
+                    try {
+                        ctClass = session.getCtClass();
+                        args[i] = ctClass;
+                    } catch (Exception e) {
+                        LOGGER.error("Unable create CtClass for '" + className + "'.", e);
+                        return;
+                    }
+                    break;
+                case ARG_LOAD_EVENT:
+                    args[i] = redefiningClass == null ? LoadEvent.DEFINE : LoadEvent.REDEFINE;
+                    break;
+                case ARG_APP_CLASS_LOADER_EXECUTOR:
+                    args[i] = new AppClassLoaderExecutor(classLoader, protectionDomain);
+                    break;
             }
         }
         try {
             // call method on plugin (or if plugin null -> static method)
-            Object resultObject = pluginAnnotation.getMethod().invoke(pluginAnnotation.getPlugin(), args.toArray());
+            Object resultObject = methodInvoker.invoke(args);
 
             if (resultObject == null) {
-                // Ok, nothing has changed
+                // Ok, nothing has changed (or the shared CtClass was modified, the session knows it)
             } else if (resultObject instanceof byte[]) {
-                result = (byte[]) resultObject;
+                session.setBytes((byte[]) resultObject);
             } else if (resultObject instanceof CtClass) {
-                result = ((CtClass) resultObject).toBytecode();
-
-                // detach on behalf of the clinet - only if this is another
-                // instance than we created (it is closed elsewhere)
-                if (resultObject != ctClass) {
+                // shared CtClass is serialized by the session on behalf of the client, detach any other
+                if (!session.isSessionCtClass((CtClass) resultObject)) {
+                    session.setBytes(((CtClass) resultObject).toBytecode());
                     ((CtClass) resultObject).detach();
                 }
             } else {
-                LOGGER.error("Unknown result of @OnClassLoadEvent method '" + result.getClass().getName() + "'.");
+                LOGGER.error("Unknown result of @OnClassLoadEvent method '" + resultObject.getClass().getName() + "'.");
             }
-
-            // close CtClass if created from here
-            if (ctClass != null) {
-                // if result not set from the method, use class
-                if (resultObject == null) {
-                    result = ctClass.toBytecode();
-                }
-                ctClass.detach();
-            }
-
+            return;
         } catch (IllegalAccessException e) {
             LOGGER.error("IllegalAccessException in transform method on plugin '" + pluginAnnotation.getPluginClass() + "' class '" + className + "'.", e);
         } catch (InvocationTargetException e) {
@@ -252,7 +302,10 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
             LOGGER.error("IOException in transform method on plugin '" + pluginAnnotation.getPluginClass() + "' class '" + className + "'.", e);
         }
 
-        return result;
+        // error in the plugin method - keep the class as it was before the call
+        if (ctClass != null) {
+            session.discardChanges();
+        }
     }
 
 }
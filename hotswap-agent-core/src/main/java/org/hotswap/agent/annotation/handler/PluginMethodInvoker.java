@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.annotation.handler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Plugin method compiled for repeated invocation by an annotation handler.
+ * <p/>
+ * Method parameters are resolved once to indexes of the handler's supported argument types (binding plan),
+ * the handler then only fills the argument array by index. The method is invoked via MethodHandle bound
+ * to the plugin instance, reflection is used only if the handle cannot be created.
+ */
+public class PluginMethodInvoker {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(PluginMethodInvoker.class);
+
+    /**
+     * Binding of a parameter with unsupported type.
+     */
+    public static final int UNKNOWN = -1;
+
+    private final Method method;
+
+    private final Object plugin;
+
+    // (Object[] args) -> Object, null if reflection must be used
+    private final MethodHandle handle;
+
+    private final int[] bindings;
+
+    // index of the first parameter with unsupported type, -1 if all are supported
+    private final int unknownParameter;
+
+    /**
+     * Compile the method.
+     *
+     * @param method         the plugin method
+     * @param plugin         plugin instance, null for static method
+     * @param argumentTypes  argument types supported by the handler, parameter is bound to the first type
+     *                       assignable to it
+     */
+    public PluginMethodInvoker(Method method, Object plugin, Class<?>[] argumentTypes) {
+        this.method = method;
+        this.plugin = plugin;
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        bindings = new int[parameterTypes.length];
+        int unknown = -1;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            bindings[i] = UNKNOWN;
+            for (int j = 0; j < argumentTypes.length; j++) {
+                if (parameterTypes[i].isAssignableFrom(argumentTypes[j])) {
+                    bindings[i] = j;
+                    break;
+                }
+            }
+            if (bindings[i] == UNKNOWN && unknown == -1) {
+                unknown = i;
+            }
+        }
+        unknownParameter = unknown;
+        handle = createHandle(method, plugin);
+    }
+
+    private static MethodHandle createHandle(Method method, Object plugin) {
+        try {
+            MethodHandle mh = MethodHandles.lookup().unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                mh = mh.bindTo(plugin);
+            }
+            return mh.asType(mh.type().generic()).asSpreader(Object[].class, method.getParameterTypes().length);
+        } catch (Exception e) {
+            LOGGER.debug("Unable to create method handle for {}, using reflection.", e, method);
+            return null;
+        }
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Parameter bindings - for each parameter index of the argument type or UNKNOWN.
+     */
+    public int[] getBindings() {
+        return bindings;
+    }
+
+    /**
+     * @return the first parameter type not supported by the handler or null if all are supported
+     */
+    public Class<?> getUnknownParameterType() {
+        return unknownParameter == -1 ? null : method.getParameterTypes()[unknownParameter];
+    }
+
+    /**
+     * Invoke the method.
+     *
+     * @param args arguments in parameter order
+     * @return result of the method (null for void)
+     * @throws IllegalAccessException method is not accessible
+     * @throws InvocationTargetException method threw an exception
+     */
+    public Object invoke(Object[] args) throws IllegalAccessException, InvocationTargetException {
+        if (handle == null) {
+            return method.invoke(plugin, args);
+        }
+        try {
+            return (Object) handle.invokeExact(args);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+}
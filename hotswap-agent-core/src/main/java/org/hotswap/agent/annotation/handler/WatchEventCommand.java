@@ -19,24 +19,21 @@
 package org.hotswap.agent.annotation.handler;
 
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.MergeableCommand;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
-import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.IOUtils;
+import org.hotswap.agent.util.classloader.CachedLoaderClassPath;
+import org.hotswap.agent.util.scanner.ConstantPoolReader;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 /**
@@ -49,6 +46,17 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(WatchEventCommand.class);
 
+    // supported types of method parameters, index in the array is the parameter binding
+    static final Class<?>[] ARGUMENT_TYPES = {ClassLoader.class, URI.class, URL.class, ClassPool.class,
+            FileEvent.class, CtClass.class, String.class};
+    private static final int ARG_CLASS_LOADER = 0;
+    private static final int ARG_URI = 1;
+    private static final int ARG_URL = 2;
+    private static final int ARG_CLASS_POOL = 3;
+    private static final int ARG_FILE_EVENT = 4;
+    private static final int ARG_CT_CLASS = 5;
+    private static final int ARG_CLASS_NAME = 6;
+
     private final PluginAnnotation<T> pluginAnnotation;
     private final WatchEventDTO watchEventDTO;
     private final WatchFileEvent event;
@@ -139,19 +147,27 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
 
         //we may need to crate CtClass on behalf of the client and close it after invocation.
         CtClass ctClass = null;
+        // pool of this event only (nothing is kept after the invocation), created only if the method needs it
+        ClassPool classPool = null;
+        byte[] classBytes = null;
+        String className = null;
 
-        // class file regexp
+        // class file regexp - match the name read directly from bytes, CtClass is created only if the method needs it
         if (watchEventDTO.isClassFileEvent()) {
             try {
-                // TODO creating class only to check name may slow down if lot of handlers is in use.
-                ctClass = createCtClass(event.getURI(), classLoader);
+                classBytes = IOUtils.toByteArray(event.getURI());
             } catch (Exception e) {
-                LOGGER.error("Unable create CtClass for URI '{}'.", e, event.getURI());
+                LOGGER.error("Unable to read class file for URI '{}'.", e, event.getURI());
+                return;
+            }
+            className = ConstantPoolReader.getClassName(classBytes);
+            if (className == null) {
+                LOGGER.error("Unable to read class name from URI '{}'.", event.getURI());
                 return;
             }
 
-            // unable to create CtClass or it's name does not match
-            if (ctClass == null || !ctClass.getName().matches(watchEventDTO.getClassNameRegexp()))
+            // name does not match
+            if (!className.matches(watchEventDTO.getClassNameRegexp()))
                 return;
         }
 
@@ -159,35 +175,53 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
                 pluginAnnotation.getMethod().getName(), plugin.getClass().getName(), event);
 
 
-        List<Object> args = new ArrayList<>();
-        for (Class<?> type : pluginAnnotation.getMethod().getParameterTypes()) {
-            if (type.isAssignableFrom(ClassLoader.class)) {
-                args.add(classLoader);
-            } else if (type.isAssignableFrom(URI.class)) {
-                args.add(event.getURI());
-            } else if (type.isAssignableFrom(URL.class)) {
+        PluginMethodInvoker methodInvoker = pluginAnnotation.getMethodInvoker(ARGUMENT_TYPES);
+        int[] bindings = methodInvoker.getBindings();
+        Object[] args = new Object[bindings.length];
+        for (int i = 0; i < bindings.length; i++) {
+            int binding = bindings[i];
+            if (binding == ARG_CLASS_LOADER) {
+                args[i] = classLoader;
+            } else if (binding == ARG_URI) {
+                args[i] = event.getURI();
+            } else if (binding == ARG_URL) {
                 try {
-                    args.add(event.getURI().toURL());
+                    args[i] = event.getURI().toURL();
                 } catch (MalformedURLException e) {
                     LOGGER.error("Unable to convert URI '{}' to URL.", e, event.getURI());
                     return;
                 }
-            } else if (type.isAssignableFrom(ClassPool.class)) {
-                args.add(ClassPool.getDefault());
-            } else if (type.isAssignableFrom(FileEvent.class)) {
-                args.add(event.getEventType());
-            } else if (watchEventDTO.isClassFileEvent() && type.isAssignableFrom(CtClass.class)) {
-                args.add(ctClass);
-            } else if (watchEventDTO.isClassFileEvent() && type.isAssignableFrom(String.class)) {
-                args.add(ctClass != null ? ctClass.getName() : null);
+            } else if (binding == ARG_CLASS_POOL) {
+                if (classPool == null) {
+                    classPool = createClassPool(classLoader);
+                }
+                args[i] = classPool;
+            } else if (binding == ARG_FILE_EVENT) {
+                args[i] = event.getEventType();
+            } else if (watchEventDTO.isClassFileEvent() && binding == ARG_CT_CLASS) {
+                if (ctClass == null) {
+                    try {
+                        if (classPool == null) {
+                            classPool = createClassPool(classLoader);
+                        }
+                        ctClass = classPool.makeClass(new ByteArrayInputStream(classBytes));
+                    } catch (Exception e) {
+                        LOGGER.error("Unable create CtClass for URI '{}'.", e, event.getURI());
+                        return;
+                    }
+                }
+                args[i] = ctClass;
+            } else if (watchEventDTO.isClassFileEvent() && binding == ARG_CLASS_NAME) {
+                args[i] = className;
             } else {
                 LOGGER.error("Unable to call method {} on plugin {}. Method parameter type {} is not recognized.",
-                        pluginAnnotation.getMethod().getName(), plugin.getClass().getName(), type);
+                        pluginAnnotation.getMethod().getName(), plugin.getClass().getName(),
+                        pluginAnnotation.getMethod().getParameterTypes()[i]);
                 return;
             }
         }
         try {
-            pluginAnnotation.getMethod().invoke(plugin, args.toArray());
+            methodInvoker.invoke(args);
 
             // close CtClass if created from here
             if (ctClass != null) {
@@ -204,17 +238,15 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
 
 
     /**
-     * Creats javaassist CtClass for bytecode manipulation. Add default classloader.
+     * Creates javassist ClassPool of a single event with system path and the classloader. Class files are
+     * read from the shared cache, the pool itself is discarded after the event.
      *
-     * @param uri         uri
      * @param classLoader loader
-     * @return created class
-     * @throws org.hotswap.agent.javassist.NotFoundException
+     * @return created pool
      */
-    private CtClass createCtClass(URI uri, ClassLoader classLoader) throws NotFoundException, IOException {
+    private ClassPool createClassPool(ClassLoader classLoader) {
         ClassPool cp = new ClassPool();
-        cp.appendClassPath(new LoaderClassPath(classLoader));
-
-        return cp.makeClass(new ByteArrayInputStream(IOUtils.toByteArray(uri)));
+        CachedLoaderClassPath.appendClassPath(cp, classLoader);
+        return cp;
     }
 }
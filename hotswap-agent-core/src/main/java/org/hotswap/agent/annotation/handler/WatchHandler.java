@@ -59,6 +59,9 @@ public class WatchHandler<T extends Annotation> implements PluginHandler<T> {
 
         ClassLoader classLoader = pluginManager.getPluginRegistry().getAppClassLoader(pluginAnnotation.getPlugin());
 
+        // compile the method once, it is invoked on each watch event
+        pluginAnnotation.getMethodInvoker(WatchEventCommand.ARGUMENT_TYPES);
+
         try {
             registerResources(pluginAnnotation, classLoader);
         } catch (IOException e) {
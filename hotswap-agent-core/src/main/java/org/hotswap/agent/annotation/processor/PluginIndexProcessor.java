@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.annotation.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.util.scanner.ClassPathIndex;
+
+/**
+ * Annotation processor to generate plugin index ({@link ClassPathIndex#PLUGIN_INDEX}) at compile time.
+ * <p/>
+ * The index lists all classes annotated with {@link Plugin} in the module, plugin registry reads the index
+ * instead of scanning all classes of the plugin package on agent startup. The processor is registered
+ * via META-INF/services, hence it is used automatically by any module depending on hotswap-agent-core.
+ * <p/>
+ * On incremental compilation the existing index is merged with newly compiled plugins.
+ */
+@SupportedAnnotationTypes("org.hotswap.agent.annotation.Plugin")
+public class PluginIndexProcessor extends AbstractProcessor {
+
+    private final Set<String> plugins = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof TypeElement) {
+                    plugins.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+                }
+            }
+        }
+
+        if (roundEnv.processingOver() && !plugins.isEmpty()) {
+            writeIndex();
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        Set<String> index = new TreeSet<>(plugins);
+        readExistingIndex(index);
+
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    ClassPathIndex.PLUGIN_INDEX);
+            try (Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write("# Classes annotated with @" + Plugin.class.getName() + ", generated by "
+                        + getClass().getSimpleName() + "\n");
+                for (String plugin : index) {
+                    writer.write(plugin);
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Unable to write plugin index " + ClassPathIndex.PLUGIN_INDEX + ": " + e.getMessage());
+        }
+    }
+
+    // keep plugins from previous compilation (not compiled now), if they still exist
+    private void readExistingIndex(Set<String> index) {
+        try {
+            FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+                    ClassPathIndex.PLUGIN_INDEX);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(file.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#") || index.contains(line)) {
+                        continue;
+                    }
+                    TypeElement type = processingEnv.getElementUtils().getTypeElement(line.replace('$', '.'));
+                    if (type != null && type.getAnnotation(Plugin.class) != null) {
+                        index.add(line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // no index yet
+        }
+    }
+}
@@ -187,6 +187,10 @@ public class ReflectionCommand extends MergeableCommand {
     }
 
     protected Object doExecuteReflectionCommand(ClassLoader targetClassLoader, String className, Object target, String method, List<Object> params) throws ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
+        // plugin classes are defined in the application classloader lazily
+        if (targetClassLoader != null) {
+            PluginManager.getInstance().patchClassLoader(targetClassLoader, className, null);
+        }
         Class<?> classInAppClassLoader = Class.forName(className, true, targetClassLoader);
 
         LOGGER.trace("Executing command: requestedClassLoader={}, resolvedClassLoader={}, class={}, method={}, params={}",
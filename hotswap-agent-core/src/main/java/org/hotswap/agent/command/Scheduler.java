@@ -31,6 +31,21 @@ public interface Scheduler {
         RUN_DUPLICATE
     }
 
+    /**
+     * Ordered lanes of dependent reload steps. A command scheduled in a lane is not started while
+     * a command of any preceding lane is scheduled or running. Commands without a lane are not ordered.
+     * <p/>
+     * Lanes may be scoped by a classloader - such command waits only for preceding lane commands of the same
+     * classloader, of its parent classloaders and for commands without a classloader scope (hence a reload
+     * in one application does not delay other applications).
+     */
+    public static enum CommandLane {
+        REDEFINE,
+        PROXY,
+        CLASS_INIT,
+        FRAMEWORK_REFRESH
+    }
+
     /**
      * Schedule new command for execution.
      * <p/>
@@ -65,6 +80,35 @@ public interface Scheduler {
      */
     void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour);
 
+    /**
+     * Schedule new command for execution in an ordered lane.
+     * <p/>
+     * The command is executed after the timeout, but not before all commands of preceding lanes
+     * (e.g. proxy redefinition before class init) are finished.
+     *
+     * @param command the command to execute
+     * @param timeout timeout after which the command is executed
+     * @param behaviour if another instance of this commands runs on schedule or within timeout, should we skip it?
+     * @param lane the lane of the command, null for unordered execution
+     */
+    void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour, CommandLane lane);
+
+    /**
+     * Schedule new command for execution in an ordered lane of a classloader.
+     * <p/>
+     * Same as {@link #scheduleCommand(Command, int, DuplicateSheduleBehaviour, CommandLane)}, but the command
+     * waits only for commands of preceding lanes scheduled for the classloader (or its parent) or without
+     * a classloader.
+     *
+     * @param command the command to execute
+     * @param timeout timeout after which the command is executed
+     * @param behaviour if another instance of this commands runs on schedule or within timeout, should we skip it?
+     * @param lane the lane of the command, null for unordered execution
+     * @param classLoader application classloader of the command, null to order with commands of all classloaders
+     */
+    void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour, CommandLane lane,
+                         ClassLoader classLoader);
+
     /**
      * Run the scheduler agent thread.
      */
@@ -22,18 +22,17 @@ import org.hotswap.agent.command.Command;
 import org.hotswap.agent.logging.AgentLogger;
 
 /**
- * Execute a command in a separate thread.
+ * Execute a command in a scheduler worker thread.
  *
  * @author Jiri Bubnik
  */
-public class CommandExecutor extends Thread {
+public class CommandExecutor implements Runnable {
     private static AgentLogger LOGGER = AgentLogger.getLogger(CommandExecutor.class);
 
     final Command command;
 
     public CommandExecutor(Command command) {
         this.command = command;
-        setDaemon(true);
     }
 
     @Override
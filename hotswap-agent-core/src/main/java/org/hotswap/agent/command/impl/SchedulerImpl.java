@@ -18,12 +18,22 @@
  */
 package org.hotswap.agent.command.impl;
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 
 import org.hotswap.agent.annotation.handler.WatchEventCommand;
 import org.hotswap.agent.command.Command;
@@ -33,6 +43,19 @@ import org.hotswap.agent.logging.AgentLogger;
 
 /**
  * Default command scheduler implementation.
+ * <p/>
+ * Scheduled commands are kept in a delay queue, the scheduler thread wakes up exactly at the next deadline
+ * (no polling). Commands are executed on a bounded pool of named daemon worker threads (or on virtual threads
+ * if requested and available - JDK 21+). Equal commands are serialized according to DuplicateSheduleBehaviour.
+ * <p/>
+ * State of equal commands (scheduled instance, running count) is kept in a single concurrent map entry and
+ * updated atomically with compute() - merge of a MergeableCommand is O(1) and scheduling of one command
+ * does not block other commands.
+ * <p/>
+ * Commands scheduled in a CommandLane are ordered - a command is not started while a command of any
+ * preceding lane is scheduled or running, it is blocked and dispatched again when the preceding lanes are empty.
+ * Lanes are scoped by classloader - a command of a classloader waits only for commands of the classloader,
+ * of its parents and commands without a classloader. A command without a classloader waits for all commands.
  *
  * @author Jiri Bubnik
  */
@@ -41,15 +64,53 @@ public class SchedulerImpl implements Scheduler {
 
     int DEFAULT_SCHEDULING_TIMEOUT = 100;
 
-    // TODO : Some commands must be executed in the order in which they are put to scheduler. Therefore
-    //        there could be a LinkedHashMap and CommandExecutor should be singleton for commands that
-    //        must be executed in order. There is an issue related to this problem
-    //        https://github.com/HotswapProjects/HotswapAgent/issues/39  which requires concurrent using
-    final Map<Command, DuplicateScheduleConfig> scheduledCommands = new ConcurrentHashMap<>();
-    final Set<Command> runningCommands = Collections.synchronizedSet(new HashSet<Command>());
+    /**
+     * Default number of worker threads.
+     */
+    public static final int DEFAULT_WORKER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    final ConcurrentHashMap<Command, CommandState> commands = new ConcurrentHashMap<>();
+
+    private static final int LANES = CommandLane.values().length;
+
+    // commands waiting for preceding lanes, guarded by itself (as well as all lane counters)
+    final List<ScheduledCommand> blockedCommands = new ArrayList<>();
+
+    // number of scheduled or running commands per lane (index is CommandLane.ordinal()) of all classloaders
+    final int[] laneCommands = new int[LANES];
+
+    // number of scheduled or running commands per lane without a classloader
+    final int[] unscopedLaneCommands = new int[LANES];
+
+    // number of scheduled or running commands per lane of a classloader, the entry is removed when empty
+    final Map<ClassLoader, int[]> classLoaderLaneCommands = new IdentityHashMap<>();
+
+    // deadlines of scheduled commands, may contain obsolete entries (rescheduled command)
+    final DelayQueue<ScheduledCommand> queue = new DelayQueue<>();
+
+    final int workerThreads;
+    final boolean virtualThreads;
+
+    ExecutorService executor;
 
     Thread runner;
-    boolean stopped;
+    volatile boolean stopped;
+
+    public SchedulerImpl() {
+        this(DEFAULT_WORKER_THREADS, false);
+    }
+
+    /**
+     * Scheduler with custom executor setup.
+     *
+     * @param workerThreads  maximum number of threads executing commands
+     * @param virtualThreads use a virtual thread per command instead of the worker pool (JDK 21+, fallback to
+     *                       the worker pool on older JDKs)
+     */
+    public SchedulerImpl(int workerThreads, boolean virtualThreads) {
+        this.workerThreads = workerThreads > 0 ? workerThreads : DEFAULT_WORKER_THREADS;
+        this.virtualThreads = virtualThreads;
+    }
 
     @Override
     public void scheduleCommand(Command command) {
@@ -63,97 +124,282 @@ public class SchedulerImpl implements Scheduler {
 
     @Override
     public void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour) {
-        synchronized (scheduledCommands) {
-            Command targetCommand = command;
-            if (scheduledCommands.containsKey(command) && (command instanceof MergeableCommand)) {
-                // get existing equals command and merge it
-                for (Command scheduledCommand : scheduledCommands.keySet()) {
-                    if (command.equals(scheduledCommand)) {
-                        targetCommand = ((MergeableCommand) scheduledCommand).merge(command);
-                        break;
-                    }
+        scheduleCommand(command, timeout, behaviour, null);
+    }
+
+    @Override
+    public void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour, CommandLane lane) {
+        scheduleCommand(command, timeout, behaviour, lane, null);
+    }
+
+    @Override
+    public void scheduleCommand(final Command command, int timeout, final DuplicateSheduleBehaviour behaviour,
+                                final CommandLane lane, final ClassLoader classLoader) {
+        final long time = System.currentTimeMillis() + timeout;
+        final ScheduledCommand[] scheduled = new ScheduledCommand[2];
+        commands.compute(command, new BiFunction<Command, CommandState, CommandState>() {
+            @Override
+            public CommandState apply(Command key, CommandState state) {
+                if (state == null) {
+                    state = new CommandState();
+                }
+                Command targetCommand = command;
+                if (state.scheduled != null && (command instanceof MergeableCommand)) {
+                    // merge to existing equals command
+                    targetCommand = ((MergeableCommand) state.scheduled.command).merge(command);
                 }
+                // replace existing equals command and reset timer
+                scheduled[1] = state.scheduled;
+                state.scheduled = new ScheduledCommand(targetCommand, time, behaviour, lane, classLoader);
+                scheduled[0] = state.scheduled;
+                acquireLane(lane, classLoader);
+                return state;
             }
-
-            // map may already contain equals command, put will replace it and reset timer
-            scheduledCommands.put(targetCommand, new DuplicateScheduleConfig(System.currentTimeMillis() + timeout, behaviour));
-            LOGGER.trace("{} scheduled for execution in {}ms", targetCommand, timeout);
+        });
+        queue.add(scheduled[0]);
+        if (scheduled[1] != null) {
+            // replaced command is never executed
+            releaseLane(scheduled[1].lane, scheduled[1].classLoader);
         }
+        LOGGER.trace("{} scheduled for execution in {}ms", command, timeout);
     }
 
     /**
-     * One cycle of the scheduler agent. Process all commands which are not currently
-     * running and time lower than current milliseconds.
+     * Scheduled command deadline reached - execute the command unless it was rescheduled meanwhile or
+     * equal command is currently running.
      *
-     * @return true if the agent should continue (false for fatal error)
+     * @param scheduledCommand the command from the queue
      */
-    private boolean processCommands() {
-        Long currentTime = System.currentTimeMillis();
-        synchronized (scheduledCommands) {
-            for (Iterator<Map.Entry<Command, DuplicateScheduleConfig>> it = scheduledCommands.entrySet().iterator(); it.hasNext(); ) {
-                Map.Entry<Command, DuplicateScheduleConfig> entry = it.next();
-                DuplicateScheduleConfig config = entry.getValue();
-                Command command = entry.getKey();
-
-                // if timeout
-                if (config.getTime() < currentTime) {
-                    // command is currently running
-                    if (runningCommands.contains(command)) {
-                        if (config.getBehaviour().equals(DuplicateSheduleBehaviour.SKIP)) {
-                            LOGGER.debug("Skipping duplicate running command {}", command);
-                            it.remove();
-                        } else if (config.getBehaviour().equals(DuplicateSheduleBehaviour.RUN_DUPLICATE)) {
-                            executeCommand(command);
-                            it.remove();
-                        }
-                    } else {
-                        executeCommand(command);
-                        it.remove();
+    private void dispatch(final ScheduledCommand scheduledCommand) {
+        if (!isLaneOpen(scheduledCommand)) {
+            return;
+        }
+
+        final Command command = scheduledCommand.command;
+        final boolean[] execute = new boolean[1];
+        final boolean[] skipped = new boolean[1];
+        commands.computeIfPresent(command, new BiFunction<Command, CommandState, CommandState>() {
+            @Override
+            public CommandState apply(Command key, CommandState state) {
+                // rescheduled (replaced by newer instance)
+                if (state.scheduled != scheduledCommand) {
+                    return state;
+                }
+
+                // command is currently running
+                if (state.running > 0) {
+                    if (scheduledCommand.behaviour == DuplicateSheduleBehaviour.SKIP) {
+                        LOGGER.debug("Skipping duplicate running command {}", command);
+                        state.scheduled = null;
+                        skipped[0] = true;
+                        return state;
+                    } else if (scheduledCommand.behaviour == DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER) {
+                        // dispatched again after the running command finishes
+                        scheduledCommand.waiting = true;
+                        return state;
                     }
                 }
+
+                state.scheduled = null;
+                state.running++;
+                execute[0] = true;
+                return state;
+            }
+        });
+        if (execute[0]) {
+            executeCommand(command, scheduledCommand.lane, scheduledCommand.classLoader);
+        } else if (skipped[0]) {
+            releaseLane(scheduledCommand.lane, scheduledCommand.classLoader);
+        }
+    }
+
+    /**
+     * Check that no command of preceding lanes is scheduled or running (within the classloader scope). Otherwise
+     * the command is blocked until the preceding lanes are empty.
+     */
+    private boolean isLaneOpen(ScheduledCommand scheduledCommand) {
+        if (scheduledCommand.lane == null) {
+            return true;
+        }
+        synchronized (blockedCommands) {
+            for (int i = 0; i < scheduledCommand.lane.ordinal(); i++) {
+                if (isLaneBusy(i, scheduledCommand.classLoader)) {
+                    LOGGER.trace("{} waiting for commands of lane {}", scheduledCommand.command, CommandLane.values()[i]);
+                    blockedCommands.add(scheduledCommand);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // a command of the lane blocks commands of the classloader (guarded by blockedCommands)
+    private boolean isLaneBusy(int lane, ClassLoader classLoader) {
+        if (laneCommands[lane] == 0) {
+            return false;
+        }
+        if (classLoader == null || unscopedLaneCommands[lane] > 0) {
+            return true;
+        }
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            int[] counts = classLoaderLaneCommands.get(loader);
+            if (counts != null && counts[lane] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // lane counters of the classloader (guarded by blockedCommands)
+    private int[] getLaneCommands(ClassLoader classLoader) {
+        if (classLoader == null) {
+            return unscopedLaneCommands;
+        }
+        int[] counts = classLoaderLaneCommands.get(classLoader);
+        if (counts == null) {
+            counts = new int[LANES];
+            classLoaderLaneCommands.put(classLoader, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Command of the lane is scheduled.
+     */
+    private void acquireLane(CommandLane lane, ClassLoader classLoader) {
+        if (lane == null) {
+            return;
+        }
+        synchronized (blockedCommands) {
+            laneCommands[lane.ordinal()]++;
+            getLaneCommands(classLoader)[lane.ordinal()]++;
+        }
+    }
+
+    /**
+     * Command of the lane is finished (or dropped). If it was the last one of the classloader, dispatch commands
+     * blocked by the lane again (they are blocked again if still waiting for other commands).
+     */
+    private void releaseLane(CommandLane lane, ClassLoader classLoader) {
+        if (lane == null) {
+            return;
+        }
+        List<ScheduledCommand> unblocked = new ArrayList<>();
+        synchronized (blockedCommands) {
+            laneCommands[lane.ordinal()]--;
+            int[] counts = getLaneCommands(classLoader);
+            if (--counts[lane.ordinal()] > 0) {
+                return;
+            }
+            if (classLoader != null && isEmpty(counts)) {
+                classLoaderLaneCommands.remove(classLoader);
+            }
+            for (Iterator<ScheduledCommand> it = blockedCommands.iterator(); it.hasNext(); ) {
+                ScheduledCommand blocked = it.next();
+                if (blocked.lane.ordinal() > lane.ordinal()) {
+                    unblocked.add(blocked);
+                    it.remove();
+                }
             }
         }
+        for (ScheduledCommand blocked : unblocked) {
+            if (!stopped) {
+                dispatch(blocked);
+            }
+        }
+    }
 
+    private static boolean isEmpty(int[] counts) {
+        for (int count : counts) {
+            if (count > 0) {
+                return false;
+            }
+        }
         return true;
     }
 
     /**
-     * Execute this command in a separate thread.
+     * Execute this command in a worker thread.
      *
-     * @param command the command to execute
+     * @param command     the command to execute
+     * @param lane        lane of the command (may be null)
+     * @param classLoader classloader scope of the lane (may be null)
      */
-    private void executeCommand(Command command) {
+    private void executeCommand(final Command command, final CommandLane lane, final ClassLoader classLoader) {
         if (command instanceof WatchEventCommand)
             LOGGER.trace("Executing {}", command); // too much output for debug
         else
             LOGGER.debug("Executing {}", command);
 
-        runningCommands.add(command);
-        new CommandExecutor(command) {
+        getExecutor().execute(new CommandExecutor(command) {
             @Override
             public void finished() {
-                runningCommands.remove(command);
+                commandFinished(command, lane, classLoader);
+            }
+        });
+    }
+
+    private void commandFinished(Command command, CommandLane lane, ClassLoader classLoader) {
+        final ScheduledCommand[] waiting = new ScheduledCommand[1];
+        commands.computeIfPresent(command, new BiFunction<Command, CommandState, CommandState>() {
+            @Override
+            public CommandState apply(Command key, CommandState state) {
+                state.running--;
+                if (state.scheduled != null && state.scheduled.waiting) {
+                    state.scheduled.waiting = false;
+                    waiting[0] = state.scheduled;
+                }
+                // remove the entry when nothing is running or scheduled
+                return state.running > 0 || state.scheduled != null ? state : null;
+            }
+        });
+        releaseLane(lane, classLoader);
+        if (waiting[0] != null && !stopped) {
+            dispatch(waiting[0]);
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = virtualThreads ? createVirtualThreadExecutor() : null;
+            if (executor == null) {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+                pool.allowCoreThreadTimeOut(true);
+                executor = pool;
             }
-        }.start();
+        }
+        return executor;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() via reflection (JDK 21+).
+     *
+     * @return the executor or null if not available
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            LOGGER.debug("Virtual threads not available, using worker thread pool.", e);
+            return null;
+        }
     }
 
     @Override
     public void run() {
-        runner = new Thread() {
+        runner = new Thread("HotswapAgent-Scheduler") {
             @Override
             public void run() {
-                for (; ; ) {
-                    if (stopped || !processCommands())
-                        break;
-
-                    // wait for 100 ms
+                while (!stopped) {
                     try {
-                        sleep(100);
+                        dispatch(queue.take());
                     } catch (InterruptedException e) {
                         break;
+                    } catch (Throwable t) {
+                        LOGGER.error("Error dispatching scheduled command.", t);
                     }
                 }
-
             }
         };
 
@@ -164,26 +410,76 @@ public class SchedulerImpl implements Scheduler {
     @Override
     public void stop() {
         stopped = true;
+        if (runner != null) {
+            runner.interrupt();
+        }
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * State of equal commands, modified only within compute() of the commands map.
+     */
+    private static class CommandState {
+        // currently scheduled instance (null if none)
+        ScheduledCommand scheduled;
+
+        // number of running instances (RUN_DUPLICATE may run the same command twice)
+        int running;
     }
 
-    private static class DuplicateScheduleConfig {
+    /**
+     * Command with its deadline (element of the delay queue).
+     */
+    private static class ScheduledCommand implements Delayed {
+        final Command command;
+
         // time when to run
-        long time;
+        final long time;
 
         // behaviour in case of conflict (running same command in progress)
-        DuplicateSheduleBehaviour behaviour;
+        final DuplicateSheduleBehaviour behaviour;
 
-        private DuplicateScheduleConfig(long time, DuplicateSheduleBehaviour behaviour) {
+        // ordered lane (may be null)
+        final CommandLane lane;
+
+        // classloader scope of the lane (may be null)
+        final ClassLoader classLoader;
+
+        // deadline passed but equal command is still running (WAIT_AND_RUN_AFTER)
+        boolean waiting;
+
+        private ScheduledCommand(Command command, long time, DuplicateSheduleBehaviour behaviour, CommandLane lane,
+                                 ClassLoader classLoader) {
+            this.command = command;
             this.time = time;
             this.behaviour = behaviour;
+            this.lane = lane;
+            this.classLoader = classLoader;
         }
 
-        public long getTime() {
-            return time;
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
         }
 
-        public DuplicateSheduleBehaviour getBehaviour() {
-            return behaviour;
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(time, ((ScheduledCommand) o).time);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HotswapAgent-CommandExecutor-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
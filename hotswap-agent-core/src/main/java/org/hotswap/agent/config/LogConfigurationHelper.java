@@ -28,6 +28,7 @@ import java.util.Locale;
 import java.util.Properties;
 
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.logging.AgentLoggerHandler;
 
 /**
  * Configure LOG level and handler according to properties.
@@ -37,6 +38,9 @@ public class LogConfigurationHelper {
 
     public static final String LOGGER_PREFIX = "LOGGER";
     public static final String DATETIME_FORMAT = "LOGGER_DATETIME_FORMAT";
+    public static final String ASYNC = "LOGGER_ASYNC";
+    private static final String ASYNC_BUFFER_SIZE = "LOGGER_ASYNC.bufferSize";
+    private static final String ASYNC_POLICY = "LOGGER_ASYNC.policy";
     private static final String LOGFILE = "LOGFILE";
     private static final String LOGFILE_APPEND = "LOGFILE.append";
 
@@ -54,6 +58,10 @@ public class LogConfigurationHelper {
                     if (dateTimeFormat != null && !dateTimeFormat.isEmpty()) {
                         AgentLogger.setDateTimeFormat(dateTimeFormat);
                     }
+                } else if (property.startsWith(ASYNC)) {
+                    if (property.equals(ASYNC) && parseBoolean(properties.getProperty(ASYNC))) {
+                        configureAsync(properties);
+                    }
                 } else {
                     String classPrefix = getClassPrefix(property);
                     AgentLogger.Level level = getLevel(property, properties.getProperty(property));
@@ -79,6 +87,27 @@ public class LogConfigurationHelper {
         }
     }
 
+    // switch the handler to asynchronous mode
+    private static void configureAsync(Properties properties) {
+        int bufferSize = AgentLoggerHandler.DEFAULT_ASYNC_BUFFER_SIZE;
+        String bufferSizeValue = properties.getProperty(ASYNC_BUFFER_SIZE);
+        if (bufferSizeValue != null && !bufferSizeValue.isEmpty()) {
+            try {
+                bufferSize = Integer.parseInt(bufferSizeValue.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid configuration value for property '{}'. Not a number '{}'.", ASYNC_BUFFER_SIZE, bufferSizeValue);
+            }
+        }
+
+        String policy = properties.getProperty(ASYNC_POLICY, "drop").trim();
+        boolean blockWhenFull = "block".equalsIgnoreCase(policy);
+        if (!blockWhenFull && !"drop".equalsIgnoreCase(policy)) {
+            LOGGER.warning("Invalid configuration value for property '{}'. Unknown policy '{}', using 'drop'.", ASYNC_POLICY, policy);
+        }
+
+        AgentLogger.getHandler().setAsync(bufferSize, blockWhenFull);
+    }
+
     // resolve level from enum
     private static AgentLogger.Level getLevel(String property, String levelName) {
         try {
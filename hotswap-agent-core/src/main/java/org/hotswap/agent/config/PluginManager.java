@@ -19,20 +19,24 @@
 package org.hotswap.agent.config;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
 import java.security.ProtectionDomain;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.command.impl.SchedulerImpl;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.HotswapTransformer;
 import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
+import org.hotswap.agent.util.classloader.WeakClassLoaderMap;
+import org.hotswap.agent.versions.DeploymentInfo;
 import org.hotswap.agent.watch.Watcher;
 import org.hotswap.agent.watch.WatcherFactory;
 
@@ -126,11 +130,12 @@ public class PluginManager {
 
         // create default configuration from this classloader
         ClassLoader classLoader = getClass().getClassLoader();
-        classLoaderConfigurations.put(classLoader, new PluginConfiguration(classLoader));
+        PluginConfiguration configuration = new PluginConfiguration(classLoader);
+        putConfiguration(classLoader, configuration);
 
         if (watcher == null) {
             try {
-                watcher = new WatcherFactory().getWatcher();
+                watcher = new WatcherFactory().getWatcher(configuration.getProperty("watcher.backend"));
             } catch (IOException e) {
                 LOGGER.debug("Unable to create default watcher.", e);
             }
@@ -138,7 +143,8 @@ public class PluginManager {
         watcher.run();
 
         if (scheduler == null) {
-            scheduler = new SchedulerImpl();
+            scheduler = new SchedulerImpl(getIntProperty(configuration, "scheduler.workerThreads"),
+                    configuration.getPropertyBoolean("scheduler.virtualThreads"));
         }
         scheduler.run();
 
@@ -148,9 +154,48 @@ public class PluginManager {
         instrumentation.addTransformer(hotswapTransformer);
     }
 
+    private static int getIntProperty(PluginConfiguration configuration, String property) {
+        String value = configuration.getProperty(property);
+        if (value != null && !value.trim().isEmpty()) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.error("Invalid value '{}' of property '{}'.", value, property);
+            }
+        }
+        return 0;
+    }
+
     ClassLoaderDefineClassPatcher classLoaderPatcher = new ClassLoaderDefineClassPatcher();
-    Map<ClassLoader, PluginConfiguration> classLoaderConfigurations = new HashMap<>();
-    Set<ClassLoaderInitListener> classLoaderInitListeners = new HashSet<>();
+
+    // configurations of initialized classloaders
+    Map<ClassLoader, PluginConfiguration> classLoaderConfigurations = new WeakClassLoaderMap<>();
+
+    // memoized getPluginConfiguration() result of any classloader, valid for a configurations version
+    private Map<ClassLoader, ResolvedConfiguration> resolvedConfigurations = new WeakClassLoaderMap<>();
+
+    // incremented on any change of classLoaderConfigurations
+    private final AtomicInteger configurationsVersion = new AtomicInteger();
+
+    // lock per initialized classloader
+    private Map<ClassLoader, Object> classLoaderInitLocks = new WeakClassLoaderMap<>();
+
+    // protection domain of application classes passed to initClassLoader(), used for plugin classes defined
+    // in the classloader. The domain references its classloader, hence it is held weakly (classes
+    // of the classloader keep it reachable).
+    private Map<ClassLoader, WeakReference<ProtectionDomain>> classLoaderProtectionDomains = new WeakClassLoaderMap<>();
+
+    Set<ClassLoaderInitListener> classLoaderInitListeners = new CopyOnWriteArraySet<>();
+
+    private static class ResolvedConfiguration {
+        final int version;
+        final PluginConfiguration configuration;
+
+        ResolvedConfiguration(int version, PluginConfiguration configuration) {
+            this.version = version;
+            this.configuration = configuration;
+        }
+    }
 
     public void registerClassLoaderInitListener(ClassLoaderInitListener classLoaderInitListener) {
         classLoaderInitListeners.add(classLoaderInitListener);
@@ -160,12 +205,15 @@ public class PluginManager {
     }
 
     public void initClassLoader(ClassLoader classLoader) {
-        // use default protection domain
-        initClassLoader(classLoader, classLoader.getClass().getProtectionDomain());
+        // protection domain unknown, use the domain of a later initClassLoader() call (if any)
+        initClassLoader(classLoader, null);
     }
 
     public void initClassLoader(ClassLoader classLoader, ProtectionDomain protectionDomain) {
 
+        if (classLoader != null && protectionDomain != null)
+            rememberProtectionDomain(classLoader, protectionDomain);
+
         if (classLoaderConfigurations.containsKey(classLoader))
             return;
 
@@ -175,21 +223,15 @@ public class PluginManager {
             classLoader.equals(getClass().getClassLoader().getParent()))
             return;
 
-        // synchronize ClassLoader patching - multiple classloaders may be patched at the same time
-        // and they may synchronize loading for security reasons and introduce deadlocks
-        synchronized (this) {
+        // serialize initialization of the same classloader only, other classloaders may be initialized in parallel
+        // (plugin classes are defined in the classloader lazily, see patchClassLoader())
+        synchronized (getClassLoaderInitLock(classLoader)) {
             if (classLoaderConfigurations.containsKey(classLoader))
                 return;
 
-            // transformation
-            if (classLoader != null && classLoaderPatcher.isPatchAvailable(classLoader)) {
-                classLoaderPatcher.patch(getClass().getClassLoader(), PLUGIN_PACKAGE.replace(".", "/"),
-                        classLoader, protectionDomain);
-            }
-
             // create new configuration for the classloader
             PluginConfiguration configuration = new PluginConfiguration(getPluginConfiguration(getClass().getClassLoader()), classLoader);
-            classLoaderConfigurations.put(classLoader, configuration);
+            putConfiguration(classLoader, configuration);
         }
 
         // call listeners
@@ -197,6 +239,44 @@ public class PluginManager {
             classLoaderInitListener.onInit(classLoader);
     }
 
+    /**
+     * Define classes of a plugin package (e.g. org.hotswap.agent.plugin.spring) in the application classloader,
+     * if not yet defined. Called before a plugin transforms a class of the classloader or before a plugin
+     * is initialized in the classloader - only plugin classes which may be actually used are copied.
+     *
+     * @param classLoader      application classloader
+     * @param className        class of the plugin package (typically the plugin class)
+     * @param protectionDomain protection domain of defined classes, null to use the domain passed to
+     *                         {@link #initClassLoader(ClassLoader, ProtectionDomain)}
+     */
+    public void patchClassLoader(ClassLoader classLoader, String className, ProtectionDomain protectionDomain) {
+        if (classLoader == null || classLoader == getClass().getClassLoader() ||
+                !className.startsWith(PLUGIN_PACKAGE + "."))
+            return;
+
+        // fast path - called for each plugin transformation, no lock once the package is defined
+        if (classLoaderPatcher.isPluginPackagePatched(PLUGIN_PACKAGE.replace(".", "/"), className, classLoader))
+            return;
+
+        if (!classLoaderPatcher.isPatchAvailable(classLoader))
+            return;
+
+        // parent of current classloader (system/bootstrap)
+        if (getClass().getClassLoader() != null &&
+            classLoader.equals(getClass().getClassLoader().getParent()))
+            return;
+
+        if (protectionDomain == null)
+            protectionDomain = getProtectionDomain(classLoader);
+
+        // synchronize ClassLoader patching - multiple classloaders may be patched at the same time
+        // and they may synchronize loading for security reasons and introduce deadlocks
+        synchronized (this) {
+            classLoaderPatcher.patchPluginPackage(getClass().getClassLoader(), PLUGIN_PACKAGE.replace(".", "/"),
+                    className, classLoader, protectionDomain);
+        }
+    }
+
     /**
      * Remove any classloader reference and close all plugin instances associated with classloader.
      * This method is called typically after webapp undeploy.
@@ -205,18 +285,68 @@ public class PluginManager {
      */
     public void closeClassLoader(ClassLoader classLoader) {
         pluginRegistry.closeClassLoader(classLoader);
-        classLoaderConfigurations.remove(classLoader);
+        if (classLoaderConfigurations.remove(classLoader) != null) {
+            configurationsVersion.incrementAndGet();
+            hotswapTransformer.invalidateApplicability(classLoader);
+        }
+        classLoaderInitLocks.remove(classLoader);
+        classLoaderProtectionDomains.remove(classLoader);
         hotswapTransformer.closeClassLoader(classLoader);
+        DeploymentInfo.invalidate(classLoader);
     }
 
 
     public PluginConfiguration getPluginConfiguration(ClassLoader classLoader) {
+        int version = configurationsVersion.get();
+        ResolvedConfiguration resolved = resolvedConfigurations.get(classLoader);
+        if (resolved != null && resolved.version == version) {
+            return resolved.configuration;
+        }
+
         // if needed, iterate to first parent loader with a known configuration
         ClassLoader loader = classLoader;
         while (loader != null && !classLoaderConfigurations.containsKey(loader))
             loader = loader.getParent();
 
-        return classLoaderConfigurations.get(loader);
+        PluginConfiguration configuration = classLoaderConfigurations.get(loader);
+        if (configuration != null) {
+            resolvedConfigurations.put(classLoader, new ResolvedConfiguration(version, configuration));
+        }
+        return configuration;
+    }
+
+    // register configuration and invalidate memoized configurations of child classloaders
+    private void putConfiguration(ClassLoader classLoader, PluginConfiguration configuration) {
+        classLoaderConfigurations.put(classLoader, configuration);
+        configurationsVersion.incrementAndGet();
+        // only the classloader and its children may resolve to the new configuration
+        hotswapTransformer.invalidateApplicability(classLoader);
+    }
+
+    // keep the first known domain, the same classloader should always define plugin classes with the same domain
+    private void rememberProtectionDomain(ClassLoader classLoader, ProtectionDomain protectionDomain) {
+        WeakReference<ProtectionDomain> ref = classLoaderProtectionDomains.get(classLoader);
+        if (ref == null || ref.get() == null) {
+            classLoaderProtectionDomains.put(classLoader, new WeakReference<>(protectionDomain));
+        }
+    }
+
+    // protection domain passed to initClassLoader() or null (default domain of the classloader)
+    private ProtectionDomain getProtectionDomain(ClassLoader classLoader) {
+        WeakReference<ProtectionDomain> ref = classLoaderProtectionDomains.get(classLoader);
+        return ref != null ? ref.get() : null;
+    }
+
+    private Object getClassLoaderInitLock(ClassLoader classLoader) {
+        Object lock = classLoaderInitLocks.get(classLoader);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = classLoaderInitLocks.putIfAbsent(classLoader, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
     }
 
     //////////////////////////   AGENT SERVICES /////////////////////////////////////
@@ -288,12 +418,14 @@ public class PluginManager {
             }
             try {
                 LOGGER.reload("Reloading classes {} (autoHotswap)", Arrays.toString(classNames));
+                long start = System.nanoTime();
                 synchronized (hotswapLock) {
                     instrumentation.redefineClasses(definitions);
                 }
-                LOGGER.debug("... reloaded classes {} (autoHotswap)", Arrays.toString(classNames));
+                LOGGER.debug("... reloaded {} classes in {}ms (autoHotswap)", classNames.length,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
             } catch (Exception e) {
-                throw new IllegalStateException("Unable to redefine classes", e);
+                throw new IllegalStateException("Unable to redefine classes " + Arrays.toString(classNames), e);
             }
             reloadMap.clear();
         }
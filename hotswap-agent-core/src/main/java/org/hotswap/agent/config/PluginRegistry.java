@@ -31,7 +31,8 @@ import org.hotswap.agent.annotation.handler.AnnotationProcessor;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
 import org.hotswap.agent.util.scanner.ClassPathAnnotationScanner;
-import org.hotswap.agent.util.scanner.ClassPathScanner;
+import org.hotswap.agent.util.scanner.ClassPathIndex;
+import org.hotswap.agent.util.scanner.ParallelClassPathScanner;
 
 /**
  * Registry to support plugin manager.
@@ -84,12 +85,16 @@ public class PluginRegistry {
     public PluginRegistry(PluginManager pluginManager, ClassLoaderDefineClassPatcher classLoaderPatcher) {
         this.pluginManager = pluginManager;
         this.classLoaderPatcher = classLoaderPatcher;
-        annotationScanner = new ClassPathAnnotationScanner(Plugin.class.getName(), new ClassPathScanner());
+        annotationScanner = new ClassPathAnnotationScanner(Plugin.class.getName(), new ParallelClassPathScanner(),
+                ClassPathIndex.PLUGIN_INDEX);
         annotationProcessor = new AnnotationProcessor(pluginManager);
     }
 
     /**
      * Scan for plugins by @Plugin annotation on PLUGIN_PATH and process plugin annotations.
+     * <p/>
+     * Plugins of classpath locations with build-time index {@link ClassPathIndex#PLUGIN_INDEX} are read from the index,
+     * other locations are scanned.
      *
      * @param classLoader   classloader to resolve plugin package. This will be used by annotation scanner.
      * @param pluginPackage the package to be searched (e.g. org.agent.hotswap.plugin)
@@ -164,6 +169,9 @@ public class PluginRegistry {
 
         Class<Object> clazz = getPluginClass(pluginClass);
 
+        // plugin support classes must be visible to the application classloader
+        pluginManager.patchClassLoader(appClassLoader, pluginClass, null);
+
         // skip if the plugin is disabled
         if (pluginManager.getPluginConfiguration(appClassLoader).isDisabledPlugin(clazz)) {
             LOGGER.debug("Plugin {} disabled in classloader {}.", clazz, appClassLoader );
@@ -18,13 +18,18 @@
  */
 package org.hotswap.agent.logging;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Create custom simple logging mechanism.
  * <p/>
  * Instead of java.util.logging because many frameworks and APP servers will complicate/override settings.
+ * <p/>
+ * Effective level of a logger is resolved once and cached until the level configuration changes (version counter),
+ * a disabled log call costs a volatile read and an int comparison. Use isXxxEnabled() guards for messages
+ * which are expensive to build.
  *
  * @author Jiri Bubnik
  */
@@ -40,18 +45,28 @@ public class AgentLogger {
         return new AgentLogger(clazz);
     }
 
-    private static Map<String, Level> currentLevels = new HashMap<>();
+    private static Map<String, Level> currentLevels = new ConcurrentHashMap<>();
 
     public static void setLevel(String classPrefix, Level level) {
         currentLevels.put(classPrefix, level);
+        levelsVersion.incrementAndGet();
     }
 
-    private static Level rootLevel = Level.INFO;
+    private static volatile Level rootLevel = Level.INFO;
 
     public static void setLevel(Level level) {
         rootLevel = level;
+        levelsVersion.incrementAndGet();
     }
 
+    // incremented on each level change to invalidate cached effective levels (a lost concurrent increment
+    // would keep a stale cached level valid)
+    private static final AtomicInteger levelsVersion = new AtomicInteger();
+
+    // bits used by level ordinal in the cached state
+    private static final int LEVEL_BITS = 3;
+    private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+
     private static AgentLoggerHandler handler = new AgentLoggerHandler();
 
     public static void setHandler(AgentLoggerHandler handler) {
@@ -80,34 +95,44 @@ public class AgentLogger {
 
     private Class clazz;
 
+    // levels version and effective level ordinal packed to single int (consistent read without locking),
+    // -1 if not resolved yet
+    private volatile int cachedLevel = -1;
+
     private AgentLogger(Class clazz) {
         this.clazz = clazz;
     }
 
 
     public boolean isLevelEnabled(Level level) {
+        // levels are ordered from most serious, the level is enabled if it precedes or equals the class level
+        return level.ordinal() <= getEffectiveLevelOrdinal();
+    }
+
+    private int getEffectiveLevelOrdinal() {
+        int version = levelsVersion.get();
+        int cached = cachedLevel;
+        if (cached != -1 && (cached >>> LEVEL_BITS) == (version & (-1 >>> LEVEL_BITS))) {
+            return cached & LEVEL_MASK;
+        }
+
         Level classLevel = rootLevel;
 
         String className = clazz.getName();
         String longestPrefix = "";
-        for (String classPrefix : currentLevels.keySet()) {
+        for (Map.Entry<String, Level> entry : currentLevels.entrySet()) {
+            String classPrefix = entry.getKey();
             if (className.startsWith(classPrefix)) {
                 if (classPrefix.length() > longestPrefix.length()) {
                     longestPrefix = classPrefix;
-                    classLevel = currentLevels.get(classPrefix);
+                    classLevel = entry.getValue();
                 }
             }
         }
 
-        // iterate levels in order from most serious. If classLevel is first, it preciedes required level and log is disabled
-        for (Level l : Level.values()) {
-            if (l == level)
-                return true;
-            if (l == classLevel)
-                return false;
-        }
-
-        throw new IllegalArgumentException("Should not happen.");
+        // version read before resolution - concurrent change of levels invalidates the result
+        cachedLevel = (version << LEVEL_BITS) | classLevel.ordinal();
+        return classLevel.ordinal();
     }
 
     public void log(Level level, String message, Throwable throwable, Object... args) {
@@ -167,10 +192,18 @@ public class AgentLogger {
         log(Level.TRACE, message, throwable, args);
     }
 
+    public boolean isTraceEnabled() {
+        return isLevelEnabled(Level.TRACE);
+    }
+
     public boolean isDebugEnabled() {
         return isLevelEnabled(Level.DEBUG);
     }
 
+    public boolean isInfoEnabled() {
+        return isLevelEnabled(Level.INFO);
+    }
+
     public boolean isWarnEnabled() {
         return isLevelEnabled(Level.WARNING);
     }
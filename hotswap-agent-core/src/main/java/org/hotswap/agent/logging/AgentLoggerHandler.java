@@ -21,20 +21,60 @@ package org.hotswap.agent.logging;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalField;
+import java.time.temporal.WeekFields;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple handler to log to output stream (default is system.out).
+ * <p/>
+ * In asynchronous mode the formatted lines are put to a preallocated ring buffer and written by a single
+ * writer thread, hence a slow console does not stall the logging thread (e.g. class transformation). If the buffer
+ * is full, the line is either dropped (and reported later) or the logging thread waits for free space.
  *
  * @author Jiri Bubnik
  */
 public class AgentLoggerHandler {
 
+    /**
+     * Default capacity of the asynchronous buffer (lines).
+     */
+    public static final int DEFAULT_ASYNC_BUFFER_SIZE = 8192;
+
+    // do not block JVM exit on a stuck output stream
+    private static final long SHUTDOWN_WRITER_TIMEOUT_MILLIS = 1000;
+
+    // period to check if the writer was stopped while waiting for free space in full buffer
+    private static final long BLOCK_CHECK_MILLIS = 100;
+
     // stream to receive the log
     PrintStream outputStream;
 
-    SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
+    // thread safe
+    DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    // buffer of lines to write in asynchronous mode, null in synchronous mode
+    private volatile BlockingQueue<String> asyncBuffer;
+
+    // wait for free space in full buffer (otherwise drop the line)
+    private volatile boolean blockWhenFull;
+
+    // thread writing lines of asyncBuffer
+    private Thread asyncWriter;
+
+    private final AtomicInteger droppedLines = new AtomicInteger();
 
     /**
      * Setup custom stream (default is System.out).
@@ -45,9 +85,136 @@ public class AgentLoggerHandler {
         this.outputStream = outputStream;
     }
 
+    /**
+     * Switch to asynchronous mode - lines are written by a writer thread.
+     *
+     * @param bufferSize     capacity of the buffer (lines)
+     * @param blockWhenFull  true to wait for free space in full buffer, false to drop the line
+     */
+    public synchronized void setAsync(int bufferSize, boolean blockWhenFull) {
+        this.blockWhenFull = blockWhenFull;
+        if (asyncBuffer != null) {
+            return;
+        }
+        final BlockingQueue<String> buffer = new ArrayBlockingQueue<>(bufferSize > 0 ? bufferSize : DEFAULT_ASYNC_BUFFER_SIZE);
+
+        final Thread writer = new Thread("HotswapAgent-Logger") {
+            @Override
+            public void run() {
+                List<String> lines = new ArrayList<>();
+                while (true) {
+                    try {
+                        lines.add(buffer.take());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    buffer.drainTo(lines);
+                    writeLines(lines);
+                    lines.clear();
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+
+        // flush pending lines on exit
+        Runtime.getRuntime().addShutdownHook(new Thread("HotswapAgent-Logger-Flush") {
+            @Override
+            public void run() {
+                stopAsync();
+            }
+        });
+
+        asyncWriter = writer;
+        asyncBuffer = buffer;
+    }
+
+    /**
+     * Switch back to synchronous mode and write pending lines (called on JVM shutdown). Lines logged
+     * afterwards (e.g. by other shutdown hooks) are written directly.
+     */
+    synchronized void stopAsync() {
+        BlockingQueue<String> buffer = asyncBuffer;
+        if (buffer == null) {
+            return;
+        }
+        // new lines go directly to the output
+        asyncBuffer = null;
+
+        // stop the writer first (it finishes its current batch), otherwise the remaining lines
+        // may be written concurrently with and before the writer's batch
+        asyncWriter.interrupt();
+        try {
+            asyncWriter.join(SHUTDOWN_WRITER_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        asyncWriter = null;
+        flush(buffer);
+    }
+
+    // write lines remaining in a buffer of stopped writer
+    private void flush(BlockingQueue<String> buffer) {
+        synchronized (buffer) {
+            List<String> lines = new ArrayList<>();
+            buffer.drainTo(lines);
+            writeLines(lines);
+        }
+    }
+
+    public boolean isAsync() {
+        return asyncBuffer != null;
+    }
+
     // print a message to System.out and optionally to custom stream
     protected void printMessage(String message) {
-        String log = "HOTSWAP AGENT: " + sdf.format(new Date()) +  " " + message;
+        String log = "HOTSWAP AGENT: " + dateTimeFormatter.format(ZonedDateTime.now()) +  " " + message;
+
+        BlockingQueue<String> buffer = asyncBuffer;
+        if (buffer == null) {
+            writeLine(log);
+            return;
+        }
+
+        if (blockWhenFull) {
+            try {
+                // the writer may be stopped meanwhile, do not wait for free space forever
+                while (!buffer.offer(log, BLOCK_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (asyncBuffer != buffer) {
+                        flush(buffer);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        } else if (!buffer.offer(log)) {
+            droppedLines.incrementAndGet();
+            return;
+        }
+
+        // the writer was stopped while the line was added
+        if (asyncBuffer != buffer) {
+            flush(buffer);
+        }
+    }
+
+    private void writeLines(List<String> lines) {
+        int dropped = droppedLines.getAndSet(0);
+        if (dropped > 0) {
+            writeLine("HOTSWAP AGENT: " + dateTimeFormatter.format(ZonedDateTime.now()) + " " + AgentLogger.Level.WARNING +
+                    " (" + AgentLoggerHandler.class.getName() + ") - " + dropped + " log messages dropped, logger buffer is full.");
+        }
+        for (String line : lines) {
+            writeLine(line);
+        }
+        System.out.flush();
+        if (outputStream != null) {
+            outputStream.flush();
+        }
+    }
+
+    private void writeLine(String log) {
         System.out.println(log);
         if (outputStream != null)
             outputStream.println(log);
@@ -55,28 +222,29 @@ public class AgentLoggerHandler {
 
     public void print(Class clazz, AgentLogger.Level level, String message, Throwable throwable, Object... args) {
 
-        // replace {} in string with actual parameters
-        String messageWithArgs = message;
-        for (Object arg : args) {
-            int index = messageWithArgs.indexOf("{}");
-            if (index >= 0) {
-                messageWithArgs = messageWithArgs.substring(0, index) + String.valueOf(arg) + messageWithArgs.substring(index + 2);
-            }
-        }
+        StringBuilder stringBuilder = new StringBuilder(message.length() + 64);
+        stringBuilder.append(level);
+        stringBuilder.append(" (");
+        stringBuilder.append(clazz.getName());
+        stringBuilder.append(") - ");
 
-        StringBuffer stringBuffer = new StringBuffer();
-        stringBuffer.append(level);
-        stringBuffer.append(" (");
-        stringBuffer.append(clazz.getName());
-        stringBuffer.append(") - ");
-        stringBuffer.append(messageWithArgs);
+        // replace {} in string with actual parameters (single pass)
+        int argIndex = 0;
+        int start = 0;
+        int index;
+        while (args != null && argIndex < args.length && (index = message.indexOf("{}", start)) >= 0) {
+            stringBuilder.append(message, start, index);
+            stringBuilder.append(String.valueOf(args[argIndex++]));
+            start = index + 2;
+        }
+        stringBuilder.append(message, start, message.length());
 
         if (throwable != null) {
-            stringBuffer.append("\n");
-            stringBuffer.append(formatErrorTrace(throwable));
+            stringBuilder.append("\n");
+            stringBuilder.append(formatErrorTrace(throwable));
         }
 
-        printMessage(stringBuffer.toString());
+        printMessage(stringBuilder.toString());
     }
 
     private String formatErrorTrace(Throwable throwable) {
@@ -85,7 +253,130 @@ public class AgentLoggerHandler {
         return errors.toString();
     }
 
+    /**
+     * Set date time format of log lines.
+     *
+     * @param dateTimeFormat pattern in the format of java.text.SimpleDateFormat
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
     public void setDateTimeFormat(String dateTimeFormat) {
-        sdf = new SimpleDateFormat(dateTimeFormat);
+        dateTimeFormatter = ofSimpleDateFormatPattern(dateTimeFormat);
+    }
+
+    /**
+     * Convert SimpleDateFormat pattern to an equivalent (thread safe) DateTimeFormatter. Pattern letters of
+     * DateTimeFormatter differ (e.g. 'u' is year instead of day number of week, 'S' is fraction instead
+     * of milliseconds, 'aa' is invalid), hence the pattern cannot be used directly.
+     *
+     * @param pattern SimpleDateFormat pattern
+     * @return formatter producing the same output as SimpleDateFormat
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    static DateTimeFormatter ofSimpleDateFormatPattern(String pattern) {
+        DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+        WeekFields weekFields = WeekFields.of(Locale.getDefault(Locale.Category.FORMAT));
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // quoted text, '' is a single quote (both inside and outside of quoted text)
+                StringBuilder literal = new StringBuilder();
+                int j = i + 1;
+                if (j < pattern.length() && pattern.charAt(j) == '\'') {
+                    literal.append('\'');
+                } else {
+                    while (true) {
+                        if (j >= pattern.length()) {
+                            throw new IllegalArgumentException("Unterminated quote in pattern '" + pattern + "'");
+                        }
+                        char q = pattern.charAt(j);
+                        if (q == '\'') {
+                            if (j + 1 < pattern.length() && pattern.charAt(j + 1) == '\'') {
+                                literal.append('\'');
+                                j += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        literal.append(q);
+                        j++;
+                    }
+                }
+                builder.appendLiteral(literal.toString());
+                i = j + 1;
+                continue;
+            }
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                builder.appendLiteral(c);
+                i++;
+                continue;
+            }
+
+            int count = 1;
+            while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                count++;
+            }
+            i += count;
+
+            switch (c) {
+                case 'G': builder.appendText(ChronoField.ERA, count >= 4 ? TextStyle.FULL : TextStyle.SHORT); break;
+                case 'y': appendYear(builder, ChronoField.YEAR_OF_ERA, count); break;
+                case 'Y': appendYear(builder, weekFields.weekBasedYear(), count); break;
+                case 'M': appendMonth(builder, count, TextStyle.FULL, TextStyle.SHORT); break;
+                case 'L': appendMonth(builder, count, TextStyle.FULL_STANDALONE, TextStyle.SHORT_STANDALONE); break;
+                case 'w': appendNumber(builder, weekFields.weekOfWeekBasedYear(), count); break;
+                case 'W': appendNumber(builder, weekFields.weekOfMonth(), count); break;
+                case 'D': appendNumber(builder, ChronoField.DAY_OF_YEAR, count); break;
+                case 'd': appendNumber(builder, ChronoField.DAY_OF_MONTH, count); break;
+                case 'F': appendNumber(builder, ChronoField.ALIGNED_WEEK_OF_MONTH, count); break;
+                case 'E': builder.appendText(ChronoField.DAY_OF_WEEK, count >= 4 ? TextStyle.FULL : TextStyle.SHORT); break;
+                case 'u': appendNumber(builder, ChronoField.DAY_OF_WEEK, count); break;
+                case 'a': builder.appendText(ChronoField.AMPM_OF_DAY, TextStyle.SHORT); break;
+                case 'H': appendNumber(builder, ChronoField.HOUR_OF_DAY, count); break;
+                case 'k': appendNumber(builder, ChronoField.CLOCK_HOUR_OF_DAY, count); break;
+                case 'K': appendNumber(builder, ChronoField.HOUR_OF_AMPM, count); break;
+                case 'h': appendNumber(builder, ChronoField.CLOCK_HOUR_OF_AMPM, count); break;
+                case 'm': appendNumber(builder, ChronoField.MINUTE_OF_HOUR, count); break;
+                case 's': appendNumber(builder, ChronoField.SECOND_OF_MINUTE, count); break;
+                case 'S': appendNumber(builder, ChronoField.MILLI_OF_SECOND, count); break;
+                case 'z': builder.appendZoneText(count >= 4 ? TextStyle.FULL : TextStyle.SHORT); break;
+                case 'Z': builder.appendOffset("+HHMM", "+0000"); break;
+                case 'X':
+                    if (count > 3) {
+                        throw new IllegalArgumentException("Invalid ISO 8601 format: length=" + count);
+                    }
+                    builder.appendOffset(count == 1 ? "+HH" : (count == 2 ? "+HHMM" : "+HH:MM"), "Z");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Illegal pattern character '" + c + "'");
+            }
+        }
+        return builder.toFormatter();
+    }
+
+    // 'yy' is two digit year, otherwise full year padded to count digits
+    private static void appendYear(DateTimeFormatterBuilder builder, TemporalField field, int count) {
+        if (count == 2) {
+            builder.appendValueReduced(field, 2, 2, 2000);
+        } else {
+            appendNumber(builder, field, count);
+        }
+    }
+
+    // 'MMMM' is full text, 'MMM' short text, otherwise number
+    private static void appendMonth(DateTimeFormatterBuilder builder, int count, TextStyle full, TextStyle shortStyle) {
+        if (count >= 4) {
+            builder.appendText(ChronoField.MONTH_OF_YEAR, full);
+        } else if (count == 3) {
+            builder.appendText(ChronoField.MONTH_OF_YEAR, shortStyle);
+        } else {
+            appendNumber(builder, ChronoField.MONTH_OF_YEAR, count);
+        }
+    }
+
+    // number padded to count digits, never truncated
+    private static void appendNumber(DateTimeFormatterBuilder builder, TemporalField field, int count) {
+        int width = Math.min(count, 19);
+        builder.appendValue(field, width, 19, SignStyle.NORMAL);
     }
 }
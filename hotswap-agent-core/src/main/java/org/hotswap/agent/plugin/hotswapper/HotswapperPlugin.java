@@ -28,23 +28,31 @@ import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.ReflectionCommand;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginConfiguration;
-import org.hotswap.agent.javassist.CannotCompileException;
-import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.IOUtils;
 import org.hotswap.agent.util.PluginManagerInvoker;
 import org.hotswap.agent.util.classloader.*;
 
-import java.io.IOException;
-import java.net.URL;
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Hotswap class changes directly via JPDA API.
  * <p/>
  * This plugin creates an instance for each classloader with autoHotswap agent property set. Then it listens
  * for .class file change and executes hotswap via JPDA API.
+ * <p/>
+ * Changed classes are collected to a change set, which is closed when the compiler output is quiet for
+ * autoHotswap.quietPeriod milliseconds (no new change event and no recently modified class file). Class files
+ * are read when the change set is closed and all classes of the change set are redefined by a single call,
+ * hence a refactoring spanning many classes is not applied in several inconsistent steps.
  *
  * @author Jiri Bubnik
  * @see HotSwapperJpda
@@ -60,38 +68,145 @@ public class HotswapperPlugin {
     @Init
     PluginManager pluginManager;
 
+    /**
+     * Default quiet period of compiler output (ms) before the change set is redefined.
+     */
+    public static final int DEFAULT_QUIET_PERIOD = 100;
+
+    // redefine the change set even if the output is not quiet yet (e.g. file timestamps in the future)
+    private static final int MAX_QUIET_PERIODS = 20;
+
     // synchronize on this map to wait for previous processing
     final Map<Class<?>, byte[]> reloadMap = new HashMap<>();
 
-    // command to do actual hotswap. Single command to merge possible multiple reload actions.
+    // command to do actual hotswap of the reloadMap
     Command hotswapCommand;
 
+    // classloader of this plugin instance, scope of the redefinition lane
+    ClassLoader appClassLoader;
+
+    // pending change set - class -> class file, synchronize on this map
+    private final Map<Class<?>, URI> changeSet = new LinkedHashMap<>();
+
+    // time of the first and the last change of the pending change set (System.nanoTime())
+    private long changeSetStart;
+    private long lastChange;
+
+    int quietPeriod = DEFAULT_QUIET_PERIOD;
+
+    // single command to close the change set, rescheduled on each change
+    final Command changeSetCommand = new Command() {
+        @Override
+        public void executeCommand() {
+            closeChangeSet();
+        }
+
+        @Override
+        public String toString() {
+            return "hotswapper.closeChangeSet()";
+        }
+    };
+
     /**
-     * For each changed class create a reload command.
+     * Add each changed class to the change set, the class file is read after the change set is closed.
      */
     @OnClassFileEvent(classNameRegexp = ".*", events = {FileEvent.MODIFY, FileEvent.CREATE})
-    public void watchReload(CtClass ctClass, ClassLoader appClassLoader, URL url) throws IOException, CannotCompileException {
-        if (!ClassLoaderHelper.isClassLoaded(appClassLoader, ctClass.getName())) {
-            LOGGER.trace("Class {} not loaded yet, no need for autoHotswap, skipped URL {}", ctClass.getName(), url);
+    public void watchReload(String className, ClassLoader appClassLoader, URI uri) {
+        if (!ClassLoaderHelper.isClassLoaded(appClassLoader, className)) {
+            LOGGER.trace("Class {} not loaded yet, no need for autoHotswap, skipped URI {}", className, uri);
             return;
         }
 
-        LOGGER.debug("Class {} will be reloaded from URL {}", ctClass.getName(), url);
+        LOGGER.debug("Class {} will be reloaded from URI {}", className, uri);
 
         // search for a class to reload
-        Class clazz;
+        Class<?> clazz;
         try {
-            clazz  = appClassLoader.loadClass(ctClass.getName());
+            clazz  = appClassLoader.loadClass(className);
         } catch (ClassNotFoundException e) {
             LOGGER.warning("Hotswapper tries to reload class {}, which is not known to application classLoader {}.",
-                    ctClass.getName(), appClassLoader);
+                    className, appClassLoader);
             return;
         }
 
+        synchronized (changeSet) {
+            lastChange = System.nanoTime();
+            if (changeSet.isEmpty()) {
+                changeSetStart = lastChange;
+            }
+            changeSet.put(clazz, uri);
+        }
+        scheduler.scheduleCommand(changeSetCommand, quietPeriod,
+                Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.REDEFINE, this.appClassLoader);
+    }
+
+    /**
+     * Redefine the pending change set if compiler output is quiet, otherwise wait for another quiet period.
+     */
+    void closeChangeSet() {
+        Map<Class<?>, URI> classes;
+        synchronized (changeSet) {
+            if (changeSet.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            boolean timeout = now - changeSetStart > TimeUnit.MILLISECONDS.toNanos((long) quietPeriod * MAX_QUIET_PERIODS);
+            if (!timeout && (now - lastChange < TimeUnit.MILLISECONDS.toNanos(quietPeriod) || isOutputModified())) {
+                LOGGER.trace("Compiler output not quiet, change set of {} classes postponed.", changeSet.size());
+                scheduler.scheduleCommand(changeSetCommand, quietPeriod,
+                        Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.REDEFINE,
+                        appClassLoader);
+                return;
+            }
+            classes = new LinkedHashMap<>(changeSet);
+            changeSet.clear();
+        }
+
+        List<String> failed = new ArrayList<>();
         synchronized (reloadMap) {
-            reloadMap.put(clazz, ctClass.toBytecode());
+            for (Map.Entry<Class<?>, URI> entry : classes.entrySet()) {
+                try {
+                    reloadMap.put(entry.getKey(), IOUtils.toByteArray(entry.getValue()));
+                } catch (RuntimeException e) {
+                    LOGGER.debug("Unable to read class file {}", e, entry.getValue());
+                    failed.add(entry.getKey().getName());
+                }
+            }
+            if (reloadMap.isEmpty()) {
+                LOGGER.error("Unable to read class files of classes {}, nothing to reload.", failed);
+                return;
+            }
+
+            long start = System.nanoTime();
+            int size = reloadMap.size();
+            try {
+                hotswapCommand.executeCommand();
+                LOGGER.debug("Change set of {} classes redefined in {}ms.", size,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (RuntimeException e) {
+                for (Class<?> clazz : reloadMap.keySet()) {
+                    failed.add(clazz.getName());
+                }
+                LOGGER.error("Change set redefinition failed after {}ms.", e,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } finally {
+                reloadMap.clear();
+            }
+        }
+        if (!failed.isEmpty()) {
+            LOGGER.error("Classes not reloaded: {}", failed);
+        }
+    }
+
+    // a class file of the change set was modified within the quiet period (compiler still writing)
+    private boolean isOutputModified() {
+        long quietSince = System.currentTimeMillis() - quietPeriod;
+        for (URI uri : changeSet.values()) {
+            if ("file".equals(uri.getScheme()) && new File(uri).lastModified() > quietSince) {
+                return true;
+            }
         }
-        scheduler.scheduleCommand(hotswapCommand, 100, Scheduler.DuplicateSheduleBehaviour.SKIP);
+        return false;
     }
 
     /**
@@ -102,6 +217,7 @@ public class HotswapperPlugin {
      * @param port           attach the hotswapper
      */
     public void initHotswapCommand(ClassLoader appClassLoader, String port) {
+        this.appClassLoader = appClassLoader;
         if (port != null && port.length() > 0) {
             hotswapCommand = new ReflectionCommand(this, HotswapperCommand.class.getName(), "hotswap", appClassLoader,
                     port, reloadMap);
@@ -120,6 +236,21 @@ public class HotswapperPlugin {
         }
     }
 
+    /**
+     * Set quiet period of compiler output before the change set is redefined.
+     *
+     * @param quietPeriod period in milliseconds, default if null or empty
+     */
+    public void initQuietPeriod(String quietPeriod) {
+        if (quietPeriod != null && quietPeriod.length() > 0) {
+            try {
+                this.quietPeriod = Integer.parseInt(quietPeriod.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.error("Invalid value '{}' of property autoHotswap.quietPeriod.", quietPeriod);
+            }
+        }
+    }
+
     /**
      * For each classloader check for autoHotswap configuration instance with hotswapper.
      */
@@ -147,10 +278,12 @@ public class HotswapperPlugin {
 
 
         String port = pluginConfiguration.getProperty("autoHotswap.port");
+        String quietPeriod = pluginConfiguration.getProperty("autoHotswap.quietPeriod");
 
         HotswapperPlugin plugin = PluginManagerInvoker.callInitializePlugin(HotswapperPlugin.class, appClassLoader);
         if (plugin != null) {
             plugin.initHotswapCommand(appClassLoader, port);
+            plugin.initQuietPeriod(quietPeriod);
         } else {
             LOGGER.debug("Hotswapper is disabled in {}", appClassLoader);
         }
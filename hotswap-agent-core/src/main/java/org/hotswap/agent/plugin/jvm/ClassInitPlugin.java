@@ -26,6 +26,7 @@ import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.CtClass;
@@ -73,7 +74,7 @@ public class ClassInitPlugin {
         CtConstructor clinit = ctClass.getClassInitializer();
 
         if (clinit != null) {
-            LOGGER.debug("Adding " + HOTSWAP_AGENT_CLINIT_METHOD + " to class: {}", className);
+            LOGGER.debug("Adding {} to class: {}", HOTSWAP_AGENT_CLINIT_METHOD, className);
             CtConstructor haClinit = new CtConstructor(clinit, ctClass, null);
             haClinit.getMethodInfo().setName(HOTSWAP_AGENT_CLINIT_METHOD);
             haClinit.setModifiers(Modifier.PUBLIC | Modifier.STATIC);
@@ -132,9 +133,9 @@ public class ClassInitPlugin {
                             reloadFlag = false;
                         }
                     }
-                }, 150); // Hack : init must be called after dependant class redefinition. Since the class can
-                         // be proxied, the class init must be scheduled after proxy redefinition. Currently proxy
-                         // redefinition (in ProxyPlugin) is scheduled with 100ms delay, therefore we use delay 150ms.
+                }, 50, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.CLASS_INIT, classLoader);
+                // init must be called after dependant class redefinition. Since the class can be proxied,
+                // the CLASS_INIT lane waits for proxy redefinition (PROXY lane in ProxyPlugin).
             } else {
                 reloadFlag = false;
             }
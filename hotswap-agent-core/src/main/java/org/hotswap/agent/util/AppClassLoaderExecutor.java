@@ -45,6 +45,7 @@ public class AppClassLoaderExecutor {
             throws ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
         LOGGER.error("Start");
         PluginManager.getInstance().initClassLoader(appClassLoader, protectionDomain);
+        PluginManager.getInstance().patchClassLoader(appClassLoader, className, protectionDomain);
 
         Class classInAppClassLoader = Class.forName(className, true, appClassLoader);
 
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.NotFoundException;
+import org.hotswap.agent.javassist.bytecode.Descriptor;
+
+/**
+ * Root javassist ClassPool safe for concurrent use by the agent itself.
+ * <p/>
+ * Standard ClassPool keeps classes in a Hashtable and serializes every lookup on the pool monitor
+ * (<code>get0()</code> is synchronized). Shared pools like {@link ClassPool#getDefault()} then become a bottleneck
+ * when many application threads transform classes at the same time during startup. This pool keeps classes
+ * in a ConcurrentHashMap:
+ * <ul>
+ * <li>already created CtClass is returned by a lock-free map read</li>
+ * <li>a missing class is created by per-name compute-if-absent, concurrent requests of the same name
+ * get the same instance and requests for other names do not wait</li>
+ * </ul>
+ * The pool has no parent pool. Note that the lookup only checks the class file exists, class file parsing is done
+ * lazily by the CtClass itself.
+ * <p/>
+ * Classes are also registered in the inherited <code>classes</code> table (written only when a class is created
+ * or removed, never read by lookups), <code>ClassPool.compress()</code> walks this table to compress frozen classes.
+ */
+public class ConcurrentClassPool extends ClassPool {
+
+    private static class AgentClassPoolHolder {
+        private static final ConcurrentClassPool INSTANCE = new ConcurrentClassPool(true);
+    }
+
+    private final ConcurrentMap<String, CtClass> cache = new ConcurrentHashMap<>(256);
+
+    /**
+     * Create empty pool without any class path.
+     */
+    public ConcurrentClassPool() {
+        super(null);
+        // primitive types registered by the root ClassPool constructor
+        for (Object primitiveType : classes.values()) {
+            cache.put(((CtClass) primitiveType).getName(), (CtClass) primitiveType);
+        }
+    }
+
+    /**
+     * Create the pool.
+     *
+     * @param useDefaultPath if true, system search path is appended
+     */
+    public ConcurrentClassPool(boolean useDefaultPath) {
+        this();
+        if (useDefaultPath) {
+            appendSystemPath();
+        }
+    }
+
+    /**
+     * Shared pool with system search path for the agent's own use (lock-free replacement of
+     * {@link ClassPool#getDefault()}).
+     *
+     * @return the shared pool
+     */
+    public static ConcurrentClassPool getAgentClassPool() {
+        return AgentClassPoolHolder.INSTANCE;
+    }
+
+    @Override
+    protected CtClass getCached(String classname) {
+        return cache.get(classname);
+    }
+
+    @Override
+    protected void cacheCtClass(String classname, CtClass c, boolean dynamic) {
+        cache.put(classname, c);
+        classes.put(classname, c);
+    }
+
+    @Override
+    protected CtClass removeCached(String classname) {
+        classes.remove(classname);
+        return cache.remove(classname);
+    }
+
+    @Override
+    protected CtClass get0(String classname, boolean useCache) throws NotFoundException {
+        if (!useCache) {
+            return createCtClass(classname, false);
+        }
+
+        CtClass clazz = cache.get(classname);
+        if (clazz != null) {
+            return clazz;
+        }
+
+        // the class is cached under its java name, accept also "[L<class name>;" form
+        final String name = classname.charAt(0) == '[' ? Descriptor.toClassName(classname) : classname;
+        clazz = cache.get(name);
+        if (clazz != null) {
+            return clazz;
+        }
+        return cache.computeIfAbsent(name, new Function<String, CtClass>() {
+            @Override
+            public CtClass apply(String key) {
+                CtClass created = createCtClass(key, true);
+                if (created != null) {
+                    classes.put(key, created);
+                }
+                return created;
+            }
+        });
+    }
+}
@@ -23,7 +23,6 @@ import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -32,12 +31,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import org.hotswap.agent.annotation.handler.PluginClassFileTransformer;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.classloader.CachedLoaderClassPath;
+import org.hotswap.agent.util.classloader.WeakClassLoaderMap;
+import org.hotswap.agent.util.signature.ClassSignatureCache;
 
 /**
  * Java instrumentation transformer.
@@ -65,7 +68,7 @@ public class HotswapTransformer implements ClassFileTransformer {
             "org.apache.felix.framework.BundleWiringImpl$BundleClassLoaderJava5" // delegating ClassLoader in_GlassFish
     ));
 
-    private static class RegisteredTransformersRecord {
+    static class RegisteredTransformersRecord {
         Pattern pattern;
         List<HaClassFileTransformer> transformerList = new LinkedList<>();
     }
@@ -73,12 +76,39 @@ public class HotswapTransformer implements ClassFileTransformer {
     protected Map<String, RegisteredTransformersRecord> redefinitionTransformers = new LinkedHashMap<>();
     protected Map<String, RegisteredTransformersRecord> otherTransformers = new LinkedHashMap<>();
 
+    // compiled dispatch index of the maps above, rebuilt lazily after any change (null = needs rebuild)
+    private volatile TransformerIndex redefinitionIndex = TransformerIndex.EMPTY;
+    private volatile TransformerIndex otherIndex = TransformerIndex.EMPTY;
+
+    // id of each registered plugin transformer (index to TransformerApplicability), ids are never reused
+    private Map<PluginClassFileTransformer, Integer> pluginTransformerIds = new WeakHashMap<>();
+    private int nextPluginTransformerId;
+
+    // applicability of plugin transformers per classloader
+    private final ConcurrentMap<ClassLoader, TransformerApplicability> applicabilities = new WeakClassLoaderMap<>();
+
     // keep track about which classloader requested which transformer
     protected Map<ClassFileTransformer, ClassLoader> classLoaderTransformers = new LinkedHashMap<>();
 
-    protected Map<ClassLoader, Object> seenClassLoaders = new WeakHashMap<>();
+    // classloaders already seen by transform (weak keys compared by identity, kept while the classloader is alive)
+    protected final ConcurrentMap<ClassLoader, Boolean> seenClassLoaders = new WeakClassLoaderMap<>();
 
-    private List<Pattern> excludedClassLoaderPatterns;
+    /**
+     * How to handle classes of a classloader - resolved once per classloader class.
+     */
+    enum ClassLoaderKind {
+        // synthetic classloader, do not transform at all
+        SKIP,
+        // transform, but do not initialize the classloader
+        EXCLUDE,
+        // transform and initialize
+        INIT
+    }
+
+    // classloader class -> kind, recreated when exclusion patterns change
+    volatile ClassValue<ClassLoaderKind> classLoaderKinds = createClassLoaderKinds();
+
+    private volatile List<Pattern> excludedClassLoaderPatterns;
 
     /**
      * @param excludedClassLoaderPatterns
@@ -86,6 +116,7 @@ public class HotswapTransformer implements ClassFileTransformer {
      */
     public void setExcludedClassLoaderPatterns(List<Pattern> excludedClassLoaderPatterns) {
         this.excludedClassLoaderPatterns = excludedClassLoaderPatterns;
+        this.classLoaderKinds = createClassLoaderKinds();
     }
 
     /**
@@ -99,7 +130,7 @@ public class HotswapTransformer implements ClassFileTransformer {
      *                        (diffentence between java/lang/String and java.lang.String).
      * @param transformer     the transformer to be called for each class matching regexp.
      */
-    public void registerTransformer(ClassLoader classLoader, String classNameRegexp, HaClassFileTransformer transformer) {
+    public synchronized void registerTransformer(ClassLoader classLoader, String classNameRegexp, HaClassFileTransformer transformer) {
         LOGGER.debug("Registering transformer for class regexp '{}'.", classNameRegexp);
 
         String normalizeRegexp = normalizeTypeRegexp(classNameRegexp);
@@ -113,6 +144,10 @@ public class HotswapTransformer implements ClassFileTransformer {
             transformersMap.put(normalizeRegexp, transformerRecord);
         }
         transformerRecord.transformerList.add(transformer);
+        if (transformer instanceof PluginClassFileTransformer && !pluginTransformerIds.containsKey(transformer)) {
+            pluginTransformerIds.put((PluginClassFileTransformer) transformer, nextPluginTransformerId++);
+        }
+        invalidateIndex(transformer);
 
         // register classloader association to allow classloader unregistration
         if (classLoader != null) {
@@ -133,20 +168,55 @@ public class HotswapTransformer implements ClassFileTransformer {
      * @param classNameRegexp regexp to match fully qualified class name.
      * @param transformer     currently registered transformer
      */
-    public void removeTransformer(String classNameRegexp, HaClassFileTransformer transformer) {
+    public synchronized void removeTransformer(String classNameRegexp, HaClassFileTransformer transformer) {
         String normalizeRegexp = normalizeTypeRegexp(classNameRegexp);
         Map<String, RegisteredTransformersRecord> transformersMap = getTransformerMap(transformer);
         RegisteredTransformersRecord transformerRecord = transformersMap.get(normalizeRegexp);
         if (transformerRecord != null) {
             transformerRecord.transformerList.remove(transformer);
+            invalidateIndex(transformer);
         }
     }
 
+    private void invalidateIndex(HaClassFileTransformer transformer) {
+        if (transformer.isForRedefinitionOnly()) {
+            redefinitionIndex = null;
+        } else {
+            otherIndex = null;
+        }
+    }
+
+    private TransformerIndex getRedefinitionIndex() {
+        TransformerIndex index = redefinitionIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (redefinitionIndex == null) {
+                    redefinitionIndex = TransformerIndex.build(redefinitionTransformers, pluginTransformerIds);
+                }
+                index = redefinitionIndex;
+            }
+        }
+        return index;
+    }
+
+    private TransformerIndex getOtherIndex() {
+        TransformerIndex index = otherIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (otherIndex == null) {
+                    otherIndex = TransformerIndex.build(otherTransformers, pluginTransformerIds);
+                }
+                index = otherIndex;
+            }
+        }
+        return index;
+    }
+
     /**
      * Remove all transformers registered with a classloader
      * @param classLoader
      */
-    public void closeClassLoader(ClassLoader classLoader) {
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
         for (Iterator<Map.Entry<ClassFileTransformer, ClassLoader>> entryIterator = classLoaderTransformers.entrySet().iterator();
                 entryIterator.hasNext(); ) {
             Map.Entry<ClassFileTransformer, ClassLoader> entry = entryIterator.next();
@@ -158,8 +228,12 @@ public class HotswapTransformer implements ClassFileTransformer {
                 for (RegisteredTransformersRecord transformerRecord : otherTransformers.values()) {
                     transformerRecord.transformerList.remove(entry.getKey());
                 }
+                pluginTransformerIds.remove(entry.getKey());
+                redefinitionIndex = null;
+                otherIndex = null;
             }
         }
+        applicabilities.remove(classLoader);
 
         LOGGER.debug("All transformers removed for classLoader {}", classLoader);
     }
@@ -167,8 +241,8 @@ public class HotswapTransformer implements ClassFileTransformer {
     /**
      * Main transform method called by Java instrumentation.
      * <p/>
-     * <p>It does not do the instrumentation itself, instead iterates registered transformers and compares
-     * registration class regexp - if the regexp matches, the classloader is called.
+     * <p>It does not do the instrumentation itself, instead looks up registered transformers in the dispatch index
+     * by class name - if the registration class regexp matches, the transformer is called.
      * <p/>
      * <p>Note that class bytes may be send to multiple transformers, but the order is not defined.
      *
@@ -178,56 +252,50 @@ public class HotswapTransformer implements ClassFileTransformer {
     public byte[] transform(final ClassLoader classLoader, String className, Class<?> redefiningClass,
                             final ProtectionDomain protectionDomain, byte[] bytes) throws IllegalClassFormatException {
 
+        // Skip hidden and VM anonymous classes (lambdas, method handles), they are not accessible by name
+        if (className == null) {
+            return bytes;
+        }
+
         // Skip delegating classloaders used for reflection
-        String classLoaderClassName = classLoader != null ? classLoader.getClass().getName() : null;
-        if (skippedClassLoaders.contains(classLoaderClassName)) {
+        ClassLoaderKind classLoaderKind = getClassLoaderKind(classLoader);
+        if (classLoaderKind == ClassLoaderKind.SKIP) {
             return bytes;
         }
 
-        LOGGER.trace("Transform on class '{}' @{} redefiningClass '{}'.", className, classLoader, redefiningClass);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Transform on class '{}' @{} redefiningClass '{}'.", className, classLoader, redefiningClass);
+        }
+
+        if (redefiningClass != null) {
+            ClassSignatureCache.invalidate(redefiningClass);
+            CachedLoaderClassPath.invalidate(classLoader, redefiningClass.getName());
+        }
 
         List<ClassFileTransformer> toApply = new ArrayList<>();
         List<PluginClassFileTransformer> pluginTransformers = new ArrayList<>();
+        List<PluginClassFileTransformer> fallbackTransformers = null;
         try {
+            TransformerApplicability applicability = getApplicability(classLoader);
             // 1. call transform method of defining transformers
-            for (RegisteredTransformersRecord transformerRecord : new ArrayList<RegisteredTransformersRecord>(otherTransformers.values())) {
-                if ((className != null && transformerRecord.pattern.matcher(className).matches()) ||
-                        (redefiningClass != null && transformerRecord.pattern.matcher(redefiningClass.getName()).matches())) {
-                    for (ClassFileTransformer transformer : new ArrayList<ClassFileTransformer>(transformerRecord.transformerList)) {
-                        if(transformer instanceof PluginClassFileTransformer) {
-                            PluginClassFileTransformer pcft = PluginClassFileTransformer.class.cast(transformer);
-                            if(!pcft.isPluginDisabled(classLoader)) {
-                                pluginTransformers.add(pcft);
-                            }
-                        } else {
-                            toApply.add(transformer);
-                        }
-                    }
-                }
+            for (TransformerIndex.Entry entry : getOtherIndex().match(className,
+                    redefiningClass != null ? redefiningClass.getName() : null)) {
+                fallbackTransformers = addTransformers(classLoader, applicability, entry, toApply, pluginTransformers,
+                        fallbackTransformers);
             }
             // 2. call transform method of redefining ttansformars
-            if (redefiningClass != null && className != null) {
-                for (RegisteredTransformersRecord transformerRecord : new ArrayList<RegisteredTransformersRecord>(redefinitionTransformers.values())) {
-                    if (transformerRecord.pattern.matcher(className).matches()) {
-                        for (ClassFileTransformer transformer : new ArrayList<ClassFileTransformer>(transformerRecord.transformerList)) {
-                            if(transformer instanceof PluginClassFileTransformer) {
-                                PluginClassFileTransformer pcft = PluginClassFileTransformer.class.cast(transformer);
-                                if(!pcft.isPluginDisabled(classLoader)) {
-                                    pluginTransformers.add(pcft);
-                                }
-                            } else {
-                                toApply.add(transformer);
-                            }
-                        }
-                    }
+            if (redefiningClass != null) {
+                for (TransformerIndex.Entry entry : getRedefinitionIndex().match(className, null)) {
+                    fallbackTransformers = addTransformers(classLoader, applicability, entry, toApply, pluginTransformers,
+                            fallbackTransformers);
                 }
             }
         } catch (Throwable t) {
             LOGGER.error("Error transforming class '" + className + "'.", t);
         }
 
-        if(!pluginTransformers.isEmpty()) {
-            pluginTransformers =  reduce(classLoader, pluginTransformers, className);
+        if (fallbackTransformers != null) {
+            addFallbackTransformers(pluginTransformers, fallbackTransformers);
         }
 
         // ensure classloader initialized
@@ -238,56 +306,111 @@ public class HotswapTransformer implements ClassFileTransformer {
             return bytes;
         }
 
+       // plugin transformers share single CtClass/ClassPool, bytecode is rebuilt only if modified
+       TransformSession session = new TransformSession(classLoader, className, bytes);
        try {
-           byte[] result = bytes;
-
-           for(ClassFileTransformer transformer: pluginTransformers) {
-               LOGGER.trace("Transforming class '" + className + "' with transformer '" + transformer + "' " + "@ClassLoader" + classLoader + ".");
-               result = transformer.transform(classLoader, className, redefiningClass, protectionDomain, result);
+           for(PluginClassFileTransformer transformer: pluginTransformers) {
+               if (LOGGER.isTraceEnabled()) {
+                   LOGGER.trace("Transforming class '{}' with transformer '{}' @ClassLoader{}.", className, transformer, classLoader);
+               }
+               transformer.transformApplicable(session, redefiningClass, protectionDomain);
            }
 
+           byte[] result = session.getBytes();
+
            for(ClassFileTransformer transformer: toApply) {
-               LOGGER.trace("Transforming class '" + className + "' with transformer '" + transformer + "' " + "@ClassLoader" + classLoader + ".");
+               LOGGER.trace("Transforming class '{}' with transformer '{}' @ClassLoader{}.", className, transformer, classLoader);
                result = transformer.transform(classLoader, className, redefiningClass, protectionDomain, result);
            }
            return result;
        } catch (Throwable t) {
            LOGGER.error("Error transforming class '" + className + "'.", t);
+       } finally {
+           session.close();
        }
        return bytes;
     }
 
-    LinkedList<PluginClassFileTransformer> reduce(final ClassLoader classLoader, List<PluginClassFileTransformer> pluginCalls, String className) {
-        LinkedList<PluginClassFileTransformer> reduced = new LinkedList<>();
-
-        Map<String, PluginClassFileTransformer> fallbackMap = new HashMap<>();
-
-        for (PluginClassFileTransformer pcft : pluginCalls) {
-            try {
-                String pluginGroup = pcft.getPluginGroup();
-                if(pcft.versionMatches(classLoader)){
-                    if (pluginGroup != null) {
-                        fallbackMap.put(pluginGroup, null);
-                    }
-                    reduced.add(pcft);
-                } else if(pcft.isFallbackPlugin()){
-                    if (pluginGroup != null && !fallbackMap.containsKey(pluginGroup)) {
-                        fallbackMap.put(pluginGroup, pcft);
+    /*
+     * Sort transformers of the entry. Plugin transformers not applicable in the classloader are skipped,
+     * fallback transformers are collected separately (the list is created on first fallback).
+     */
+    private List<PluginClassFileTransformer> addTransformers(ClassLoader classLoader, TransformerApplicability applicability,
+                                                            TransformerIndex.Entry entry, List<ClassFileTransformer> toApply,
+                                                            List<PluginClassFileTransformer> pluginTransformers,
+                                                            List<PluginClassFileTransformer> fallbackTransformers) {
+        for (int i = 0; i < entry.transformers.length; i++) {
+            HaClassFileTransformer transformer = entry.transformers[i];
+            if (transformer instanceof PluginClassFileTransformer) {
+                PluginClassFileTransformer pcft = (PluginClassFileTransformer) transformer;
+                byte state = applicability.getState(entry.pluginIds[i], pcft, classLoader);
+                if (state == TransformerApplicability.APPLY) {
+                    pluginTransformers.add(pcft);
+                } else if (state == TransformerApplicability.FALLBACK) {
+                    if (fallbackTransformers == null) {
+                        fallbackTransformers = new ArrayList<>(1);
                     }
+                    fallbackTransformers.add(pcft);
                 }
-            } catch (Exception e) {
-                LOGGER.warning("Error evaluating aplicability of plugin", e);
+            } else {
+                toApply.add(transformer);
+            }
+        }
+        return fallbackTransformers;
+    }
+
+    /*
+     * Fallback transformer is used only if no other transformer of the same plugin group applies to the class,
+     * the first fallback transformer of a group wins.
+     */
+    private void addFallbackTransformers(List<PluginClassFileTransformer> pluginTransformers,
+                                         List<PluginClassFileTransformer> fallbackTransformers) {
+        for (PluginClassFileTransformer fallback : fallbackTransformers) {
+            String pluginGroup = fallback.getPluginGroup();
+            boolean groupApplied = false;
+            for (int i = 0; i < pluginTransformers.size() && !groupApplied; i++) {
+                groupApplied = pluginGroup.equals(pluginTransformers.get(i).getPluginGroup());
+            }
+            if (!groupApplied) {
+                pluginTransformers.add(fallback);
             }
         }
+    }
 
-        for (PluginClassFileTransformer pcft: fallbackMap.values()) {
-            if (pcft != null) {
-                reduced.add(pcft);
+    private TransformerApplicability getApplicability(ClassLoader classLoader) {
+        TransformerApplicability applicability = applicabilities.get(classLoader);
+        if (applicability == null) {
+            applicability = new TransformerApplicability();
+            TransformerApplicability existing = applicabilities.putIfAbsent(classLoader, applicability);
+            if (existing != null) {
+                applicability = existing;
             }
         }
+        return applicability;
+    }
 
-        return reduced;
+    /**
+     * Plugin configuration of the classloader changed (the classloader was initialized or closed). Discard resolved
+     * applicability of plugin transformers in the classloader and its descendants, other classloaders are
+     * not affected.
+     *
+     * @param classLoader the classloader, null (bootstrap) to discard applicability in all classloaders
+     */
+    public void invalidateApplicability(ClassLoader classLoader) {
+        if (classLoader == null) {
+            applicabilities.clear();
+            return;
+        }
+        for (Iterator<ClassLoader> it = applicabilities.keySet().iterator(); it.hasNext(); ) {
+            for (ClassLoader loader = it.next(); loader != null; loader = loader.getParent()) {
+                if (loader == classLoader) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
     }
+
     /**
      * Every classloader should be initialized. Usually if anything interesting happens,
      * it is initialized during plugin initialization process. However, some plugins (e.g. Hotswapper)
@@ -300,15 +423,19 @@ public class HotswapTransformer implements ClassFileTransformer {
      * @param protectionDomain associated protection domain (if any)
      */
     protected void ensureClassLoaderInitialized(final ClassLoader classLoader, final ProtectionDomain protectionDomain) {
-        if (!seenClassLoaders.containsKey(classLoader)) {
-            seenClassLoaders.put(classLoader, null);
+        // fast path - already seen, no lock
+        if (seenClassLoaders.containsKey(classLoader)) {
+            return;
+        }
+        // only single thread wins
+        if (seenClassLoaders.putIfAbsent(classLoader, Boolean.TRUE) == null) {
 
             if (classLoader == null) {
                 // directly init null (bootstrap) classloader
                 PluginManager.getInstance().initClassLoader(null, protectionDomain);
             } else {
                 // ensure the classloader should not be excluded
-                if (shouldScheduleClassLoader(classLoader)) {
+                if (getClassLoaderKind(classLoader) == ClassLoaderKind.INIT) {
                     // schedule the excecution
                     PluginManager.getInstance().getScheduler().scheduleCommand(new Command() {
                         @Override
@@ -326,19 +453,35 @@ public class HotswapTransformer implements ClassFileTransformer {
         }
     }
 
-    private boolean shouldScheduleClassLoader(final ClassLoader classLoader) {
-        String name = classLoader.getClass().getName();
+    private ClassLoaderKind getClassLoaderKind(ClassLoader classLoader) {
+        return classLoader == null ? ClassLoaderKind.INIT : classLoaderKinds.get(classLoader.getClass());
+    }
+
+    private ClassValue<ClassLoaderKind> createClassLoaderKinds() {
+        return new ClassValue<ClassLoaderKind>() {
+            @Override
+            protected ClassLoaderKind computeValue(Class<?> classLoaderClass) {
+                return classifyClassLoader(classLoaderClass.getName());
+            }
+        };
+    }
+
+    private ClassLoaderKind classifyClassLoader(String name) {
+        if (skippedClassLoaders.contains(name)) {
+            return ClassLoaderKind.SKIP;
+        }
         if (excludedClassLoaders.contains(name)) {
-            return false;
+            return ClassLoaderKind.EXCLUDE;
         }
-        if (excludedClassLoaderPatterns != null) {
-            for (Pattern pattern : excludedClassLoaderPatterns) {
+        List<Pattern> patterns = excludedClassLoaderPatterns;
+        if (patterns != null) {
+            for (Pattern pattern : patterns) {
                 if (pattern.matcher(name).matches()) {
-                    return false;
+                    return ClassLoaderKind.EXCLUDE;
                 }
             }
         }
-        return true;
+        return ClassLoaderKind.INIT;
     }
 
 
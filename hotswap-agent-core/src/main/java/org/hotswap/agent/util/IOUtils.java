@@ -30,8 +30,8 @@ import java.io.Reader;
 import java.net.URI;
 import java.net.URL;
 
-import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.scanner.ConstantPoolReader;
 import org.xml.sax.InputSource;
 
 /**
@@ -111,6 +111,23 @@ public class IOUtils {
         return outputStream.toByteArray();
     }
 
+    /**
+     * Read the rest of input stream to byte array. The stream is not closed.
+     *
+     * @param is stream
+     * @return byte array
+     * @throws IOException read error
+     */
+    public static byte[] toByteArray(InputStream is) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(is.available(), 4096));
+        byte[] chunk = new byte[4096];
+        int bytesRead;
+        while ((bytesRead = is.read(chunk)) > 0) {
+            outputStream.write(chunk, 0, bytesRead);
+        }
+        return outputStream.toByteArray();
+    }
+
     /**
      * Convert input stream to a string.
      * @param is stream
@@ -159,7 +176,15 @@ public class IOUtils {
      * @throws IOException any exception on class instantiation
      */
     public static String urlToClassName(URI uri) throws IOException {
-        return ClassPool.getDefault().makeClass(uri.toURL().openStream()).getName();
+        byte[] bytes;
+        try (InputStream is = uri.toURL().openStream()) {
+            bytes = toByteArray(is);
+        }
+        String className = ConstantPoolReader.getClassName(bytes);
+        if (className == null) {
+            throw new IOException("Not a valid class file " + uri);
+        }
+        return className;
     }
 
     /**
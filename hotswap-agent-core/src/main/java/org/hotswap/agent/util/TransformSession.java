@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.hotswap.agent.javassist.ByteArrayClassPath;
+import org.hotswap.agent.javassist.CannotCompileException;
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.NotFoundException;
+import org.hotswap.agent.util.classloader.CachedLoaderClassPath;
+
+/**
+ * State of a single class transformation shared by all transformers called from HotswapTransformer.transform().
+ * <p/>
+ * The javassist ClassPool (system path + classloader path) and the CtClass are created lazily on first request
+ * and then shared by all plugin transformers. Bytecode is serialized from the CtClass only if some transformer
+ * actually modified it, read-only transformers (e.g. cache flush on redefinition) do not pay for parsing
+ * the class again nor for writing it back.
+ */
+public class TransformSession {
+
+    private final ClassLoader classLoader;
+
+    private final String className;
+
+    // current class definition, valid only if ctClass is null or not modified
+    private byte[] bytes;
+
+    private SessionClassPool classPool;
+
+    // current bytes are inserted as the first class path of the class pool
+    private ByteArrayClassPath bytesClassPath;
+
+    private CtClass ctClass;
+
+    // class pool with access to cached classes (to replace a class loaded from the classloader by current bytes)
+    private static class SessionClassPool extends ClassPool {
+        void removeCachedClass(String classname) {
+            removeCached(classname);
+        }
+    }
+
+    /**
+     * New transformation session.
+     *
+     * @param classLoader classloader of the transformed class
+     * @param className   class name as passed to the transformer
+     * @param bytes       original class definition
+     */
+    public TransformSession(ClassLoader classLoader, String className, byte[] bytes) {
+        this.classLoader = classLoader;
+        this.className = className;
+        this.bytes = bytes;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Shared class pool with system path and the classloader path.
+     */
+    public ClassPool getClassPool() {
+        if (classPool == null) {
+            classPool = new SessionClassPool();
+            CachedLoaderClassPath.appendClassPath(classPool, classLoader);
+        }
+        return classPool;
+    }
+
+    /**
+     * Shared CtClass created from current bytes. Changes made to the CtClass are part of the result.
+     * <p/>
+     * If the CtClass was already modified by previous transformer, the changes are serialized first to allow
+     * {@link #discardChanges()} of the next transformer.
+     *
+     * @return the CtClass
+     * @throws IOException parse error
+     * @throws CannotCompileException serialization of previous changes failed
+     */
+    public CtClass getCtClass() throws IOException, CannotCompileException {
+        if (ctClass != null && ctClass.isModified()) {
+            getBytes();
+        }
+        if (ctClass == null) {
+            ctClass = createCtClass();
+        } else if (ctClass.isFrozen()) {
+            // previous transformer called toBytecode() on its own, allow further changes
+            ctClass.defrost();
+        }
+        return ctClass;
+    }
+
+    /*
+     * Load the class via ClassPool.get() rather than makeClass() - makeClass() marks the class as modified
+     * and we need to know if any transformer changed it.
+     */
+    private CtClass createCtClass() throws IOException {
+        if (className == null) {
+            return getClassPool().makeClass(new ByteArrayInputStream(bytes));
+        }
+        String javaClassName = className.replace('/', '.');
+        SessionClassPool cp = (SessionClassPool) getClassPool();
+        if (bytesClassPath != null) {
+            cp.removeClassPath(bytesClassPath);
+        }
+        bytesClassPath = new ByteArrayClassPath(javaClassName, bytes);
+        cp.insertClassPath(bytesClassPath);
+        // a transformer might have loaded the class from the classloader
+        cp.removeCachedClass(javaClassName);
+        try {
+            return cp.get(javaClassName);
+        } catch (NotFoundException e) {
+            throw new IOException("Unable to create CtClass for " + javaClassName, e);
+        }
+    }
+
+    /**
+     * Current class definition. If shared CtClass was modified, it is serialized to bytecode first.
+     *
+     * @return current bytes
+     * @throws IOException serialization error
+     * @throws CannotCompileException serialization error
+     */
+    public byte[] getBytes() throws IOException, CannotCompileException {
+        if (ctClass != null && ctClass.isModified()) {
+            bytes = ctClass.toBytecode();
+            // CtClass is frozen now, create new one on next request
+            releaseCtClass();
+        }
+        return bytes;
+    }
+
+    /**
+     * Replace class definition with new bytes (e.g. returned from a transformer). Shared CtClass is discarded.
+     *
+     * @param bytes new class definition
+     */
+    public void setBytes(byte[] bytes) {
+        if (bytes != this.bytes) {
+            releaseCtClass();
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Discard changes made to the shared CtClass since it was returned by {@link #getCtClass()}.
+     */
+    public void discardChanges() {
+        if (ctClass != null && ctClass.isModified()) {
+            releaseCtClass();
+        }
+    }
+
+    /**
+     * Check if the CtClass is the shared instance of this session.
+     */
+    public boolean isSessionCtClass(CtClass ctClass) {
+        return ctClass != null && ctClass == this.ctClass;
+    }
+
+    /**
+     * Release resources. Use getBytes() before close to get the result.
+     */
+    public void close() {
+        releaseCtClass();
+        classPool = null;
+    }
+
+    private void releaseCtClass() {
+        if (ctClass != null) {
+            ctClass.detach();
+            ctClass = null;
+        }
+    }
+}
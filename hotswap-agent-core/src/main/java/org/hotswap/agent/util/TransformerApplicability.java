@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.util.Arrays;
+
+import org.hotswap.agent.annotation.handler.PluginClassFileTransformer;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Applicability of plugin transformers in a single classloader.
+ * <p/>
+ * Whether a plugin transformer applies to a classloader (plugin enabled in the classloader configuration,
+ * plugin version matches the deployment, fallback plugin) does not depend on the transformed class. The answer
+ * is resolved on first use of the transformer in the classloader and kept in a table indexed by the transformer
+ * id assigned by HotswapTransformer on registration. Transformer ids are never reused, hence the table stays valid
+ * while transformers are registered and removed. It is discarded when plugin configuration of the classloader
+ * changes (the classloader or its parent is initialized or closed), see
+ * {@link HotswapTransformer#invalidateApplicability(ClassLoader)}.
+ */
+class TransformerApplicability {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(TransformerApplicability.class);
+
+    static final byte UNRESOLVED = 0;
+    // disabled or version does not match
+    static final byte SKIP = 1;
+    // apply the transformer
+    static final byte APPLY = 2;
+    // apply the transformer only if no other transformer of the group applies
+    static final byte FALLBACK = 3;
+
+    // transformer id -> state, racy single byte writes are harmless (resolution is idempotent)
+    private volatile byte[] states;
+
+    TransformerApplicability() {
+        this.states = new byte[16];
+    }
+
+    /**
+     * Applicability of the transformer, resolved on first call.
+     *
+     * @param id          transformer id
+     * @param transformer the transformer
+     * @param classLoader the classloader
+     * @return SKIP, APPLY or FALLBACK
+     */
+    byte getState(int id, PluginClassFileTransformer transformer, ClassLoader classLoader) {
+        byte[] s = states;
+        if (id < s.length && s[id] != UNRESOLVED) {
+            return s[id];
+        }
+
+        byte state;
+        try {
+            state = resolve(transformer, classLoader);
+        } catch (Exception e) {
+            LOGGER.warning("Error evaluating aplicability of plugin", e);
+            // do not remember, evaluate again next time
+            return SKIP;
+        }
+
+        if (id >= s.length) {
+            synchronized (this) {
+                s = states;
+                if (id >= s.length) {
+                    s = Arrays.copyOf(s, Math.max(id + 1, s.length * 2));
+                    states = s;
+                }
+            }
+        }
+        s[id] = state;
+        return state;
+    }
+
+    private static byte resolve(PluginClassFileTransformer transformer, ClassLoader classLoader) {
+        if (transformer.isPluginDisabled(classLoader)) {
+            return SKIP;
+        }
+        if (transformer.versionMatches(classLoader)) {
+            return APPLY;
+        }
+        if (transformer.isFallbackPlugin() && transformer.getPluginGroup() != null) {
+            return FALLBACK;
+        }
+        return SKIP;
+    }
+}
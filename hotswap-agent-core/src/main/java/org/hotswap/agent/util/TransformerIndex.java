@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable dispatch index of registered transformers, built from the class name regexps.
+ * <p/>
+ * Class name regexps are classified into three groups:
+ * <ul>
+ * <li>literal class names (e.g. <code>org.apache.catalina.loader.WebappLoader</code>) - exact name hash map</li>
+ * <li>literal prefix followed by <code>.*</code> (including the catch-all <code>.*</code>) - prefix trie</li>
+ * <li>anything else - residual list of regexps matched one by one</li>
+ * </ul>
+ * A dot in a literal is treated as a name separator, hence the class name is normalized ('/' and '$'
+ * replaced with '.') before lookup. This covers both <code>java/lang/String</code> and <code>java.lang.String</code>
+ * forms as the original regexp does.
+ * <p/>
+ * The index is never modified after creation, HotswapTransformer rebuilds it (copy-on-write) whenever
+ * the registered transformers change.
+ */
+class TransformerIndex {
+
+    /**
+     * Empty index - no transformer registered.
+     */
+    static final TransformerIndex EMPTY = new TransformerIndex();
+
+    /**
+     * Snapshot of single registered regexp.
+     */
+    static class Entry {
+        // registration order of the regexp - to keep transformers order stable
+        final int order;
+        final Pattern pattern;
+        final HaClassFileTransformer[] transformers;
+        // id of each plugin transformer (see TransformerApplicability), -1 for other transformers
+        final int[] pluginIds;
+
+        Entry(int order, Pattern pattern, HaClassFileTransformer[] transformers, int[] pluginIds) {
+            this.order = order;
+            this.pattern = pattern;
+            this.transformers = transformers;
+            this.pluginIds = pluginIds;
+        }
+    }
+
+    private static class PrefixNode {
+        Map<Character, PrefixNode> children;
+        List<Entry> entries;
+
+        PrefixNode child(char c) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            PrefixNode node = children.get(c);
+            if (node == null) {
+                node = new PrefixNode();
+                children.put(c, node);
+            }
+            return node;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return Integer.compare(o1.order, o2.order);
+        }
+    };
+
+    private final Map<String, List<Entry>> exactNames = new HashMap<>();
+    private final PrefixNode prefixRoot = new PrefixNode();
+    private final List<Entry> regexps = new ArrayList<>();
+
+    private TransformerIndex() {
+    }
+
+    /**
+     * Build new index from registered records.
+     *
+     * @param records normalized regexp (^regexp$ form) -> registered transformers, in registration order
+     * @param pluginIds ids of registered plugin transformers
+     * @return the index
+     */
+    static TransformerIndex build(Map<String, HotswapTransformer.RegisteredTransformersRecord> records,
+                                  Map<? extends HaClassFileTransformer, Integer> pluginIds) {
+        TransformerIndex index = new TransformerIndex();
+        int order = 0;
+        for (Map.Entry<String, HotswapTransformer.RegisteredTransformersRecord> recordEntry : records.entrySet()) {
+            HotswapTransformer.RegisteredTransformersRecord record = recordEntry.getValue();
+            if (record.transformerList.isEmpty()) {
+                continue;
+            }
+            HaClassFileTransformer[] transformers =
+                    record.transformerList.toArray(new HaClassFileTransformer[record.transformerList.size()]);
+            int[] ids = new int[transformers.length];
+            for (int i = 0; i < transformers.length; i++) {
+                Integer id = pluginIds.get(transformers[i]);
+                ids[i] = id != null ? id : -1;
+            }
+            Entry entry = new Entry(order++, record.pattern, transformers, ids);
+            index.add(stripAnchors(recordEntry.getKey()), entry);
+        }
+        return index;
+    }
+
+    private void add(String regexp, Entry entry) {
+        if (isLiteral(regexp, regexp.length())) {
+            List<Entry> entries = exactNames.get(regexp);
+            if (entries == null) {
+                entries = new ArrayList<>(1);
+                exactNames.put(regexp, entries);
+            }
+            entries.add(entry);
+        } else if (regexp.endsWith(".*") && isLiteral(regexp, regexp.length() - 2)) {
+            PrefixNode node = prefixRoot;
+            for (int i = 0; i < regexp.length() - 2; i++) {
+                node = node.child(regexp.charAt(i));
+            }
+            if (node.entries == null) {
+                node.entries = new ArrayList<>(1);
+            }
+            node.entries.add(entry);
+        } else {
+            regexps.add(entry);
+        }
+    }
+
+    /**
+     * Collect all entries matching at least one of the names. Result is in registration order.
+     *
+     * @param className       class name in internal form (may be null)
+     * @param otherClassName  alternative name (e.g. redefining class name), may be null
+     * @return list of matching entries (empty list if none)
+     */
+    List<Entry> match(String className, String otherClassName) {
+        String normalized = className != null ? normalize(className) : null;
+        String otherNormalized = otherClassName != null ? normalize(otherClassName) : null;
+        if (otherNormalized != null && otherNormalized.equals(normalized)) {
+            otherNormalized = null;
+        }
+
+        List<Entry> result = collectLiteral(normalized, null);
+        result = collectLiteral(otherNormalized, result);
+
+        for (Entry entry : regexps) {
+            if ((className != null && entry.pattern.matcher(className).matches()) ||
+                    (otherClassName != null && entry.pattern.matcher(otherClassName).matches())) {
+                result = addEntry(result, entry);
+            }
+        }
+
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        if (result.size() > 1) {
+            Collections.sort(result, ORDER_COMPARATOR);
+        }
+        return result;
+    }
+
+    private List<Entry> collectLiteral(String normalized, List<Entry> result) {
+        if (normalized == null) {
+            return result;
+        }
+
+        List<Entry> exact = exactNames.get(normalized);
+        if (exact != null) {
+            for (Entry entry : exact) {
+                result = addEntry(result, entry);
+            }
+        }
+
+        PrefixNode node = prefixRoot;
+        int i = 0;
+        while (node != null) {
+            if (node.entries != null) {
+                for (Entry entry : node.entries) {
+                    result = addEntry(result, entry);
+                }
+            }
+            if (i == normalized.length() || node.children == null) {
+                break;
+            }
+            node = node.children.get(normalized.charAt(i++));
+        }
+        return result;
+    }
+
+    private static List<Entry> addEntry(List<Entry> result, Entry entry) {
+        if (result == null) {
+            result = new ArrayList<>();
+        } else if (result.contains(entry)) {
+            return result;
+        }
+        result.add(entry);
+        return result;
+    }
+
+    /**
+     * Literal consists only of java identifier characters and dots (name separators).
+     */
+    private static boolean isLiteral(String regexp, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = regexp.charAt(i);
+            // '$' is end of line in regexp
+            if (c != '.' && (c == '$' || !Character.isJavaIdentifierPart(c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String stripAnchors(String regexp) {
+        int begin = regexp.startsWith("^") ? 1 : 0;
+        int end = regexp.endsWith("$") && !regexp.endsWith("\\$") ? regexp.length() - 1 : regexp.length();
+        return begin < end ? regexp.substring(begin, end) : "";
+    }
+
+    private static String normalize(String className) {
+        return className.replace('/', '.').replace('$', '.');
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.hotswap.agent.javassist.ClassPath;
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.IOUtils;
+
+/**
+ * Javassist class path of a classloader with a bounded cache of class file locations and contents.
+ * <p/>
+ * The agent and plugins create short-lived ClassPools (per transformation, per file event, ...). With a plain
+ * LoaderClassPath each of them reads again supertypes like <code>java.lang.Object</code> or framework base classes
+ * via <code>getResource()</code>/<code>getResourceAsStream()</code>. Instances of this class are shared per classloader
+ * (weak registry, see {@link #getInstance(ClassLoader)}) and keep the class file bytes, hence the repeated
+ * lookups do not touch jar files again. Only the bytes are shared - each ClassPool still creates its own CtClass
+ * instances and a plugin may modify them freely.
+ * <p/>
+ * The cache is bounded by size (least recently used entries are evicted) and entries not used for a while expire.
+ * Cached class from a file is checked by the file modification time, an entry is also removed when the class
+ * is redefined (see {@link #invalidate(ClassLoader, String)}).
+ */
+public class CachedLoaderClassPath implements ClassPath {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(CachedLoaderClassPath.class);
+
+    // max number of cached classes per classloader
+    static final int MAX_SIZE = 1024;
+
+    // entry expires if not used for this time
+    static final long MAX_IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private static final WeakClassLoaderMap<CachedLoaderClassPath> instances = new WeakClassLoaderMap<>();
+
+    private static final Comparator<EvictionCandidate> LAST_ACCESS_COMPARATOR = new Comparator<EvictionCandidate>() {
+        @Override
+        public int compare(EvictionCandidate o1, EvictionCandidate o2) {
+            return Long.compare(o1.lastAccess - o2.lastAccess, 0);
+        }
+    };
+
+    // entry with last access time copied at purge start - sorting on the volatile field changed by other
+    // threads would break the comparator contract
+    private static class EvictionCandidate {
+        final CacheEntry entry;
+        final long lastAccess;
+
+        EvictionCandidate(CacheEntry entry, long lastAccess) {
+            this.entry = entry;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static class CacheEntry {
+        final String className;
+        final URL url;
+        // class file on the file system to check for modification, null for other resources (e.g. jar entry)
+        final File file;
+        final long lastModified;
+        // read lazily on first openClassfile()
+        volatile byte[] bytes;
+        volatile long lastAccess;
+
+        CacheEntry(String className, URL url, long now) {
+            this.className = className;
+            this.url = url;
+            this.file = toFile(url);
+            this.lastModified = file != null ? file.lastModified() : 0L;
+            this.lastAccess = now;
+        }
+
+        boolean isExpired(long now) {
+            return now - lastAccess > MAX_IDLE_NANOS;
+        }
+
+        boolean isValid(long now) {
+            return !isExpired(now) && (file == null || file.lastModified() == lastModified);
+        }
+    }
+
+    private final Reference<ClassLoader> clref;
+
+    private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    private volatile long lastPurge = System.nanoTime();
+
+    /**
+     * Create new class path. Use {@link #getInstance(ClassLoader)} to get the shared instance.
+     *
+     * @param classLoader the classloader
+     */
+    public CachedLoaderClassPath(ClassLoader classLoader) {
+        clref = new WeakReference<>(classLoader);
+    }
+
+    /**
+     * Shared class path of the classloader.
+     *
+     * @param classLoader the classloader (null for bootstrap classloader)
+     * @return the class path
+     */
+    public static CachedLoaderClassPath getInstance(ClassLoader classLoader) {
+        CachedLoaderClassPath classPath = instances.get(classLoader);
+        if (classPath == null) {
+            classPath = new CachedLoaderClassPath(classLoader);
+            CachedLoaderClassPath existing = instances.putIfAbsent(classLoader, classPath);
+            if (existing != null) {
+                classPath = existing;
+            }
+        }
+        return classPath;
+    }
+
+    /**
+     * Remove cached class of the classloader (e.g. the class is redefined).
+     *
+     * @param classLoader the classloader
+     * @param className   class name, both java and internal (slash separated) form is accepted
+     */
+    public static void invalidate(ClassLoader classLoader, String className) {
+        CachedLoaderClassPath classPath = instances.get(classLoader);
+        if (classPath != null && className != null) {
+            classPath.cache.remove(className.replace('/', '.'));
+        }
+    }
+
+    /**
+     * Append system search path and the classloader to the class pool, both backed by the shared cache.
+     * It is a cached equivalent of <code>classPool.appendSystemPath()</code> followed by
+     * <code>classPool.appendClassPath(new LoaderClassPath(classLoader))</code>.
+     *
+     * @param classPool   the class pool
+     * @param classLoader the classloader
+     */
+    public static void appendClassPath(ClassPool classPool, ClassLoader classLoader) {
+        ClassLoader systemLoader = ClassFile.MAJOR_VERSION < ClassFile.JAVA_9 ?
+                ClassLoader.getSystemClassLoader() : Thread.currentThread().getContextClassLoader();
+        classPool.appendClassPath(getInstance(systemLoader));
+        if (classLoader != systemLoader) {
+            classPool.appendClassPath(getInstance(classLoader));
+        }
+    }
+
+    @Override
+    public InputStream openClassfile(String classname) {
+        CacheEntry entry = getEntry(classname);
+        if (entry != null) {
+            byte[] bytes = entry.bytes;
+            if (bytes == null) {
+                try (InputStream is = entry.url.openStream()) {
+                    bytes = IOUtils.toByteArray(is);
+                    entry.bytes = bytes;
+                } catch (IOException e) {
+                    LOGGER.trace("Unable to read class file {}, using the classloader directly.", e, entry.url);
+                }
+            }
+            if (bytes != null) {
+                return new ByteArrayInputStream(bytes);
+            }
+        }
+        // resource not available via getResource() (or not readable), ask the classloader directly
+        ClassLoader cl = clref.get();
+        return cl != null ? cl.getResourceAsStream(toResourceName(classname)) : null;
+    }
+
+    @Override
+    public URL find(String classname) {
+        CacheEntry entry = getEntry(classname);
+        return entry != null ? entry.url : null;
+    }
+
+    private CacheEntry getEntry(String classname) {
+        long now = System.nanoTime();
+        CacheEntry entry = cache.get(classname);
+        if (entry != null) {
+            if (entry.isValid(now)) {
+                entry.lastAccess = now;
+                return entry;
+            }
+            cache.remove(classname, entry);
+        }
+
+        ClassLoader cl = clref.get();
+        if (cl == null) {
+            return null;
+        }
+        // missing classes are not cached, they may appear later
+        URL url = cl.getResource(toResourceName(classname));
+        if (url == null) {
+            return null;
+        }
+        entry = new CacheEntry(classname, url, now);
+        cache.put(classname, entry);
+        if (cache.size() > MAX_SIZE || now - lastPurge > MAX_IDLE_NANOS) {
+            purge(now);
+        }
+        return entry;
+    }
+
+    // remove expired entries, then least recently used entries to get below 3/4 of max size
+    private synchronized void purge(long now) {
+        lastPurge = now;
+        List<EvictionCandidate> candidates = new ArrayList<>(cache.size());
+        for (Iterator<CacheEntry> it = cache.values().iterator(); it.hasNext(); ) {
+            CacheEntry entry = it.next();
+            long lastAccess = entry.lastAccess;
+            if (now - lastAccess > MAX_IDLE_NANOS) {
+                it.remove();
+            } else {
+                candidates.add(new EvictionCandidate(entry, lastAccess));
+            }
+        }
+        int toRemove = candidates.size() - MAX_SIZE * 3 / 4;
+        if (candidates.size() > MAX_SIZE && toRemove > 0) {
+            Collections.sort(candidates, LAST_ACCESS_COMPARATOR);
+            for (int i = 0; i < toRemove; i++) {
+                CacheEntry entry = candidates.get(i).entry;
+                cache.remove(entry.className, entry);
+            }
+        }
+    }
+
+    /**
+     * Number of cached classes.
+     */
+    int size() {
+        return cache.size();
+    }
+
+    private static String toResourceName(String classname) {
+        return classname.replace('.', '/') + ".class";
+    }
+
+    private static File toFile(URL url) {
+        if (!IOUtils.URL_PROTOCOL_FILE.equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        ClassLoader cl = clref.get();
+        return cl == null ? "<null>" : cl.toString();
+    }
+}
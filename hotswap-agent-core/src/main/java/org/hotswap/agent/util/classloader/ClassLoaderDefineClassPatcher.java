@@ -19,20 +19,30 @@
 package org.hotswap.agent.util.classloader;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.ProtectionDomain;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
+import org.hotswap.agent.javassist.bytecode.ConstPool;
+import org.hotswap.agent.javassist.util.proxy.DefineClassHelper;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.IOUtils;
 import org.hotswap.agent.util.scanner.ClassPathScanner;
 import org.hotswap.agent.util.scanner.Scanner;
 import org.hotswap.agent.util.scanner.ScannerVisitor;
@@ -48,6 +58,11 @@ import org.hotswap.agent.util.scanner.ScannerVisitor;
  * (e.g. to set some initialized property). Although the class resides in parent classloader it cannot
  * be redefined in child classloader with other definition - the classloader already knows about this class.
  * This is the reason, why plugin class cannot be executed in child classloader.
+ * <p/>
+ * Plugin classes are read and parsed only once per path. The classes are grouped to plugin packages
+ * (first package level below the path, e.g. org/hotswap/agent/plugin/spring) and the classloader may be patched
+ * lazily with a single plugin package only ({@link #patchPluginPackage}). Plugin packages referenced
+ * by the package classes are defined as well.
  *
  * @author Jiri Bubnik
  */
@@ -55,61 +70,150 @@ public class ClassLoaderDefineClassPatcher {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(ClassLoaderDefineClassPatcher.class);
 
-    private static Map<String, List<byte[]>> pluginClassCache = new HashMap<>();
+    // path -> plugin package -> classes
+    private static Map<String, Map<String, PluginPackage>> pluginClassCache = new HashMap<>();
+
+    // target classloader -> plugin packages already defined in the classloader (read without lock)
+    private final Map<ClassLoader, Set<String>> patchedPackages = new WeakClassLoaderMap<>();
+
+    // plugin class parsed once
+    private static class PluginClassDefinition {
+        final String className;
+        final byte[] bytes;
+
+        PluginClassDefinition(String className, byte[] bytes) {
+            this.className = className;
+            this.bytes = bytes;
+        }
+    }
+
+    // all plugin classes of a plugin package and other plugin packages they reference
+    private static class PluginPackage {
+        final List<PluginClassDefinition> classes = new ArrayList<>();
+        final Set<String> referencedPackages = new HashSet<>();
+    }
 
     /**
      * Patch the classloader.
      *
      * @param classLoaderFrom  classloader to load classes from
-     * @param path             path to copy
+     * @param pluginPath       path to copy
      * @param classLoaderTo    classloader to copy classes to
      * @param protectionDomain required protection in target classloader
      */
     public void patch(final ClassLoader classLoaderFrom, final String pluginPath,
                       final ClassLoader classLoaderTo, final ProtectionDomain protectionDomain) {
 
-        List<byte[]> cache = getPluginCache(classLoaderFrom, pluginPath);
+        Map<String, PluginPackage> cache = getPluginCache(classLoaderFrom, pluginPath);
 
-        if (cache != null) {
+        for (PluginPackage pluginPackage : cache.values()) {
+            defineClasses(pluginPackage, classLoaderFrom, classLoaderTo, protectionDomain);
+        }
 
-            final ClassPool cp = new ClassPool();
-            cp.appendClassPath(new LoaderClassPath(getClass().getClassLoader()));
+        LOGGER.debug("Classloader {} patched with plugin classes from agent classloader {}.", classLoaderTo, classLoaderFrom);
 
-            for (byte[] pluginBytes: cache) {
-                CtClass pluginClass = null;
-                try {
-                    // force to load class in classLoaderFrom (it may not yet be loaded) and if the classLoaderTo
-                    // is parent of classLoaderFrom, after definition in classLoaderTo will classLoaderFrom return
-                    // class from parent classloader instead own definition (hence change of behaviour).
-                    InputStream is = new ByteArrayInputStream(pluginBytes);
-                    pluginClass = cp.makeClass(is);
-                    try {
-                        classLoaderFrom.loadClass(pluginClass.getName());
-                    } catch (NoClassDefFoundError e) {
-                        LOGGER.trace("Skipping class loading {} in classloader {} - " +
-                                "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
-                    }
-                    // and load the class in classLoaderTo as well. NOw the class is defined in BOTH classloaders.
-                    pluginClass.toClass(classLoaderTo, protectionDomain);
-                } catch (CannotCompileException e) {
-                    LOGGER.trace("Skipping class definition {} in app classloader {} - " +
-                            "class is probably already defined.", pluginClass.getName(), classLoaderTo);
-                } catch (NoClassDefFoundError e) {
-                    LOGGER.trace("Skipping class definition {} in app classloader {} - " +
-                            "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
-                } catch (Throwable e) {
-                    LOGGER.trace("Skipping class definition app classloader {} - " +
-                            "unknown error.", e, classLoaderTo);
+    }
+
+    /**
+     * Patch the classloader only with classes of a plugin package (and packages referenced by the package classes).
+     * The plugin package is resolved from a class name (typically the plugin class). Each package is defined
+     * in the target classloader only once.
+     *
+     * @param classLoaderFrom  classloader to load classes from
+     * @param pluginPath       path containing all plugins (e.g. org/hotswap/agent/plugin)
+     * @param className        a class of the plugin package (e.g. org.hotswap.agent.plugin.spring.SpringPlugin)
+     * @param classLoaderTo    classloader to copy classes to
+     * @param protectionDomain required protection in target classloader
+     */
+    public void patchPluginPackage(final ClassLoader classLoaderFrom, final String pluginPath, String className,
+                                   final ClassLoader classLoaderTo, final ProtectionDomain protectionDomain) {
+        String packageName = getPluginPackage(pluginPath, className.replace('.', '/'));
+        if (packageName == null) {
+            return;
+        }
+
+        if (isPatched(classLoaderTo, packageName)) {
+            return;
+        }
+
+        Map<String, PluginPackage> cache = getPluginCache(classLoaderFrom, pluginPath);
+
+        synchronized (patchedPackages) {
+            Set<String> patched = patchedPackages.get(classLoaderTo);
+            if (patched == null) {
+                patched = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                patchedPackages.put(classLoaderTo, patched);
+            }
+
+            // packages are published as patched only after all of them are defined - lock-free readers
+            // must not see a package before the packages it references
+            Set<String> defined = new LinkedHashSet<>();
+            Deque<String> toPatch = new ArrayDeque<>();
+            toPatch.add(packageName);
+            while (!toPatch.isEmpty()) {
+                String name = toPatch.poll();
+                if (patched.contains(name) || !defined.add(name)) {
+                    continue;
+                }
+                PluginPackage pluginPackage = cache.get(name);
+                if (pluginPackage != null) {
+                    defineClasses(pluginPackage, classLoaderFrom, classLoaderTo, protectionDomain);
+                    toPatch.addAll(pluginPackage.referencedPackages);
+                    LOGGER.debug("Classloader {} patched with plugin package {}.", classLoaderTo, name);
                 }
             }
+            patched.addAll(defined);
         }
+    }
 
-        LOGGER.debug("Classloader {} patched with plugin classes from agent classloader {}.", classLoaderTo, classLoaderFrom);
+    /**
+     * Check without locking if the plugin package of the class is already defined in the classloader.
+     *
+     * @param pluginPath    path containing all plugins (e.g. org/hotswap/agent/plugin)
+     * @param className     a class of the plugin package
+     * @param classLoaderTo target classloader
+     * @return true if {@link #patchPluginPackage} would not define anything
+     */
+    public boolean isPluginPackagePatched(String pluginPath, String className, ClassLoader classLoaderTo) {
+        String packageName = getPluginPackage(pluginPath, className.replace('.', '/'));
+        return packageName == null || isPatched(classLoaderTo, packageName);
+    }
 
+    private boolean isPatched(ClassLoader classLoaderTo, String packageName) {
+        Set<String> patched = patchedPackages.get(classLoaderTo);
+        return patched != null && patched.contains(packageName);
     }
 
-    private List<byte[]> getPluginCache(final ClassLoader classLoaderFrom, final String pluginPath) {
-        List<byte[]> ret = null;
+    private void defineClasses(PluginPackage pluginPackage, ClassLoader classLoaderFrom,
+                               ClassLoader classLoaderTo, ProtectionDomain protectionDomain) {
+        for (PluginClassDefinition pluginClass : pluginPackage.classes) {
+            try {
+                // force to load class in classLoaderFrom (it may not yet be loaded) and if the classLoaderTo
+                // is parent of classLoaderFrom, after definition in classLoaderTo will classLoaderFrom return
+                // class from parent classloader instead own definition (hence change of behaviour).
+                try {
+                    classLoaderFrom.loadClass(pluginClass.className);
+                } catch (NoClassDefFoundError e) {
+                    LOGGER.trace("Skipping class loading {} in classloader {} - " +
+                            "class has probably unresolvable dependency.", pluginClass.className, classLoaderTo);
+                }
+                // and load the class in classLoaderTo as well. NOw the class is defined in BOTH classloaders.
+                DefineClassHelper.toClass(pluginClass.className, null, classLoaderTo, protectionDomain, pluginClass.bytes);
+            } catch (CannotCompileException e) {
+                LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                        "class is probably already defined.", pluginClass.className, classLoaderTo);
+            } catch (NoClassDefFoundError e) {
+                LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                        "class has probably unresolvable dependency.", pluginClass.className, classLoaderTo);
+            } catch (Throwable e) {
+                LOGGER.trace("Skipping class definition app classloader {} - " +
+                        "unknown error.", e, classLoaderTo);
+            }
+        }
+    }
+
+    private Map<String, PluginPackage> getPluginCache(final ClassLoader classLoaderFrom, final String pluginPath) {
+        Map<String, PluginPackage> ret = null;
         synchronized(pluginClassCache) {
             ret = pluginClassCache.get(pluginPath);
             if (ret == null) {
@@ -128,30 +232,99 @@ public class ClassLoaderDefineClassPatcher {
     //                            return;
     //                        }
 
-                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-                            int readBytes;
-                            byte[] data = new byte[16384];
-
-                            while ((readBytes = file.read(data, 0, data.length)) != -1) {
-                                buffer.write(data, 0, readBytes);
-                            }
-
-                            buffer.flush();
-                            retList.add(buffer.toByteArray());
+                            retList.add(IOUtils.toByteArray(file));
                         }
 
                     });
                 } catch (IOException e) {
                     LOGGER.error("Exception while scanning 'org/hotswap/agent/plugin'", e);
                 }
-                ret = retList;
+                ret = parsePluginClasses(pluginPath, retList);
                 pluginClassCache.put(pluginPath, ret);
             }
         }
         return ret;
     }
 
+    // parse class names and references once, group classes by plugin package
+    private Map<String, PluginPackage> parsePluginClasses(String pluginPath, List<byte[]> classes) {
+        Map<String, PluginPackage> result = new LinkedHashMap<>();
+        ClassPool cp = new ClassPool();
+        for (byte[] pluginBytes : classes) {
+            CtClass ctClass = null;
+            try {
+                ctClass = cp.makeClass(new ByteArrayInputStream(pluginBytes));
+                String packageName = getPluginPackage(pluginPath, ctClass.getName().replace('.', '/'));
+                if (packageName == null) {
+                    packageName = pluginPath;
+                }
+                PluginPackage pluginPackage = result.get(packageName);
+                if (pluginPackage == null) {
+                    pluginPackage = new PluginPackage();
+                    result.put(packageName, pluginPackage);
+                }
+                pluginPackage.classes.add(new PluginClassDefinition(ctClass.getName(), pluginBytes));
+
+                Collection<String> refClasses = ctClass.getRefClasses();
+                if (refClasses != null) {
+                    for (String refClass : refClasses) {
+                        String refPackage = getPluginPackage(pluginPath, refClass.replace('.', '/'));
+                        if (refPackage != null && !refPackage.equals(packageName)) {
+                            pluginPackage.referencedPackages.add(refPackage);
+                        }
+                    }
+                }
+
+                // plugin classes referenced only by name in a string, typically source code inserted by a transformer
+                // (e.g. "org.hotswap.agent.plugin.spring.ResetSpringStaticCaches.reset();")
+                ConstPool constPool = ctClass.getClassFile2().getConstPool();
+                for (int i = 1; i < constPool.getSize(); i++) {
+                    if (constPool.getTag(i) == ConstPool.CONST_String) {
+                        addStringReferences(pluginPath, packageName, constPool.getStringInfo(i),
+                                pluginPackage.referencedPackages);
+                    }
+                }
+            } catch (Throwable e) {
+                LOGGER.trace("Skipping plugin class - unable to parse.", e);
+            } finally {
+                if (ctClass != null) {
+                    ctClass.detach();
+                }
+            }
+        }
+        return result;
+    }
+
+    // add plugin packages named in the string (e.g. org.hotswap.agent.plugin.spring.Xxx -> org/hotswap/agent/plugin/spring)
+    private static void addStringReferences(String pluginPath, String packageName, String value, Set<String> result) {
+        String prefix = (pluginPath.endsWith("/") ? pluginPath : pluginPath + "/").replace('/', '.');
+        int index = value.indexOf(prefix);
+        while (index != -1) {
+            int start = index + prefix.length();
+            int end = start;
+            while (end < value.length() && Character.isJavaIdentifierPart(value.charAt(end))) {
+                end++;
+            }
+            if (end > start && end < value.length() && value.charAt(end) == '.') {
+                String refPackage = value.substring(index, end).replace('.', '/');
+                if (!refPackage.equals(packageName)) {
+                    result.add(refPackage);
+                }
+            }
+            index = value.indexOf(prefix, end);
+        }
+    }
+
+    // first package below plugin path (e.g. org/hotswap/agent/plugin/spring), null if not inside plugin path
+    private static String getPluginPackage(String pluginPath, String classPath) {
+        String prefix = pluginPath.endsWith("/") ? pluginPath : pluginPath + "/";
+        if (!classPath.startsWith(prefix)) {
+            return null;
+        }
+        int end = classPath.indexOf('/', prefix.length());
+        return end == -1 ? pluginPath : classPath.substring(0, end);
+    }
+
     /**
      * Check if the classloader can be patched.
      * Typically skip synthetic classloaders.
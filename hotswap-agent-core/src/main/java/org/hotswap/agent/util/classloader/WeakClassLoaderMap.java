@@ -0,0 +1,270 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.classloader;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent map with weak classloader keys. Keys are hashed by identity (custom classloaders may override
+ * hashCode() with something expensive), null key stands for the bootstrap classloader.
+ * <p/>
+ * Only the key is weakly referenced - an entry stays in the map as long as its classloader is reachable
+ * and it is removed after the classloader is garbage collected, the map does not prevent classloader unloading.
+ * Values must not reference the classloader strongly, otherwise the entry is never removed.
+ *
+ * @param <V> value type
+ */
+public class WeakClassLoaderMap<V> extends AbstractMap<ClassLoader, V> implements ConcurrentMap<ClassLoader, V> {
+
+    private final ConcurrentHashMap<Key, V> map = new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<>();
+
+    // key of the bootstrap classloader, compared only by identity
+    private static final Key NULL_KEY = new LookupKey(null);
+
+    private interface Key {
+        ClassLoader getClassLoader();
+    }
+
+    // stored key
+    private static final class WeakKey extends WeakReference<ClassLoader> implements Key {
+        private final int hash;
+
+        WeakKey(ClassLoader classLoader, ReferenceQueue<ClassLoader> queue) {
+            super(classLoader, queue);
+            this.hash = hash(classLoader);
+        }
+
+        @Override
+        public ClassLoader getClassLoader() {
+            return get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || keyEquals(get(), o);
+        }
+    }
+
+    // temporary key used for lookup, avoids creating a weak reference
+    private static final class LookupKey implements Key {
+        private final ClassLoader classLoader;
+        private final int hash;
+
+        LookupKey(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+            this.hash = hash(classLoader);
+        }
+
+        @Override
+        public ClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || keyEquals(classLoader, o);
+        }
+    }
+
+    private static int hash(ClassLoader classLoader) {
+        int hash = System.identityHashCode(classLoader);
+        return hash ^ (hash >>> 16);
+    }
+
+    // cleared keys (and the null key) are equal only to itself
+    private static boolean keyEquals(ClassLoader classLoader, Object o) {
+        return classLoader != null && o instanceof Key && ((Key) o).getClassLoader() == classLoader;
+    }
+
+    private Key lookupKey(Object classLoader) {
+        return classLoader == null ? NULL_KEY : new LookupKey((ClassLoader) classLoader);
+    }
+
+    private Key storeKey(ClassLoader classLoader) {
+        return classLoader == null ? NULL_KEY : new WeakKey(classLoader, queue);
+    }
+
+    // remove entries of garbage collected classloaders
+    private void purge() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key != null && !(key instanceof ClassLoader)) {
+            return null;
+        }
+        return map.get(lookupKey(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V put(ClassLoader key, V value) {
+        purge();
+        V previous = map.get(lookupKey(key));
+        if (previous != null && map.replace(lookupKey(key), previous, value)) {
+            return previous;
+        }
+        // not present (or changed concurrently) - insert new weak key
+        return map.put(storeKey(key), value);
+    }
+
+    @Override
+    public V putIfAbsent(ClassLoader key, V value) {
+        purge();
+        V previous = map.get(lookupKey(key));
+        if (previous != null) {
+            return previous;
+        }
+        return map.putIfAbsent(storeKey(key), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        purge();
+        if (key != null && !(key instanceof ClassLoader)) {
+            return null;
+        }
+        return map.remove(lookupKey(key));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        purge();
+        if (key != null && !(key instanceof ClassLoader)) {
+            return false;
+        }
+        return map.remove(lookupKey(key), value);
+    }
+
+    @Override
+    public boolean replace(ClassLoader key, V oldValue, V newValue) {
+        purge();
+        return map.replace(lookupKey(key), oldValue, newValue);
+    }
+
+    @Override
+    public V replace(ClassLoader key, V value) {
+        purge();
+        return map.replace(lookupKey(key), value);
+    }
+
+    @Override
+    public int size() {
+        purge();
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        purge();
+    }
+
+    /**
+     * Weakly consistent view of live entries, entries of collected classloaders are skipped.
+     */
+    @Override
+    public Set<Map.Entry<ClassLoader, V>> entrySet() {
+        purge();
+        return new AbstractSet<Map.Entry<ClassLoader, V>>() {
+            @Override
+            public Iterator<Map.Entry<ClassLoader, V>> iterator() {
+                final Iterator<Map.Entry<Key, V>> it = map.entrySet().iterator();
+                return new Iterator<Map.Entry<ClassLoader, V>>() {
+                    private Map.Entry<ClassLoader, V> next;
+                    private Key nextKey;
+                    private Key lastKey;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && it.hasNext()) {
+                            Map.Entry<Key, V> entry = it.next();
+                            ClassLoader classLoader = entry.getKey().getClassLoader();
+                            if (classLoader != null || entry.getKey() == NULL_KEY) {
+                                next = new SimpleImmutableEntry<>(classLoader, entry.getValue());
+                                nextKey = entry.getKey();
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public Map.Entry<ClassLoader, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<ClassLoader, V> result = next;
+                        lastKey = nextKey;
+                        next = null;
+                        return result;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (lastKey == null) {
+                            throw new IllegalStateException();
+                        }
+                        map.remove(lastKey);
+                        lastKey = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+}
@@ -22,16 +22,27 @@ import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
 import org.hotswap.agent.javassist.bytecode.ClassFile;
 import org.hotswap.agent.javassist.bytecode.annotation.Annotation;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
 
 /**
  * Scan a directory for annotation returning class names.
  * <p/>
+ * If an index resource is set, locations containing the index (see {@link ClassPathIndex}) are not scanned,
+ * class names are read from the index instead.
+ * <p/>
+ * Class files without the annotation descriptor in the constant pool are rejected by {@link ConstantPoolReader}
+ * without full parsing. The visitor is thread safe, hence the scanner may visit files in parallel
+ * (e.g. {@link ParallelClassPathScanner}).
  *
  * @author Jiri Bubnik
  */
@@ -44,12 +55,31 @@ public class ClassPathAnnotationScanner {
     // scanner to search path
     Scanner scanner;
 
+    // build-time index of annotated classes, null to always scan
+    String indexResource;
+
+    // annotation descriptor as stored in the class file constant pool
+    byte[] annotationDescriptor;
+
     /**
      * Create scanner for the annotation.
      */
     public ClassPathAnnotationScanner(String annotation, Scanner scanner) {
+        this(annotation, scanner, null);
+    }
+
+    /**
+     * Create scanner for the annotation using build-time index.
+     *
+     * @param annotation    annotation name
+     * @param scanner       scanner of locations without the index
+     * @param indexResource index resource name relative to classpath root (e.g. {@link ClassPathIndex#PLUGIN_INDEX})
+     */
+    public ClassPathAnnotationScanner(String annotation, Scanner scanner, String indexResource) {
         this.annotation = annotation;
         this.scanner = scanner;
+        this.indexResource = indexResource;
+        this.annotationDescriptor = ConstantPoolReader.toDescriptor(annotation);
     }
 
     /**
@@ -57,26 +87,54 @@ public class ClassPathAnnotationScanner {
      *
      * @param classLoader classloader to resolve path
      * @param path        path to scan {@link org.hotswap.agent.util.scanner.Scanner#scan(ClassLoader, String, ScannerVisitor)}
-     * @return list of class names containing the annotation
+     * @return list of class names containing the annotation (in classpath order, sorted by name within a location)
      * @throws IOException scan exception.
      */
     public List<String> scanPlugins(ClassLoader classLoader, String path) throws IOException {
-        final List<String> files = new LinkedList<>();
-        scanner.scan(classLoader, path, new ScannerVisitor() {
+        // the visitor may be called in parallel, names of a scan are sorted to keep the result deterministic
+        final List<String> scanned = Collections.synchronizedList(new ArrayList<String>());
+        ScannerVisitor visitor = new ScannerVisitor() {
             @Override
             public void visit(InputStream file) throws IOException {
+                byte[] bytes = IOUtils.toByteArray(file);
+                if (!ConstantPoolReader.containsUtf8(bytes, annotationDescriptor)) {
+                    return;
+                }
+
                 ClassFile cf;
                 try {
-                    DataInputStream dstream = new DataInputStream(file);
+                    DataInputStream dstream = new DataInputStream(new ByteArrayInputStream(bytes));
                     cf = new ClassFile(dstream);
                 } catch (IOException e) {
                     throw new IOException("Stream not a valid classFile", e);
                 }
 
                 if (hasAnnotation(cf))
-                    files.add(cf.getName());
+                    scanned.add(cf.getName());
             }
-        });
+        };
+
+        if (indexResource == null) {
+            scanner.scan(classLoader, path, visitor);
+            Collections.sort(scanned);
+            return scanned;
+        }
+
+        List<String> files = new ArrayList<>();
+        Enumeration<URL> en = classLoader == null ? ClassLoader.getSystemResources(path) : classLoader.getResources(path);
+        while (en.hasMoreElements()) {
+            URL pluginDirURL = en.nextElement();
+            List<String> indexed = ClassPathIndex.read(pluginDirURL, path, indexResource);
+            if (indexed != null) {
+                files.addAll(indexed);
+            } else {
+                LOGGER.debug("No index {} found for {}, scanning classes.", indexResource, pluginDirURL);
+                scanner.scan(pluginDirURL, visitor);
+                Collections.sort(scanned);
+                files.addAll(scanned);
+                scanned.clear();
+            }
+        }
         return files;
     }
 
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Build-time generated index of annotated classes (e.g. plugins.idx created by
+ * {@link org.hotswap.agent.annotation.processor.PluginIndexProcessor}).
+ * <p/>
+ * The index is a text file at the root of a classpath location (classes directory or JAR) with one class
+ * name per line, lines starting with '#' are comments. If the index is present, classes of the location need not
+ * to be scanned.
+ */
+public class ClassPathIndex {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ClassPathIndex.class);
+
+    /**
+     * Index of classes annotated with @Plugin.
+     */
+    public static final String PLUGIN_INDEX = "META-INF/hotswap-agent/plugins.idx";
+
+    /**
+     * Read class names of a directory from the index at the root of the directory location.
+     *
+     * @param pluginDirURL  URL of the directory as returned by {@link java.lang.ClassLoader#getResources}
+     * @param path          '/'-separated path of the directory (e.g. org/hotswap/agent/plugin)
+     * @param indexResource index resource name relative to the root
+     * @return class names in the directory (including subdirectories) or null if the location has no index
+     */
+    public static List<String> read(URL pluginDirURL, String path, String indexResource) {
+        String dirPath = trimSlashes(path);
+        URL indexURL = getIndexURL(pluginDirURL, dirPath, indexResource);
+        if (indexURL == null) {
+            return null;
+        }
+
+        String prefix = dirPath.isEmpty() ? "" : dirPath + "/";
+        List<String> classNames = new ArrayList<>();
+        try {
+            URLConnection connection = indexURL.openConnection();
+            // do not keep the JAR file open
+            connection.setUseCaches(false);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    if (line.replace('.', '/').startsWith(prefix)) {
+                        classNames.add(line);
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            LOGGER.trace("No index {} for {}", indexResource, pluginDirURL);
+            return null;
+        } catch (IOException e) {
+            LOGGER.warning("Unable to read index {}, the location will be scanned.", e, indexURL);
+            return null;
+        }
+
+        LOGGER.trace("Index {} resolved classes {}", indexURL, classNames);
+        return classNames;
+    }
+
+    // index URL at the root of the directory location
+    private static URL getIndexURL(URL pluginDirURL, String dirPath, String indexResource) {
+        String url = trimSlashes(pluginDirURL.toExternalForm());
+        if (!url.endsWith(dirPath)) {
+            return null;
+        }
+        String root = url.substring(0, url.length() - dirPath.length());
+        if (!root.endsWith("/")) {
+            root = root + "/";
+        }
+        try {
+            return new URL(root + indexResource);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private static String trimSlashes(String path) {
+        int begin = 0;
+        int end = path.length();
+        while (begin < end && path.charAt(begin) == '/') {
+            begin++;
+        }
+        while (end > begin && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(begin, end);
+    }
+}
@@ -23,6 +23,7 @@ import org.hotswap.agent.logging.AgentLogger;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -53,25 +54,29 @@ public class ClassPathScanner implements Scanner {
         // find all directories - classpath directory or JAR
         Enumeration<URL> en = classLoader == null ? ClassLoader.getSystemResources(path) : classLoader.getResources(path);
         while (en.hasMoreElements()) {
-            URL pluginDirURL = en.nextElement();
-            File pluginDir = new File(pluginDirURL.getFile());
-            if (pluginDir.isDirectory()) {
-                scanDirectory(pluginDir, visitor);
+            scan(en.nextElement(), visitor);
+        }
+    }
+
+    @Override
+    public void scan(URL pluginDirURL, ScannerVisitor visitor) throws IOException {
+        File pluginDir = new File(pluginDirURL.getFile());
+        if (pluginDir.isDirectory()) {
+            scanDirectory(pluginDir, visitor);
+        } else {
+            // JAR file
+            String uri;
+            try {
+                uri = pluginDirURL.toURI().toString();
+            } catch (URISyntaxException e) {
+                throw new IOException("Illegal directory URI " + pluginDirURL, e);
+            }
+
+            if (uri.startsWith(JAR_URL_PREFIX) || uri.startsWith(ZIP_URL_PREFIX)) {
+                String jarFile = uri.substring(uri.indexOf(':') + 1); // remove the prefix
+                scanJar(jarFile, visitor);
             } else {
-                // JAR file
-                String uri;
-                try {
-                    uri = pluginDirURL.toURI().toString();
-                } catch (URISyntaxException e) {
-                    throw new IOException("Illegal directory URI " + pluginDirURL, e);
-                }
-
-                if (uri.startsWith(JAR_URL_PREFIX) || uri.startsWith(ZIP_URL_PREFIX)) {
-                    String jarFile = uri.substring(uri.indexOf(':') + 1); // remove the prefix
-                    scanJar(jarFile, visitor);
-                } else {
-                    LOGGER.warning("Unknown resource type of file " + uri);
-                }
+                LOGGER.warning("Unknown resource type of file " + uri);
             }
         }
     }
@@ -86,15 +91,28 @@ public class ClassPathScanner implements Scanner {
     protected void scanDirectory(File pluginDir, ScannerVisitor visitor) throws IOException {
         LOGGER.trace("Scanning directory " + pluginDir.getName());
 
-        for (File file : pluginDir.listFiles()) {
+        File[] files = pluginDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
             if (file.isDirectory()) {
                 scanDirectory(file, visitor);
             } else if (file.isFile() && file.getName().endsWith(".class")) {
-                visitor.visit(new FileInputStream(file));
+                visitFile(file, visitor);
             }
         }
     }
 
+    /**
+     * Visit single class file, the stream is closed after the visit.
+     */
+    protected void visitFile(File file, ScannerVisitor visitor) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            visitor.visit(is);
+        }
+    }
+
     /**
      * Scan JAR file for all entries.
      * Resolve the JAR file itself and than iterate all entries and call visitor.
@@ -125,16 +143,7 @@ public class ClassPathScanner implements Scanner {
                 rootEntryPath = rootEntryPath + "/";
             }
 
-            for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
-                JarEntry entry = entries.nextElement();
-                String entryPath = entry.getName();
-
-                // class files inside entry
-                if (entryPath.startsWith(rootEntryPath) && entryPath.endsWith(".class")) {
-                    LOGGER.trace("Visiting JAR entry {}", entryPath);
-                    visitor.visit(jarFile.getInputStream(entry));
-                }
-            }
+            scanJarEntries(jarFile, rootEntryPath, visitor);
         } finally {
             if (jarFile != null) {
                 jarFile.close();
@@ -142,6 +151,36 @@ public class ClassPathScanner implements Scanner {
         }
     }
 
+    /**
+     * Visit all class files of the JAR inside root entry path.
+     *
+     * @param jarFile       open JAR file, it is closed by the caller after this method returns
+     * @param rootEntryPath path of the directory inside the JAR (empty or ending with '/')
+     * @param visitor       callback
+     * @throws IOException exception from a visitor
+     */
+    protected void scanJarEntries(JarFile jarFile, String rootEntryPath, ScannerVisitor visitor) throws IOException {
+        for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
+            JarEntry entry = entries.nextElement();
+            String entryPath = entry.getName();
+
+            // class files inside entry
+            if (entryPath.startsWith(rootEntryPath) && entryPath.endsWith(".class")) {
+                visitJarEntry(jarFile, entry, visitor);
+            }
+        }
+    }
+
+    /**
+     * Visit single JAR entry, the stream is closed after the visit.
+     */
+    protected void visitJarEntry(JarFile jarFile, JarEntry entry, ScannerVisitor visitor) throws IOException {
+        LOGGER.trace("Visiting JAR entry {}", entry.getName());
+        try (InputStream is = jarFile.getInputStream(entry)) {
+            visitor.visit(is);
+        }
+    }
+
     /**
      * Resolve the given jar file URL into a JarFile object.
      */
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal reader of a class file constant pool to reject classes cheaply before full parsing.
+ * <p/>
+ * Any annotation used on a class is referenced by its descriptor (e.g. <code>Lorg/hotswap/agent/annotation/Plugin;</code>)
+ * in a CONSTANT_Utf8 entry. If no such entry exists, the class cannot contain the annotation. The constant pool
+ * is only walked, nothing is allocated.
+ * <p/>
+ * The class name is read the same way, a CtClass is not created just to learn the name of a class file.
+ */
+public class ConstantPoolReader {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final int MAGIC_HIGH = 0xCAFE;
+    private static final int MAGIC_LOW = 0xBABE;
+
+    // magic, minor and major version
+    private static final int CONSTANT_POOL_COUNT_OFFSET = 8;
+
+    /**
+     * Convert type name to descriptor (e.g. <code>Lorg/hotswap/agent/annotation/Plugin;</code>).
+     *
+     * @param className java class name
+     * @return descriptor encoded in constant pool form
+     */
+    public static byte[] toDescriptor(String className) {
+        // plain ASCII names are equal in UTF-8 and modified UTF-8 used by class files
+        return ("L" + className.replace('.', '/') + ";").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check if the constant pool contains CONSTANT_Utf8 entry equal to the value.
+     *
+     * @param classFile class file bytes
+     * @param value     value in modified UTF-8 encoding
+     * @return false only if the class file surely does not contain the value (true for unknown format)
+     */
+    public static boolean containsUtf8(byte[] classFile, byte[] value) {
+        if (classFile.length < CONSTANT_POOL_COUNT_OFFSET + 2) {
+            return true;
+        }
+        int count = readU2(classFile, CONSTANT_POOL_COUNT_OFFSET);
+        int pos = CONSTANT_POOL_COUNT_OFFSET + 2;
+
+        for (int i = 1; i < count; i++) {
+            int size = constantSize(classFile, pos);
+            if (size < 0) {
+                // unknown constant or truncated file, let the full parser decide
+                return true;
+            }
+            int tag = classFile[pos] & 0xff;
+            if (tag == CONSTANT_UTF8 && size - 3 == value.length && regionEquals(classFile, pos + 3, value)) {
+                return true;
+            }
+            if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) {
+                // takes two entries
+                i++;
+            }
+            pos += size;
+        }
+        return false;
+    }
+
+    /**
+     * Read the class name (this_class entry) without full class file parsing. The constant pool is walked
+     * to find the offsets, only the name itself is decoded.
+     *
+     * @param classFile class file bytes
+     * @return java class name (dot separated) or null if the bytes are not a valid class file
+     */
+    public static String getClassName(byte[] classFile) {
+        if (classFile.length < CONSTANT_POOL_COUNT_OFFSET + 2 || readU2(classFile, 0) != MAGIC_HIGH
+                || readU2(classFile, 2) != MAGIC_LOW) {
+            return null;
+        }
+        int count = readU2(classFile, CONSTANT_POOL_COUNT_OFFSET);
+        int[] offsets = new int[count];
+        int pos = CONSTANT_POOL_COUNT_OFFSET + 2;
+
+        for (int i = 1; i < count; i++) {
+            int size = constantSize(classFile, pos);
+            if (size < 0) {
+                return null;
+            }
+            offsets[i] = pos;
+            int tag = classFile[pos] & 0xff;
+            if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) {
+                i++;
+            }
+            pos += size;
+        }
+
+        // access_flags followed by this_class
+        if (pos + 4 > classFile.length) {
+            return null;
+        }
+        int classPos = constantOffset(classFile, offsets, readU2(classFile, pos + 2), CONSTANT_CLASS);
+        if (classPos < 0) {
+            return null;
+        }
+        int namePos = constantOffset(classFile, offsets, readU2(classFile, classPos + 1), CONSTANT_UTF8);
+        if (namePos < 0) {
+            return null;
+        }
+        try {
+            // length and bytes of CONSTANT_Utf8 are exactly the DataInput.readUTF() format
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(classFile, namePos + 1, readU2(classFile, namePos + 1) + 2));
+            return in.readUTF().replace('/', '.');
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // offset of constant pool entry with the expected tag, -1 if index is not valid
+    private static int constantOffset(byte[] classFile, int[] offsets, int index, int tag) {
+        if (index <= 0 || index >= offsets.length || offsets[index] == 0
+                || (classFile[offsets[index]] & 0xff) != tag) {
+            return -1;
+        }
+        return offsets[index];
+    }
+
+    // size of constant pool entry including the tag, -1 for unknown constant or truncated class file
+    private static int constantSize(byte[] classFile, int pos) {
+        if (pos >= classFile.length) {
+            return -1;
+        }
+        int size;
+        switch (classFile[pos] & 0xff) {
+            case CONSTANT_UTF8:
+                if (pos + 3 > classFile.length) {
+                    return -1;
+                }
+                size = 3 + readU2(classFile, pos + 1);
+                break;
+            case CONSTANT_CLASS:
+            case CONSTANT_STRING:
+            case CONSTANT_METHOD_TYPE:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                size = 3;
+                break;
+            case CONSTANT_METHOD_HANDLE:
+                size = 4;
+                break;
+            case CONSTANT_INTEGER:
+            case CONSTANT_FLOAT:
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+            case CONSTANT_NAME_AND_TYPE:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+                size = 5;
+                break;
+            case CONSTANT_LONG:
+            case CONSTANT_DOUBLE:
+                size = 9;
+                break;
+            default:
+                return -1;
+        }
+        return pos + size <= classFile.length ? size : -1;
+    }
+
+    private static int readU2(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xff) << 8) | (bytes[pos + 1] & 0xff);
+    }
+
+    private static boolean regionEquals(byte[] bytes, int pos, byte[] value) {
+        if (pos + value.length > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (bytes[pos + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Classpath scanner visiting files in parallel on a fork-join pool.
+ * <p/>
+ * Each subdirectory and each class file is processed by a separate task, JAR entries are split into batches
+ * (the JAR file is shared, each entry has its own stream). The scan returns after all files are visited.
+ * <p/>
+ * The visitor is called concurrently and must be thread safe, files are visited in no particular order.
+ */
+public class ParallelClassPathScanner extends ClassPathScanner {
+
+    // JAR entries visited by single task
+    private static final int JAR_ENTRIES_PER_TASK = 16;
+
+    private ForkJoinPool scanPool;
+
+    private synchronized ForkJoinPool getScanPool() {
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return scanPool;
+    }
+
+    @Override
+    protected void scanDirectory(File pluginDir, ScannerVisitor visitor) throws IOException {
+        invoke(new DirectoryTask(pluginDir, visitor));
+    }
+
+    @Override
+    protected void scanJarEntries(JarFile jarFile, String rootEntryPath, ScannerVisitor visitor) throws IOException {
+        List<JarEntry> classEntries = new ArrayList<>();
+        for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
+            JarEntry entry = entries.nextElement();
+            String entryPath = entry.getName();
+            if (entryPath.startsWith(rootEntryPath) && entryPath.endsWith(".class")) {
+                classEntries.add(entry);
+            }
+        }
+        invoke(new JarEntriesTask(jarFile, classEntries, 0, classEntries.size(), visitor));
+    }
+
+    // run the task and rethrow IOException from a visitor
+    private void invoke(ForkJoinTask<?> task) throws IOException {
+        try {
+            getScanPool().invoke(task);
+        } catch (RuntimeException e) {
+            // fork-join pool may wrap the exception thrown in other thread
+            Throwable cause = e;
+            while (cause != null && !(cause instanceof IOException)) {
+                cause = cause.getCause();
+            }
+            if (cause != null) {
+                throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private final File dir;
+        private final ScannerVisitor visitor;
+
+        DirectoryTask(File dir, ScannerVisitor visitor) {
+            this.dir = dir;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    tasks.add(new DirectoryTask(file, visitor));
+                } else if (file.isFile() && file.getName().endsWith(".class")) {
+                    tasks.add(new FileTask(file, visitor));
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private class FileTask extends RecursiveAction {
+        private final File file;
+        private final ScannerVisitor visitor;
+
+        FileTask(File file, ScannerVisitor visitor) {
+            this.file = file;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                visitFile(file, visitor);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private class JarEntriesTask extends RecursiveAction {
+        private final JarFile jarFile;
+        private final List<JarEntry> entries;
+        private final int from;
+        private final int to;
+        private final ScannerVisitor visitor;
+
+        JarEntriesTask(JarFile jarFile, List<JarEntry> entries, int from, int to, ScannerVisitor visitor) {
+            this.jarFile = jarFile;
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > JAR_ENTRIES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new JarEntriesTask(jarFile, entries, from, middle, visitor),
+                        new JarEntriesTask(jarFile, entries, middle, to, visitor));
+                return;
+            }
+            try {
+                for (int i = from; i < to; i++) {
+                    visitJarEntry(jarFile, entries.get(i), visitor);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
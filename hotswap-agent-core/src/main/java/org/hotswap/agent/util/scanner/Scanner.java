@@ -19,6 +19,7 @@
 package org.hotswap.agent.util.scanner;
 
 import java.io.IOException;
+import java.net.URL;
 
 /**
  * Scan a classpath directory for files and call visitor for each found file.
@@ -40,4 +41,14 @@ public interface Scanner {
      * @throws IOException any IO exception while scanning
      */
     void scan(ClassLoader classLoader, String path, ScannerVisitor visitor) throws IOException;
+
+    /**
+     * Scan single location of a directory (classpath directory or JAR directory) and call visitor
+     * for each found file.
+     *
+     * @param pluginDirURL URL of the directory as returned by {@link java.lang.ClassLoader#getResources}
+     * @param visitor      visit each file on the path
+     * @throws IOException any IO exception while scanning
+     */
+    void scan(URL pluginDirURL, ScannerVisitor visitor) throws IOException;
 }
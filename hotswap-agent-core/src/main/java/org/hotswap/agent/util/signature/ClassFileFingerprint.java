@@ -0,0 +1,539 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fingerprint of a class file, see {@link ClassFingerprint}.
+ * <p/>
+ * The class file is read directly from bytes - only offsets of the constant pool entries are kept, names
+ * and descriptors are streamed to the hasher from the modified UTF-8 encoding. Annotation types are resolved
+ * in the classloader to skip values equal to the element default (see {@link JavaClassFingerprint}).
+ */
+class ClassFileFingerprint {
+
+    private static final byte[] RUNTIME_VISIBLE_ANNOTATIONS = utf8("RuntimeVisibleAnnotations");
+    private static final byte[] RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS = utf8("RuntimeVisibleParameterAnnotations");
+    private static final byte[] EXCEPTIONS = utf8("Exceptions");
+    private static final byte[] INIT = utf8("<init>");
+    private static final byte[] CLINIT = utf8("<clinit>");
+    private static final byte[] OBJECT = utf8("java/lang/Object");
+    private static final byte[] SWITCH_TABLE = utf8(ClassFingerprint.SWITCH_TABLE_PREFIX);
+
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+
+    // resolved annotation type without elements (not available in the classloader)
+    private static final JavaClassFingerprint.AnnotationElements UNRESOLVED =
+            new JavaClassFingerprint.AnnotationElements(null, null);
+
+    private final byte[] b;
+    private final ClassLoader classLoader;
+    private final int mask;
+
+    // offset of each constant pool entry (after the tag)
+    private int[] cp;
+
+    // annotation type descriptor index -> elements
+    private Map<Integer, JavaClassFingerprint.AnnotationElements> annotationTypes;
+
+    // last annotation read by putAnnotation() is of unresolved type
+    private boolean unresolvedAnnotation;
+
+    ClassFileFingerprint(byte[] classFile, ClassLoader classLoader, int mask) {
+        this.b = classFile;
+        this.classLoader = classLoader;
+        this.mask = mask;
+    }
+
+    ClassFingerprint compute() {
+        try {
+            return doCompute();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file.", e);
+        }
+    }
+
+    private ClassFingerprint doCompute() {
+        if (u4(0) != 0xCAFEBABE) {
+            throw new IllegalArgumentException("Not a class file.");
+        }
+        int pos = readConstantPool();
+
+        pos += 4; // access flags, this class
+        int superClass = u2(pos);
+        int interfacesCount = u2(pos + 2);
+        pos += 4;
+
+        FingerprintHasher hasher = new FingerprintHasher();
+        long sumHigh = 0;
+        long sumLow = 0;
+
+        if (has(ClassSignatureElement.SUPER_CLASS) && superClass != 0 && !utf8Equals(u2(cp[superClass]), OBJECT)) {
+            FingerprintHasher h = hasher.child();
+            h.putChar(ClassFingerprint.SUPER_CLASS);
+            putUtf8(h, u2(cp[superClass]));
+            h.endString();
+            h.finish();
+            sumHigh += h.high();
+            sumLow += h.low();
+        }
+
+        for (int i = 0; i < interfacesCount; i++, pos += 2) {
+            if (has(ClassSignatureElement.INTERFACES)) {
+                FingerprintHasher h = hasher.child();
+                h.putChar(ClassFingerprint.INTERFACE);
+                putUtf8(h, u2(cp[u2(pos)]));
+                h.endString();
+                h.finish();
+                sumHigh += h.high();
+                sumLow += h.low();
+            }
+        }
+
+        // fields
+        boolean useField = has(ClassSignatureElement.FIELD);
+        boolean useStaticField = has(ClassSignatureElement.FIELD_STATIC);
+        boolean useFieldAnnotation = has(ClassSignatureElement.FIELD_ANNOTATION);
+        int fieldsCount = u2(pos);
+        pos += 2;
+        for (int i = 0; i < fieldsCount; i++) {
+            int access = u2(pos);
+            int name = u2(pos + 2);
+            int descriptor = u2(pos + 4);
+            int attributesCount = u2(pos + 6);
+            pos += 8;
+            int annotations = -1;
+            for (int j = 0; j < attributesCount; j++) {
+                if (utf8Equals(u2(pos), RUNTIME_VISIBLE_ANNOTATIONS)) {
+                    annotations = pos + 6;
+                }
+                pos += 6 + u4(pos + 2);
+            }
+
+            if (!useField || (!useStaticField && (access & ACC_STATIC) != 0) || utf8StartsWith(name, SWITCH_TABLE)) {
+                continue;
+            }
+            FingerprintHasher h = hasher.child();
+            h.putChar(ClassFingerprint.FIELD);
+            putUtf8(h, name);
+            h.endString();
+            putUtf8(h, descriptor);
+            h.endString();
+            if (useFieldAnnotation) {
+                h.putChar(ClassFingerprint.ANNOTATIONS);
+                putAnnotations(h, annotations);
+            }
+            h.finish();
+            sumHigh += h.high();
+            sumLow += h.low();
+        }
+
+        // methods and constructors
+        int methodsCount = u2(pos);
+        pos += 2;
+        for (int i = 0; i < methodsCount; i++) {
+            int access = u2(pos);
+            int name = u2(pos + 2);
+            int descriptor = u2(pos + 4);
+            int attributesCount = u2(pos + 6);
+            pos += 8;
+            int annotations = -1;
+            int parameterAnnotations = -1;
+            int exceptions = -1;
+            for (int j = 0; j < attributesCount; j++) {
+                int attributeName = u2(pos);
+                if (utf8Equals(attributeName, RUNTIME_VISIBLE_ANNOTATIONS)) {
+                    annotations = pos + 6;
+                } else if (utf8Equals(attributeName, RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS)) {
+                    parameterAnnotations = pos + 6;
+                } else if (utf8Equals(attributeName, EXCEPTIONS)) {
+                    exceptions = pos + 6;
+                }
+                pos += 6 + u4(pos + 2);
+            }
+
+            boolean constructor = utf8Equals(name, INIT);
+            if (constructor ? !isConstructorUsed(access) : !isMethodUsed(access, name)) {
+                continue;
+            }
+            FingerprintHasher h = hasher.child();
+            h.putChar(constructor ? ClassFingerprint.CONSTRUCTOR : ClassFingerprint.METHOD);
+            h.putInt(access & ClassFingerprint.ACCESS_MASK);
+            putUtf8(h, name);
+            h.endString();
+            putUtf8(h, descriptor);
+            h.endString();
+            if (has(ClassSignatureElement.METHOD_ANNOTATION)) {
+                h.putChar(ClassFingerprint.ANNOTATIONS);
+                putAnnotations(h, annotations);
+            }
+            if (has(ClassSignatureElement.METHOD_PARAM_ANNOTATION)) {
+                h.putChar(ClassFingerprint.PARAMETER_ANNOTATIONS);
+                putParameterAnnotations(h, parameterAnnotations);
+            }
+            if (has(ClassSignatureElement.METHOD_EXCEPTION)) {
+                h.putChar(ClassFingerprint.EXCEPTIONS);
+                putExceptions(h, exceptions);
+            }
+            h.finish();
+            sumHigh += h.high();
+            sumLow += h.low();
+        }
+
+        // class attributes
+        if (has(ClassSignatureElement.CLASS_ANNOTATION)) {
+            int annotations = -1;
+            int attributesCount = u2(pos);
+            pos += 2;
+            for (int j = 0; j < attributesCount; j++) {
+                if (utf8Equals(u2(pos), RUNTIME_VISIBLE_ANNOTATIONS)) {
+                    annotations = pos + 6;
+                }
+                pos += 6 + u4(pos + 2);
+            }
+            FingerprintHasher h = hasher.child();
+            h.putChar(ClassFingerprint.CLASS_ANNOTATIONS);
+            putAnnotations(h, annotations);
+            h.finish();
+            sumHigh += h.high();
+            sumLow += h.low();
+        }
+
+        hasher.putHash(sumHigh, sumLow);
+        hasher.finish();
+        return new ClassFingerprint(hasher.high(), hasher.low());
+    }
+
+    private int readConstantPool() {
+        int count = u2(8);
+        cp = new int[count];
+        int pos = 10;
+        for (int i = 1; i < count; i++) {
+            int tag = b[pos] & 0xff;
+            cp[i] = pos + 1;
+            switch (tag) {
+                case 1: // Utf8
+                    pos += 3 + u2(pos + 1);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    pos += 5;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    pos += 9;
+                    i++;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    pos += 3;
+                    break;
+                case 15: // MethodHandle
+                    pos += 4;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag + ".");
+            }
+        }
+        return pos;
+    }
+
+    private boolean isConstructorUsed(int access) {
+        return has(ClassSignatureElement.CONSTRUCTOR)
+                && ((access & ACC_PRIVATE) == 0 || has(ClassSignatureElement.CONSTRUCTOR_PRIVATE));
+    }
+
+    private boolean isMethodUsed(int access, int name) {
+        return has(ClassSignatureElement.METHOD)
+                && ((access & ACC_PRIVATE) == 0 || has(ClassSignatureElement.METHOD_PRIVATE))
+                && ((access & ACC_STATIC) == 0 || has(ClassSignatureElement.METHOD_STATIC))
+                && !utf8Equals(name, CLINIT) && !utf8StartsWith(name, SWITCH_TABLE);
+    }
+
+    private boolean has(ClassSignatureElement element) {
+        return ClassFingerprint.hasElement(mask, element);
+    }
+
+    /*
+     * Sum of the annotations of RuntimeVisibleAnnotations attribute at the offset (-1 no attribute), return offset
+     * after the annotations. Annotations of unresolved type are skipped as reflection does.
+     */
+    private int putAnnotations(FingerprintHasher h, int offset) {
+        long sumHigh = 0;
+        long sumLow = 0;
+        int pos = offset;
+        if (offset >= 0) {
+            int count = u2(offset);
+            pos += 2;
+            for (int i = 0; i < count; i++) {
+                FingerprintHasher ah = h.child();
+                pos = putAnnotation(ah, pos);
+                if (!unresolvedAnnotation) {
+                    ah.finish();
+                    sumHigh += ah.high();
+                    sumLow += ah.low();
+                }
+            }
+        }
+        h.putHash(sumHigh, sumLow);
+        return pos;
+    }
+
+    private void putParameterAnnotations(FingerprintHasher h, int offset) {
+        long sumHigh = 0;
+        long sumLow = 0;
+        if (offset >= 0) {
+            int parameters = b[offset] & 0xff;
+            int pos = offset + 1;
+            for (int i = 0; i < parameters; i++) {
+                int count = u2(pos);
+                if (count == 0) {
+                    pos += 2;
+                    continue;
+                }
+                // indexed from the last parameter, see JavaClassFingerprint
+                FingerprintHasher ph = h.child();
+                ph.putInt(parameters - 1 - i);
+                pos = putAnnotations(ph, pos);
+                ph.finish();
+                sumHigh += ph.high();
+                sumLow += ph.low();
+            }
+        }
+        h.putHash(sumHigh, sumLow);
+    }
+
+    private void putExceptions(FingerprintHasher h, int offset) {
+        long sumHigh = 0;
+        long sumLow = 0;
+        if (offset >= 0) {
+            int count = u2(offset);
+            for (int i = 0; i < count; i++) {
+                FingerprintHasher eh = h.child();
+                putUtf8(eh, u2(cp[u2(offset + 2 + 2 * i)]));
+                eh.endString();
+                eh.finish();
+                sumHigh += eh.high();
+                sumLow += eh.low();
+            }
+        }
+        h.putHash(sumHigh, sumLow);
+    }
+
+    /*
+     * Hash annotation structure at the offset, return offset after the annotation.
+     */
+    private int putAnnotation(FingerprintHasher h, int offset) {
+        int type = u2(offset);
+        int pairsCount = u2(offset + 2);
+        int pos = offset + 4;
+        JavaClassFingerprint.AnnotationElements elements = resolveAnnotationType(type);
+
+        h.putChar('@');
+        putUtf8(h, type);
+        h.endString();
+
+        long sumHigh = 0;
+        long sumLow = 0;
+        for (int i = 0; i < pairsCount; i++) {
+            int name = u2(pos);
+            FingerprintHasher vh = h.child();
+            pos = putValue(vh, pos + 2);
+            vh.finish();
+            if (elements != UNRESOLVED && elements.isDefault(utf8String(name), vh)) {
+                continue;
+            }
+            long valueHigh = vh.high();
+            long valueLow = vh.low();
+            FingerprintHasher eh = h.child();
+            putUtf8(eh, name);
+            eh.endString();
+            eh.putHash(valueHigh, valueLow);
+            eh.finish();
+            sumHigh += eh.high();
+            sumLow += eh.low();
+        }
+        h.putHash(sumHigh, sumLow);
+        unresolvedAnnotation = elements == UNRESOLVED;
+        return pos;
+    }
+
+    /*
+     * Hash element_value structure at the offset, return offset after the value.
+     */
+    private int putValue(FingerprintHasher h, int offset) {
+        char tag = (char) b[offset];
+        int pos = offset + 1;
+        switch (tag) {
+            case 'B':
+            case 'C':
+            case 'I':
+            case 'S':
+            case 'Z':
+            case 'F':
+                h.putChar(tag);
+                h.putInt(u4(cp[u2(pos)]));
+                return pos + 2;
+            case 'J':
+            case 'D':
+                h.putChar(tag);
+                h.putLong(((long) u4(cp[u2(pos)]) << 32) | (u4(cp[u2(pos)] + 4) & 0xffffffffL));
+                return pos + 2;
+            case 's':
+            case 'c':
+                h.putChar(tag);
+                putUtf8(h, u2(pos));
+                h.endString();
+                return pos + 2;
+            case 'e':
+                h.putChar(tag);
+                putUtf8(h, u2(pos));
+                h.endString();
+                putUtf8(h, u2(pos + 2));
+                h.endString();
+                return pos + 4;
+            case '@':
+                FingerprintHasher ah = h.child();
+                pos = putAnnotation(ah, pos);
+                ah.finish();
+                h.putHash(ah.high(), ah.low());
+                return pos;
+            case '[':
+                int count = u2(pos);
+                pos += 2;
+                h.putChar('[');
+                h.putInt(count);
+                for (int i = 0; i < count; i++) {
+                    pos = putValue(h, pos);
+                }
+                return pos;
+            default:
+                throw new IllegalArgumentException("Unknown annotation value tag " + tag + ".");
+        }
+    }
+
+    private JavaClassFingerprint.AnnotationElements resolveAnnotationType(int type) {
+        if (annotationTypes == null) {
+            annotationTypes = new HashMap<>();
+        }
+        JavaClassFingerprint.AnnotationElements elements = annotationTypes.get(type);
+        if (elements == null) {
+            elements = UNRESOLVED;
+            String descriptor = utf8String(type);
+            if (descriptor.length() > 2 && descriptor.charAt(0) == 'L') {
+                try {
+                    Class<?> annotationType = Class.forName(
+                            descriptor.substring(1, descriptor.length() - 1).replace('/', '.'), false, classLoader);
+                    if (annotationType.isAnnotation()) {
+                        elements = JavaClassFingerprint.getAnnotationElements(annotationType);
+                    }
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // not visible by reflection
+                }
+            }
+            annotationTypes.put(type, elements);
+        }
+        return elements;
+    }
+
+    // stream chars of the modified UTF-8 constant
+    private void putUtf8(FingerprintHasher h, int index) {
+        int offset = cp[index];
+        int end = offset + 2 + u2(offset);
+        int pos = offset + 2;
+        while (pos < end) {
+            int c = b[pos] & 0xff;
+            if (c < 0x80) {
+                pos++;
+            } else if ((c & 0xe0) == 0xc0) {
+                c = ((c & 0x1f) << 6) | (b[pos + 1] & 0x3f);
+                pos += 2;
+            } else {
+                c = ((c & 0x0f) << 12) | ((b[pos + 1] & 0x3f) << 6) | (b[pos + 2] & 0x3f);
+                pos += 3;
+            }
+            h.putChar((char) c);
+        }
+    }
+
+    private String utf8String(int index) {
+        StringBuilder sb = new StringBuilder();
+        int offset = cp[index];
+        int end = offset + 2 + u2(offset);
+        int pos = offset + 2;
+        while (pos < end) {
+            int c = b[pos] & 0xff;
+            if (c < 0x80) {
+                pos++;
+            } else if ((c & 0xe0) == 0xc0) {
+                c = ((c & 0x1f) << 6) | (b[pos + 1] & 0x3f);
+                pos += 2;
+            } else {
+                c = ((c & 0x0f) << 12) | ((b[pos + 1] & 0x3f) << 6) | (b[pos + 2] & 0x3f);
+                pos += 3;
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private boolean utf8Equals(int index, byte[] expected) {
+        int offset = cp[index];
+        return u2(offset) == expected.length && utf8StartsWith(index, expected);
+    }
+
+    private boolean utf8StartsWith(int index, byte[] prefix) {
+        int offset = cp[index];
+        if (u2(offset) < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[offset + 2 + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int u2(int offset) {
+        return ((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff);
+    }
+
+    private int u4(int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16) | ((b[offset + 2] & 0xff) << 8)
+                | (b[offset + 3] & 0xff);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
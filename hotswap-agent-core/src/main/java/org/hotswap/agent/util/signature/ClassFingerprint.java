@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+/**
+ * 128-bit fingerprint of a class shape (methods, fields, annotations... selected by {@link ClassSignatureElement}).
+ * <p/>
+ * Unlike the string signature ({@link ClassSignatureBase}), the fingerprint is computed by streaming - members
+ * are hashed one by one and combined by an order independent sum, no descriptions are built and sorted.
+ * The same class shape gives the same fingerprint whether it is computed from class file bytes
+ * (new definition) or from the loaded Class via reflection (current definition).
+ */
+public final class ClassFingerprint {
+
+    // kinds of hashed structures, shared by ClassFileFingerprint and JavaClassFingerprint
+    static final char METHOD = 'M';
+    static final char CONSTRUCTOR = 'C';
+    static final char FIELD = 'F';
+    static final char SUPER_CLASS = 'S';
+    static final char INTERFACE = 'I';
+    static final char CLASS_ANNOTATIONS = 'A';
+    static final char ANNOTATIONS = 'a';
+    static final char PARAMETER_ANNOTATIONS = 'p';
+    static final char EXCEPTIONS = 'x';
+
+    // access flags of a method in the fingerprint (synthetic and other marker flags are skipped)
+    static final int ACCESS_MASK = 0x0FFF;
+
+    // methods and fields named with this prefix are ignored
+    static final String SWITCH_TABLE_PREFIX = ClassSignatureBase.SWITCH_TABLE_METHOD_PREFIX;
+
+    private final long high;
+    private final long low;
+
+    ClassFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Fingerprint of the class file.
+     *
+     * @param classFile         class file bytes
+     * @param classLoader       classloader to resolve annotation types (for default values)
+     * @param signatureElements elements of the class shape
+     * @return the fingerprint
+     * @throws IllegalArgumentException invalid class file
+     */
+    public static ClassFingerprint of(byte[] classFile, ClassLoader classLoader, ClassSignatureElement[] signatureElements) {
+        return new ClassFileFingerprint(classFile, classLoader, toMask(signatureElements)).compute();
+    }
+
+    /**
+     * Fingerprint of the loaded class.
+     *
+     * @param clazz             the class
+     * @param signatureElements elements of the class shape
+     * @return the fingerprint
+     */
+    public static ClassFingerprint of(Class<?> clazz, ClassSignatureElement[] signatureElements) {
+        return JavaClassFingerprint.compute(clazz, toMask(signatureElements));
+    }
+
+    /**
+     * Bit mask of signature elements (bit per element ordinal).
+     */
+    static int toMask(ClassSignatureElement[] signatureElements) {
+        int mask = 0;
+        for (ClassSignatureElement element : signatureElements) {
+            mask |= 1 << element.ordinal();
+        }
+        return mask;
+    }
+
+    static boolean hasElement(int mask, ClassSignatureElement element) {
+        return (mask & (1 << element.ordinal())) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ClassFingerprint that = (ClassFingerprint) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (high ^ (high >>> 32) ^ low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
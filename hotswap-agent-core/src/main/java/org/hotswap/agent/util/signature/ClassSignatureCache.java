@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Cache of signatures and fingerprints of loaded classes (per set of signature elements).
+ * <p/>
+ * Signature of a class is evaluated by reflection (e.g. old definition of a reloaded class, each superclass and
+ * interface of a proxied type), the result does not change until the class is redefined. Entries are attached
+ * to the Class by a ClassValue (the cache does not prevent class unloading) and tagged by the redefinition
+ * generation of the class - JVM redefinition counter (Class.classRedefinedCount). The entry of a class is
+ * also removed by HotswapTransformer when the class is being redefined.
+ * <p/>
+ * If the JVM counter is not accessible (java.lang not open to the agent), the cache is disabled - a signature
+ * evaluated during redefinition (old definition) would be kept after the redefinition otherwise.
+ */
+public class ClassSignatureCache {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ClassSignatureCache.class);
+
+    private static final Field REDEFINED_COUNT = getRedefinedCountField();
+
+    private static final ClassValue<EntryHolder> cache = new ClassValue<EntryHolder>() {
+        @Override
+        protected EntryHolder computeValue(Class<?> type) {
+            return new EntryHolder();
+        }
+    };
+
+    // current entry of a class
+    private static class EntryHolder {
+        volatile Entry entry;
+    }
+
+    private static class Entry {
+        // redefinition generation of the class, when the entry was created
+        final int generation;
+        // signature elements mask -> value
+        final Map<Integer, String> signatures = new ConcurrentHashMap<>();
+        final Map<Integer, ClassFingerprint> fingerprints = new ConcurrentHashMap<>();
+
+        Entry(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Signature of the class, evaluated once per class definition.
+     *
+     * @param clazz the class
+     * @param signatureElements elements of the signature
+     * @return the signature
+     * @throws Exception unable to evaluate the signature
+     */
+    public static String getJavaClassSignature(Class<?> clazz, ClassSignatureElement[] signatureElements) throws Exception {
+        Entry entry = getEntry(clazz);
+        if (entry == null) {
+            return computeJavaClassSignature(clazz, signatureElements);
+        }
+        Integer mask = ClassFingerprint.toMask(signatureElements);
+        String signature = entry.signatures.get(mask);
+        if (signature == null) {
+            signature = computeJavaClassSignature(clazz, signatureElements);
+            entry.signatures.put(mask, signature);
+        }
+        return signature;
+    }
+
+    /**
+     * Fingerprint of the class, evaluated once per class definition.
+     *
+     * @param clazz the class
+     * @param signatureElements elements of the class shape
+     * @return the fingerprint
+     */
+    public static ClassFingerprint getClassFingerprint(Class<?> clazz, ClassSignatureElement[] signatureElements) {
+        Entry entry = getEntry(clazz);
+        if (entry == null) {
+            return ClassFingerprint.of(clazz, signatureElements);
+        }
+        Integer mask = ClassFingerprint.toMask(signatureElements);
+        ClassFingerprint fingerprint = entry.fingerprints.get(mask);
+        if (fingerprint == null) {
+            fingerprint = ClassFingerprint.of(clazz, signatureElements);
+            entry.fingerprints.put(mask, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Remove cached values of the class (the class is being redefined).
+     *
+     * @param clazz the class
+     */
+    public static void invalidate(Class<?> clazz) {
+        cache.remove(clazz);
+    }
+
+    // cache is enabled (JVM redefinition counter accessible)
+    static boolean isEnabled() {
+        return REDEFINED_COUNT != null;
+    }
+
+    private static String computeJavaClassSignature(Class<?> clazz, ClassSignatureElement[] signatureElements) throws Exception {
+        JavaClassSignature signature = new JavaClassSignature(clazz);
+        signature.addSignatureElements(signatureElements);
+        return signature.getValue();
+    }
+
+    // current entry of the class, null if caching is not possible
+    private static Entry getEntry(Class<?> clazz) {
+        if (REDEFINED_COUNT == null) {
+            return null;
+        }
+        int generation;
+        try {
+            generation = REDEFINED_COUNT.getInt(clazz);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+        EntryHolder holder = cache.get(clazz);
+        Entry entry = holder.entry;
+        if (entry == null || entry.generation != generation) {
+            entry = new Entry(generation);
+            holder.entry = entry;
+        }
+        return entry;
+    }
+
+    private static Field getRedefinedCountField() {
+        try {
+            Field field = Class.class.getDeclaredField("classRedefinedCount");
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            LOGGER.debug("Class redefinition counter not accessible, class signatures are not cached: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -18,6 +18,10 @@
  */
 package org.hotswap.agent.util.signature;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.NotFoundException;
@@ -39,10 +43,51 @@ public class ClassSignatureComparerHelper {
         return signature.getValue();
     }
 
+    /**
+     * Signature of the current class definition, cached until the class is redefined (see {@link ClassSignatureCache}).
+     */
     public static String getJavaClassSignature(Class<?> clazz, ClassSignatureElement[] signatureElements) throws Exception  {
-        JavaClassSignature signature = new JavaClassSignature(clazz);
-        signature.addSignatureElements(signatureElements);
-        return signature.getValue();
+        return ClassSignatureCache.getJavaClassSignature(clazz, signatureElements);
+    }
+
+    /**
+     * Fingerprint of the current class definition, cached until the class is redefined.
+     *
+     * @param clazz the class
+     * @param signatureElements elements of the class shape
+     * @return the fingerprint
+     */
+    public static ClassFingerprint getClassFingerprint(Class<?> clazz, ClassSignatureElement[] signatureElements) {
+        return ClassSignatureCache.getClassFingerprint(clazz, signatureElements);
+    }
+
+    /**
+     * Fingerprint of a class file (e.g. new definition of a class).
+     *
+     * @param classFile class file bytes
+     * @param classLoader classloader of the class (to resolve annotation types)
+     * @param signatureElements elements of the class shape
+     * @return the fingerprint
+     */
+    public static ClassFingerprint getClassFingerprint(byte[] classFile, ClassLoader classLoader,
+                                                       ClassSignatureElement[] signatureElements) {
+        return ClassFingerprint.of(classFile, classLoader, signatureElements);
+    }
+
+    /**
+     * Fingerprint of the CtClass, it is not frozen by this call.
+     *
+     * @param ctClass the class
+     * @param classLoader classloader of the class (to resolve annotation types)
+     * @param signatureElements elements of the class shape
+     * @return the fingerprint
+     * @throws IOException unable to write the class file
+     */
+    public static ClassFingerprint getClassFingerprint(CtClass ctClass, ClassLoader classLoader,
+                                                       ClassSignatureElement[] signatureElements) throws IOException {
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream(4096);
+        ctClass.getClassFile2().write(new DataOutputStream(classFile));
+        return ClassFingerprint.of(classFile.toByteArray(), classLoader, signatureElements);
     }
 
     /**
@@ -52,9 +97,25 @@ public class ClassSignatureComparerHelper {
      */
     public static boolean isDifferent(CtClass ctClass, Class<?> clazz, ClassSignatureElement[] signatureElements) {
         try {
-            String sig1 = getCtClassSignature(ctClass, signatureElements);
-            String sig2 = getJavaClassSignature(clazz, signatureElements);
-            return !sig1.equals(sig2);
+            ClassFingerprint fingerprint1 = getClassFingerprint(ctClass, clazz.getClassLoader(), signatureElements);
+            ClassFingerprint fingerprint2 = getClassFingerprint(clazz, signatureElements);
+            return !fingerprint1.equals(fingerprint2);
+        } catch (Exception e) {
+            LOGGER.error("Error reading signature", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param classFile new class definition
+     * @param clazz old Class definition
+     * @return is signature different
+     */
+    public static boolean isDifferent(byte[] classFile, Class<?> clazz, ClassSignatureElement[] signatureElements) {
+        try {
+            ClassFingerprint fingerprint1 = getClassFingerprint(classFile, clazz.getClassLoader(), signatureElements);
+            ClassFingerprint fingerprint2 = getClassFingerprint(clazz, signatureElements);
+            return !fingerprint1.equals(fingerprint2);
         } catch (Exception e) {
             LOGGER.error("Error reading signature", e);
             return false;
@@ -63,9 +124,9 @@ public class ClassSignatureComparerHelper {
 
     public static boolean isDifferent(Class<?> clazz1, Class<?> clazz2, ClassSignatureElement[] signatureElements) {
         try {
-            String sig1 = getJavaClassSignature(clazz1, signatureElements);
-            String sig2 = getJavaClassSignature(clazz2, signatureElements);
-            return !sig1.equals(sig2);
+            ClassFingerprint fingerprint1 = getClassFingerprint(clazz1, signatureElements);
+            ClassFingerprint fingerprint2 = getClassFingerprint(clazz2, signatureElements);
+            return !fingerprint1.equals(fingerprint2);
         } catch (Exception e) {
             LOGGER.error("Error reading signature", e);
             return false;
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+/**
+ * Streaming 128-bit hash used for class shape fingerprints (MurmurHash3 x64 mixing).
+ * <p/>
+ * Chars are packed four per 64-bit block, any other value is a block of its own. Nested structures
+ * (members, annotations, annotation values) are hashed by a child hasher, the children are created once and
+ * reused by following calls, hence a fingerprint computation allocates only a few hashers.
+ */
+final class FingerprintHasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    // separates strings streamed char by char (a noncharacter, does not occur in names)
+    private static final char STRING_END = '\uffff';
+
+    private long h1;
+    private long h2;
+    private int length;
+
+    // pending chars
+    private long chars;
+    private int charCount;
+
+    private FingerprintHasher child;
+
+    FingerprintHasher() {
+        reset();
+    }
+
+    /**
+     * Start new hash.
+     *
+     * @return this hasher
+     */
+    FingerprintHasher reset() {
+        h1 = 0x9368e53c2f6af274L;
+        h2 = 0x586dcd208f7cd3fdL;
+        length = 0;
+        chars = 0;
+        charCount = 0;
+        return this;
+    }
+
+    /**
+     * Reset and return the hasher for a nested structure. The child is valid until this method is called again.
+     */
+    FingerprintHasher child() {
+        if (child == null) {
+            child = new FingerprintHasher();
+        }
+        return child.reset();
+    }
+
+    void putChar(char c) {
+        chars = (chars << 16) | c;
+        if (++charCount == 4) {
+            mix(chars);
+            chars = 0;
+            charCount = 0;
+        }
+    }
+
+    void putString(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            putChar(s.charAt(i));
+        }
+        endString();
+    }
+
+    /**
+     * Terminate a string streamed by putChar().
+     */
+    void endString() {
+        putChar(STRING_END);
+    }
+
+    void putInt(int value) {
+        putLong(value);
+    }
+
+    void putLong(long value) {
+        flushChars();
+        mix(value);
+    }
+
+    /**
+     * Add 128-bit hash of a nested structure.
+     */
+    void putHash(long high, long low) {
+        putLong(high);
+        putLong(low);
+    }
+
+    /**
+     * Finish the hash, use {@link #high()} and {@link #low()} to get the result. The hasher must be reset
+     * before next use.
+     */
+    FingerprintHasher finish() {
+        flushChars();
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return this;
+    }
+
+    long high() {
+        return h1;
+    }
+
+    long low() {
+        return h2;
+    }
+
+    private void flushChars() {
+        if (charCount > 0) {
+            // distinguish a partial block from a full one
+            mix(chars ^ ((long) charCount << 60));
+            chars = 0;
+            charCount = 0;
+        }
+    }
+
+    private void mix(long k) {
+        long k1 = k * C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        h1 = Long.rotateLeft(h1, 27) + h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        long k2 = k * C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        h2 = Long.rotateLeft(h2, 31) + h1;
+        h2 = h2 * 5 + 0x38495ab5;
+
+        length++;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
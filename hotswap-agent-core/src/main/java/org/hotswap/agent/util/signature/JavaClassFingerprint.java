@@ -0,0 +1,398 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Fingerprint of a loaded class via reflection, see {@link ClassFingerprint}.
+ * <p/>
+ * Annotation values equal to the element default are skipped - reflection does not distinguish an explicit
+ * default value from a missing value, the class file does. Annotation elements and their default values
+ * are resolved once per annotation type.
+ */
+class JavaClassFingerprint {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(JavaClassFingerprint.class);
+
+    /**
+     * Elements of an annotation type with hash of the default values.
+     */
+    static class AnnotationElements {
+        final Method[] elements;
+        // element name -> {high, low} hash of default value
+        final Map<String, long[]> defaults;
+
+        AnnotationElements(Method[] elements, Map<String, long[]> defaults) {
+            this.elements = elements;
+            this.defaults = defaults;
+        }
+
+        boolean isDefault(String name, FingerprintHasher valueHash) {
+            long[] defaultHash = defaults.get(name);
+            return defaultHash != null && defaultHash[0] == valueHash.high() && defaultHash[1] == valueHash.low();
+        }
+    }
+
+    private static final ClassValue<AnnotationElements> ANNOTATION_ELEMENTS = new ClassValue<AnnotationElements>() {
+        @Override
+        protected AnnotationElements computeValue(Class<?> annotationType) {
+            List<Method> elements = new ArrayList<>();
+            Map<String, long[]> defaults = new HashMap<>();
+            FingerprintHasher hasher = new FingerprintHasher();
+            for (Method method : annotationType.getDeclaredMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length > 0) {
+                    continue;
+                }
+                try {
+                    method.setAccessible(true);
+                } catch (RuntimeException e) {
+                    LOGGER.trace("Unable to access annotation element {}", e, method);
+                }
+                elements.add(method);
+                Object defaultValue = method.getDefaultValue();
+                if (defaultValue != null) {
+                    hashValue(hasher.reset(), method.getReturnType(), defaultValue);
+                    hasher.finish();
+                    defaults.put(method.getName(), new long[] {hasher.high(), hasher.low()});
+                }
+            }
+            return new AnnotationElements(elements.toArray(new Method[elements.size()]), defaults);
+        }
+    };
+
+    /**
+     * Elements and default values of the annotation type.
+     */
+    static AnnotationElements getAnnotationElements(Class<?> annotationType) {
+        return ANNOTATION_ELEMENTS.get(annotationType);
+    }
+
+    static ClassFingerprint compute(Class<?> clazz, int mask) {
+        FingerprintHasher hasher = new FingerprintHasher();
+        long sumHigh = 0;
+        long sumLow = 0;
+
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.SUPER_CLASS)) {
+            Class<?> superclass = clazz.getSuperclass();
+            if (superclass != null && superclass != Object.class) {
+                FingerprintHasher h = hasher.child();
+                h.putChar(ClassFingerprint.SUPER_CLASS);
+                putInternalName(h, superclass);
+                h.finish();
+                sumHigh += h.high();
+                sumLow += h.low();
+            }
+        }
+
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.INTERFACES)) {
+            for (Class<?> iClass : clazz.getInterfaces()) {
+                FingerprintHasher h = hasher.child();
+                h.putChar(ClassFingerprint.INTERFACE);
+                putInternalName(h, iClass);
+                h.finish();
+                sumHigh += h.high();
+                sumLow += h.low();
+            }
+        }
+
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.CLASS_ANNOTATION)) {
+            FingerprintHasher h = hasher.child();
+            h.putChar(ClassFingerprint.CLASS_ANNOTATIONS);
+            putAnnotations(h, clazz.getDeclaredAnnotations());
+            h.finish();
+            sumHigh += h.high();
+            sumLow += h.low();
+        }
+
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.METHOD)) {
+            boolean usePrivate = ClassFingerprint.hasElement(mask, ClassSignatureElement.METHOD_PRIVATE);
+            boolean useStatic = ClassFingerprint.hasElement(mask, ClassSignatureElement.METHOD_STATIC);
+            for (Method method : clazz.getDeclaredMethods()) {
+                int modifiers = method.getModifiers();
+                if ((!usePrivate && Modifier.isPrivate(modifiers)) || (!useStatic && Modifier.isStatic(modifiers))
+                        || method.getName().startsWith(ClassFingerprint.SWITCH_TABLE_PREFIX)) {
+                    continue;
+                }
+                FingerprintHasher h = hasher.child();
+                h.putChar(ClassFingerprint.METHOD);
+                putMethod(h, mask, modifiers, method.getName(), method.getParameterTypes(), method.getReturnType(),
+                        method, method.getExceptionTypes());
+                h.finish();
+                sumHigh += h.high();
+                sumLow += h.low();
+            }
+        }
+
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.CONSTRUCTOR)) {
+            boolean usePrivate = ClassFingerprint.hasElement(mask, ClassSignatureElement.CONSTRUCTOR_PRIVATE);
+            for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+                int modifiers = constructor.getModifiers();
+                if (!usePrivate && Modifier.isPrivate(modifiers)) {
+                    continue;
+                }
+                FingerprintHasher h = hasher.child();
+                h.putChar(ClassFingerprint.CONSTRUCTOR);
+                putMethod(h, mask, modifiers, "<init>", constructor.getParameterTypes(), void.class,
+                        constructor, constructor.getExceptionTypes());
+                h.finish();
+                sumHigh += h.high();
+                sumLow += h.low();
+            }
+        }
+
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.FIELD)) {
+            boolean useStatic = ClassFingerprint.hasElement(mask, ClassSignatureElement.FIELD_STATIC);
+            boolean useAnnotation = ClassFingerprint.hasElement(mask, ClassSignatureElement.FIELD_ANNOTATION);
+            for (Field field : clazz.getDeclaredFields()) {
+                if ((!useStatic && Modifier.isStatic(field.getModifiers()))
+                        || field.getName().startsWith(ClassFingerprint.SWITCH_TABLE_PREFIX)) {
+                    continue;
+                }
+                FingerprintHasher h = hasher.child();
+                h.putChar(ClassFingerprint.FIELD);
+                h.putString(field.getName());
+                putDescriptor(h, field.getType());
+                h.endString();
+                if (useAnnotation) {
+                    h.putChar(ClassFingerprint.ANNOTATIONS);
+                    putAnnotations(h, field.getDeclaredAnnotations());
+                }
+                h.finish();
+                sumHigh += h.high();
+                sumLow += h.low();
+            }
+        }
+
+        hasher.putHash(sumHigh, sumLow);
+        hasher.finish();
+        return new ClassFingerprint(hasher.high(), hasher.low());
+    }
+
+    private static void putMethod(FingerprintHasher h, int mask, int modifiers, String name, Class<?>[] parameterTypes,
+                                  Class<?> returnType, Executable executable, Class<?>[] exceptionTypes) {
+        h.putInt(modifiers & ClassFingerprint.ACCESS_MASK);
+        h.putString(name);
+        h.putChar('(');
+        for (Class<?> parameterType : parameterTypes) {
+            putDescriptor(h, parameterType);
+        }
+        h.putChar(')');
+        putDescriptor(h, returnType);
+        h.endString();
+
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.METHOD_ANNOTATION)) {
+            h.putChar(ClassFingerprint.ANNOTATIONS);
+            putAnnotations(h, executable.getDeclaredAnnotations());
+        }
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.METHOD_PARAM_ANNOTATION)) {
+            h.putChar(ClassFingerprint.PARAMETER_ANNOTATIONS);
+            putParameterAnnotations(h, executable.getParameterAnnotations());
+        }
+        if (ClassFingerprint.hasElement(mask, ClassSignatureElement.METHOD_EXCEPTION)) {
+            h.putChar(ClassFingerprint.EXCEPTIONS);
+            long sumHigh = 0;
+            long sumLow = 0;
+            for (Class<?> exceptionType : exceptionTypes) {
+                FingerprintHasher eh = h.child();
+                putInternalName(eh, exceptionType);
+                eh.finish();
+                sumHigh += eh.high();
+                sumLow += eh.low();
+            }
+            h.putHash(sumHigh, sumLow);
+        }
+    }
+
+    /*
+     * Parameters are indexed from the last one - reflection adds empty annotations for synthetic leading
+     * parameters of inner class constructors, the class file does not contain them.
+     */
+    private static void putParameterAnnotations(FingerprintHasher h, Annotation[][] parameterAnnotations) {
+        long sumHigh = 0;
+        long sumLow = 0;
+        for (int i = 0; i < parameterAnnotations.length; i++) {
+            if (parameterAnnotations[i].length == 0) {
+                continue;
+            }
+            FingerprintHasher ph = h.child();
+            ph.putInt(parameterAnnotations.length - 1 - i);
+            putAnnotations(ph, parameterAnnotations[i]);
+            ph.finish();
+            sumHigh += ph.high();
+            sumLow += ph.low();
+        }
+        h.putHash(sumHigh, sumLow);
+    }
+
+    private static void putAnnotations(FingerprintHasher h, Annotation[] annotations) {
+        long sumHigh = 0;
+        long sumLow = 0;
+        for (Annotation annotation : annotations) {
+            FingerprintHasher ah = h.child();
+            putAnnotation(ah, annotation);
+            ah.finish();
+            sumHigh += ah.high();
+            sumLow += ah.low();
+        }
+        h.putHash(sumHigh, sumLow);
+    }
+
+    private static void putAnnotation(FingerprintHasher h, Annotation annotation) {
+        Class<? extends Annotation> annotationType = annotation.annotationType();
+        AnnotationElements annotationElements = getAnnotationElements(annotationType);
+
+        h.putChar('@');
+        putDescriptor(h, annotationType);
+        h.endString();
+
+        long sumHigh = 0;
+        long sumLow = 0;
+        for (Method element : annotationElements.elements) {
+            Object value;
+            try {
+                value = element.invoke(annotation);
+            } catch (Exception e) {
+                LOGGER.trace("Unable to get annotation value {}", e, element);
+                continue;
+            }
+            FingerprintHasher vh = h.child();
+            hashValue(vh, element.getReturnType(), value);
+            vh.finish();
+            if (annotationElements.isDefault(element.getName(), vh)) {
+                continue;
+            }
+            long valueHigh = vh.high();
+            long valueLow = vh.low();
+            FingerprintHasher eh = h.child();
+            eh.putString(element.getName());
+            eh.putHash(valueHigh, valueLow);
+            eh.finish();
+            sumHigh += eh.high();
+            sumLow += eh.low();
+        }
+        h.putHash(sumHigh, sumLow);
+    }
+
+    /**
+     * Hash annotation element value, the same way as the element_value structure of the class file.
+     */
+    static void hashValue(FingerprintHasher h, Class<?> type, Object value) {
+        if (type.isArray()) {
+            h.putChar('[');
+            int length = Array.getLength(value);
+            h.putInt(length);
+            for (int i = 0; i < length; i++) {
+                hashValue(h, type.getComponentType(), Array.get(value, i));
+            }
+        } else if (type == boolean.class) {
+            h.putChar('Z');
+            h.putInt(((Boolean) value) ? 1 : 0);
+        } else if (type == byte.class) {
+            h.putChar('B');
+            h.putInt((Byte) value);
+        } else if (type == char.class) {
+            h.putChar('C');
+            h.putInt((Character) value);
+        } else if (type == short.class) {
+            h.putChar('S');
+            h.putInt((Short) value);
+        } else if (type == int.class) {
+            h.putChar('I');
+            h.putInt((Integer) value);
+        } else if (type == long.class) {
+            h.putChar('J');
+            h.putLong((Long) value);
+        } else if (type == float.class) {
+            h.putChar('F');
+            h.putInt(Float.floatToRawIntBits((Float) value));
+        } else if (type == double.class) {
+            h.putChar('D');
+            h.putLong(Double.doubleToRawLongBits((Double) value));
+        } else if (type == String.class) {
+            h.putChar('s');
+            h.putString((String) value);
+        } else if (type == Class.class) {
+            h.putChar('c');
+            putDescriptor(h, (Class<?>) value);
+            h.endString();
+        } else if (type.isEnum()) {
+            h.putChar('e');
+            putDescriptor(h, type);
+            h.endString();
+            h.putString(((Enum<?>) value).name());
+        } else if (type.isAnnotation()) {
+            FingerprintHasher ah = h.child();
+            putAnnotation(ah, (Annotation) value);
+            ah.finish();
+            h.putHash(ah.high(), ah.low());
+        }
+    }
+
+    /**
+     * Stream type descriptor of the class (e.g. I, Ljava/lang/String;, [I)
+     */
+    static void putDescriptor(FingerprintHasher h, Class<?> type) {
+        if (type.isPrimitive()) {
+            h.putChar(primitiveDescriptor(type));
+        } else if (type.isArray()) {
+            // array name is a descriptor with dots
+            putInternalName(h, type.getName());
+        } else {
+            h.putChar('L');
+            putInternalName(h, type.getName());
+            h.putChar(';');
+        }
+    }
+
+    private static void putInternalName(FingerprintHasher h, Class<?> type) {
+        putInternalName(h, type.getName());
+        h.endString();
+    }
+
+    private static void putInternalName(FingerprintHasher h, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            h.putChar(c == '.' ? '/' : c);
+        }
+    }
+
+    private static char primitiveDescriptor(Class<?> type) {
+        if (type == int.class) return 'I';
+        if (type == void.class) return 'V';
+        if (type == boolean.class) return 'Z';
+        if (type == long.class) return 'J';
+        if (type == byte.class) return 'B';
+        if (type == char.class) return 'C';
+        if (type == short.class) return 'S';
+        if (type == float.class) return 'F';
+        return 'D';
+    }
+}
@@ -22,10 +22,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.jar.Manifest;
 
 import org.hotswap.agent.logging.AgentLogger;
@@ -45,6 +48,25 @@ public class DeploymentInfo {
     /** The logger. */
     private static AgentLogger LOGGER = AgentLogger.getLogger(DeploymentInfo.class);
     
+    /** Deployment info per classloader, see fromClassLoaderCached(). */
+    private static final Map<ClassLoader, CachedDeploymentInfo> CACHE =
+            Collections.synchronizedMap(new WeakHashMap<ClassLoader, CachedDeploymentInfo>());
+
+    /**
+     * Lazily resolved deployment info, resolution is serialized per classloader.
+     * Must not hold reference to the classloader (weak key of the cache).
+     */
+    private static class CachedDeploymentInfo {
+        private DeploymentInfo deploymentInfo;
+
+        synchronized DeploymentInfo get(ClassLoader classloader) {
+            if (deploymentInfo == null) {
+                deploymentInfo = fromClassLoader(classloader);
+            }
+            return deploymentInfo;
+        }
+    }
+
     /** The set of maven coordinates this deployment depends on. */
     private Set<MavenInfo> maven = new LinkedHashSet<>();
 
@@ -206,6 +228,39 @@ public class DeploymentInfo {
         }
     }
 
+    /**
+     * Cached variant of fromClassLoader(). Scanning of maven and manifest resources is expensive, the result
+     * is cached for the classloader lifetime (or until invalidate() is called).
+     *
+     * @param classloader
+     *            the ClassLoader
+     * @return the deployment info
+     */
+    public static DeploymentInfo fromClassLoaderCached(ClassLoader classloader) {
+        if (classloader == null) {
+            return fromClassLoader(classloader);
+        }
+        CachedDeploymentInfo cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(classloader);
+            if (cached == null) {
+                cached = new CachedDeploymentInfo();
+                CACHE.put(classloader, cached);
+            }
+        }
+        return cached.get(classloader);
+    }
+
+    /**
+     * Remove cached deployment info of the classloader (e.g. on classloader close).
+     *
+     * @param classloader
+     *            the ClassLoader
+     */
+    public static void invalidate(ClassLoader classloader) {
+        CACHE.remove(classloader);
+    }
+
     /**
      * Gets the maven info.
      *
@@ -18,6 +18,9 @@
  */
 package org.hotswap.agent.watch;
 
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.watch.nio.ParallelWatcherNIO2;
+import org.hotswap.agent.watch.nio.PollingWatcher;
 import org.hotswap.agent.watch.nio.TreeWatcherNIO;
 import org.hotswap.agent.watch.nio.WatcherNIO2;
 
@@ -29,6 +32,7 @@ import java.io.IOException;
  * @author Jiri Bubnik
  */
 public class WatcherFactory {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(WatcherFactory.class);
 
     public static double JAVA_VERSION = getVersion();
 
@@ -55,6 +59,32 @@ public class WatcherFactory {
         return System.getProperty("os.name").startsWith("Windows");
     }
 
+    /**
+     * Create watcher of the configured backend.
+     *
+     * @param backend <code>nio2</code> (directory per watch key), <code>tree</code> (file tree watch keys, Windows),
+     *                <code>parallel</code> (parallel registration for large trees), <code>polling</code> (file systems
+     *                without change notification) or null for default by platform
+     * @return the watcher
+     * @throws IOException unable to create the watch service
+     */
+    public Watcher getWatcher(String backend) throws IOException {
+        if (backend != null && !backend.trim().isEmpty()) {
+            backend = backend.trim();
+            if ("nio2".equalsIgnoreCase(backend)) {
+                return new WatcherNIO2();
+            } else if ("tree".equalsIgnoreCase(backend)) {
+                return new TreeWatcherNIO();
+            } else if ("parallel".equalsIgnoreCase(backend)) {
+                return new ParallelWatcherNIO2();
+            } else if ("polling".equalsIgnoreCase(backend)) {
+                return new PollingWatcher();
+            }
+            LOGGER.warning("Unknown watcher backend '{}', using default.", backend);
+        }
+        return getWatcher();
+    }
+
     public Watcher getWatcher() throws IOException {
         if (JAVA_VERSION >= 1.7) {
             if (IS_WINDOWS) {
@@ -31,13 +31,19 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -66,7 +72,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
 
     protected final static WatchEvent.Kind<?>[] KINDS = new WatchEvent.Kind<?>[] { ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY };
 
-    protected WatchService watcher;
+    protected volatile WatchService watcher;
     protected final Map<WatchKey, Path> keys;
     private final Map<Path, List<WatchEventListener>> listeners = new ConcurrentHashMap<>();
 
@@ -79,6 +85,14 @@ public abstract class AbstractNIO2Watcher implements Watcher {
 
     protected final EventDispatcher dispatcher;
 
+    // last time events of a key were processed - files modified since are rescanned on overflow
+    private final Map<WatchKey, Long> keyProcessedTimes = new ConcurrentHashMap<>();
+
+    private final long startTime = System.currentTimeMillis();
+
+    // file system timestamp granularity (up to 2s on FAT)
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+
     public AbstractNIO2Watcher() throws IOException {
         this.watcher = FileSystems.getDefault().newWatchService();
         this.keys = new ConcurrentHashMap<>();
@@ -118,12 +132,13 @@ public abstract class AbstractNIO2Watcher implements Watcher {
             return;
         }
 
-        List<WatchEventListener> list = listeners.get(Paths.get(pathPrefix));
-        if (list == null) {
-            list = new ArrayList<WatchEventListener>();
-            listeners.put(Paths.get(pathPrefix), list);
-        }
+        // listener lists are immutable (copy on write), the dispatcher uses them concurrently
+        Path listenerPath = Paths.get(pathPrefix);
+        List<WatchEventListener> list = listeners.get(listenerPath);
+        list = list == null ? new ArrayList<WatchEventListener>(1) : new ArrayList<>(list);
         list.add(listener);
+        listeners.put(listenerPath, Collections.unmodifiableList(list));
+        dispatcher.refreshListeners();
 
         if (classLoader != null) {
             classLoaderListeners.put(listener, classLoader);
@@ -149,7 +164,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
      * @param classLoader
      */
     @Override
-    public void closeClassLoader(ClassLoader classLoader) {
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
         for (Iterator<Entry<WatchEventListener, ClassLoader>> entryIterator = classLoaderListeners.entrySet().iterator(); entryIterator.hasNext();) {
             Entry<WatchEventListener, ClassLoader> entry = entryIterator.next();
             if (entry.getValue().equals(classLoader)) {
@@ -159,8 +174,10 @@ public abstract class AbstractNIO2Watcher implements Watcher {
                         Entry<Path, List<WatchEventListener>> pathListenerEntry = listenersIterator.next();
                         List<WatchEventListener> l = pathListenerEntry.getValue();
 
-                        if (l != null) {
+                        if (l != null && l.contains(entry.getKey())) {
+                            l = new ArrayList<>(l);
                             l.remove(entry.getKey());
+                            pathListenerEntry.setValue(Collections.unmodifiableList(l));
                         }
 
                         if (l == null || l.isEmpty()) {
@@ -196,6 +213,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
                 LOGGER.error("Ooops", e);
             }
         }
+        dispatcher.refreshListeners();
         LOGGER.debug("All watch listeners removed for classLoader {}", classLoader);
     }
 
@@ -217,7 +235,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
     private boolean processEvents() throws InterruptedException {
 
         // wait for key to be signaled
-        WatchKey key = watcher.poll(10, TimeUnit.MILLISECONDS);
+        WatchKey key = nextKey();
         if (key == null) {
             return true;
         }
@@ -229,11 +247,14 @@ public abstract class AbstractNIO2Watcher implements Watcher {
             return true;
         }
 
+        Long processedTime = keyProcessedTimes.put(key, System.currentTimeMillis());
+
         for (WatchEvent<?> event : key.pollEvents()) {
             WatchEvent.Kind<?> kind = event.kind();
 
             if (kind == OVERFLOW) {
-                LOGGER.warning("WatchKey '{}' overflowed", key);
+                LOGGER.warning("WatchKey '{}' overflowed, rescanning {}", key, dir);
+                rescan(dir, (processedTime != null ? processedTime : startTime) - TIMESTAMP_GRANULARITY);
                 continue;
             }
 
@@ -264,6 +285,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
         if (!valid) {
             LOGGER.warning("Watcher on {} not valid, removing path=", keys.get(key));
             keys.remove(key);
+            keyProcessedTimes.remove(key);
             // all directories are inaccessible
             if (keys.isEmpty()) {
                 return false;
@@ -278,6 +300,66 @@ public abstract class AbstractNIO2Watcher implements Watcher {
         return true;
     }
 
+    /**
+     * Events of a directory were lost (OVERFLOW). Dispatch MODIFY event for each file modified since the key
+     * was last processed and register new subdirectories. Deleted files cannot be detected this way.
+     *
+     * @param dir   the overflowed directory
+     * @param since lower bound of modification time of changed files
+     */
+    protected void rescan(final Path dir, final long since) {
+        final boolean recursive = isFileTreeWatched();
+        try {
+            Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                    if (recursive || subDir.equals(dir)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    // subdirectory has its own watch key, unless it was just created
+                    if (attrs.lastModifiedTime().toMillis() < since) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    registerAll(subDir);
+                    dispatcher.add(new SyntheticWatchEvent(ENTRY_CREATE, subDir.getFileName()), subDir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile() && attrs.lastModifiedTime().toMillis() >= since) {
+                        dispatcher.add(new SyntheticWatchEvent(ENTRY_MODIFY, file.getFileName()), file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warning("Unable to rescan directory {}", e, dir);
+        }
+    }
+
+    /**
+     * Check if a watch key covers the whole directory tree (otherwise each directory is registered separately).
+     */
+    protected boolean isFileTreeWatched() {
+        return false;
+    }
+
+    /**
+     * Wait for next signaled key.
+     *
+     * @return the key or null if none signaled within the timeout
+     * @throws InterruptedException
+     */
+    protected WatchKey nextKey() throws InterruptedException {
+        return watcher.poll(10, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void run() {
 
@@ -325,4 +407,4 @@ public abstract class AbstractNIO2Watcher implements Watcher {
             return null;
         }
     }
-}
\ No newline at end of file
+}
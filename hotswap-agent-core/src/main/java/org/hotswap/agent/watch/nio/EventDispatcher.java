@@ -18,32 +18,50 @@
  */
 package org.hotswap.agent.watch.nio;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
 
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.watch.WatchEventListener;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 /**
- * The EventDispatcher holds a queue of all events collected by the watcher but
+ * The EventDispatcher holds all events collected by the watcher but
  * not yet processed. It runs on its own thread and is responsible for calling
  * all the registered listeners.
  *
  * Since file system events can spawn too fast, this implementation works as
  * buffer for fast spawning events. The watcher is now responsible for
- * collecting and pushing events in this queue.
+ * collecting and pushing events in this buffer.
+ *
+ * Pending events are coalesced per path (e.g. CREATE, MODIFY, MODIFY is dispatched as single CREATE),
+ * hence the buffer is bounded by the number of changed paths and no event is dropped. Events of a path
+ * are dispatched after the path was quiet for {@link #DEBOUNCE_MILLIS}, but not later than {@link #MAX_WAIT_MILLIS}
+ * after its first pending event (a file written continuously, e.g. a log, is never quiet).
  *
+ * Listeners are resolved via immutable trie of path components (rebuilt on registration change), the lookup
+ * cost depends only on the depth of the path, not on the number of registered paths.
  */
 public class EventDispatcher implements Runnable {
 
     /** The logger. */
     protected AgentLogger LOGGER = AgentLogger.getLogger(this.getClass());
 
+    /** Dispatch events of a path after no other event on the path arrived for this time. */
+    static final long DEBOUNCE_MILLIS = 20;
+
+    /** Dispatch events of a path at latest after this time from its first pending event. */
+    static final long MAX_WAIT_MILLIS = 1000;
+
     /**
      * The Class Event.
      */
@@ -70,11 +88,82 @@ public class EventDispatcher implements Runnable {
         }
     }
 
+    /**
+     * Coalesced pending events of a single path.
+     */
+    static class PathEvents {
+
+        /** Distinct subsequent events of the path (usually just one). */
+        final List<Event> events = new ArrayList<>(1);
+
+        /** Time of the first pending event. */
+        long firstEvent;
+
+        /** Time of the last event. */
+        long lastEvent;
+
+        /**
+         * Time when the events are ready for dispatch.
+         *
+         * @return the time in millis
+         */
+        long readyAt() {
+            return Math.min(lastEvent + DEBOUNCE_MILLIS, firstEvent + MAX_WAIT_MILLIS);
+        }
+
+        /**
+         * Merge the event, repeated event kind or MODIFY after CREATE carry no new information.
+         *
+         * @param event
+         *            the event
+         */
+        void add(Event event) {
+            if (!events.isEmpty()) {
+                WatchEvent.Kind<?> last = events.get(events.size() - 1).event.kind();
+                if (last == event.event.kind() || (last == ENTRY_CREATE && event.event.kind() == ENTRY_MODIFY)) {
+                    return;
+                }
+            }
+            events.add(event);
+        }
+    }
+
+    /**
+     * Node of the listener trie, child nodes are keyed by single path component.
+     */
+    static class PathNode {
+
+        /** The children. */
+        final Map<Path, PathNode> children = new HashMap<>();
+
+        /** Listeners registered exactly on the path of this node. */
+        WatchEventListener[] listeners;
+
+        /**
+         * Get or create a child node.
+         *
+         * @param name
+         *            the path component
+         * @return the child
+         */
+        PathNode child(Path name) {
+            PathNode node = children.get(name);
+            if (node == null) {
+                node = new PathNode();
+                children.put(name, node);
+            }
+            return node;
+        }
+    }
+
     /** The map of listeners.  This is managed by the watcher service*/
     private final Map<Path, List<WatchEventListener>> listeners;
 
-    /** The working queue. The event queue is drained and all pending events are added in this list */
-    private final ArrayList<Event> working = new ArrayList<>();
+    /** Immutable listener trie built from listeners map. */
+    private volatile PathNode listenerRoot;
+
+    /** Pending events by path, ordered by the time of last event. Guarded by itself. */
+    private final LinkedHashMap<Path, PathEvents> pending = new LinkedHashMap<>();
 
     /** The runnable. */
     private Thread runnable = null;
@@ -88,10 +177,28 @@ public class EventDispatcher implements Runnable {
     public EventDispatcher(Map<Path, List<WatchEventListener>> listeners) {
         super();
         this.listeners = listeners;
+        refreshListeners();
     }
 
-    /** The event queue. */
-    private final ArrayBlockingQueue<Event> eventQueue = new ArrayBlockingQueue<>(500);
+    /**
+     * Rebuild the listener trie. Must be called by the watcher after the listeners map is changed.
+     */
+    public void refreshListeners() {
+        PathNode root = new PathNode();
+        for (Map.Entry<Path, List<WatchEventListener>> entry : listeners.entrySet()) {
+            List<WatchEventListener> list = entry.getValue();
+            if (list == null || list.isEmpty()) {
+                continue;
+            }
+            Path path = entry.getKey();
+            PathNode node = path.getRoot() != null ? root.child(path.getRoot()) : root;
+            for (Path name : path) {
+                node = node.child(name);
+            }
+            node.listeners = list.toArray(new WatchEventListener[list.size()]);
+        }
+        listenerRoot = root;
+    }
 
     /*
      * (non-Javadoc)
@@ -100,43 +207,58 @@ public class EventDispatcher implements Runnable {
      */
     @Override
     public void run() {
-
-        /*
-         * The algorithm is naive:
-         * a) work with not processed (in case);
-         * b) drain the queue
-         * c) work on newly collected
-         * d) empty working queue
-         */
+        List<PathEvents> working = new ArrayList<>();
         while (true) {
-            // finish any pending ones
-            for (Event e : working) {
-                callListeners(e.event, e.path);
-                if (Thread.interrupted()) {
-                    return;
-                }
-                Thread.yield();
+            try {
+                takeReady(working);
+            } catch (InterruptedException e) {
+                return;
             }
-            // drain the event queue
-            eventQueue.drainTo(working);
 
-            // work on new events.
-            for (Event e : working) {
-                callListeners(e.event, e.path);
+            for (PathEvents pathEvents : working) {
+                for (Event e : pathEvents.events) {
+                    callListeners(e.event, e.path);
+                }
                 if (Thread.interrupted()) {
                     return;
                 }
-                Thread.yield();
             }
-
-            // crear the working queue.
             working.clear();
+        }
+    }
 
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e1) {
-                // TODO Auto-generated catch block
-                return;
+    /**
+     * Wait for events which passed the debounce period (or the max wait) and move them to the working list.
+     *
+     * @param working
+     *            the working list
+     * @throws InterruptedException
+     *             the dispatcher is stopped
+     */
+    private void takeReady(List<PathEvents> working) throws InterruptedException {
+        synchronized (pending) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long wait = Long.MAX_VALUE;
+                // the map is ordered by last event, but a path may be ready earlier due to max wait - check all
+                for (Iterator<PathEvents> it = pending.values().iterator(); it.hasNext();) {
+                    PathEvents pathEvents = it.next();
+                    long pathWait = pathEvents.readyAt() - now;
+                    if (pathWait > 0) {
+                        wait = Math.min(wait, pathWait);
+                    } else {
+                        working.add(pathEvents);
+                        it.remove();
+                    }
+                }
+                if (!working.isEmpty()) {
+                    return;
+                }
+                if (pending.isEmpty()) {
+                    pending.wait();
+                } else {
+                    pending.wait(wait);
+                }
             }
         }
     }
@@ -150,12 +272,26 @@ public class EventDispatcher implements Runnable {
      *            the path
      */
     public void add(WatchEvent<Path> event, Path path) {
-        eventQueue.offer(new Event(event, path));
+        synchronized (pending) {
+            // re-insert to keep the map ordered by last event
+            PathEvents pathEvents = pending.remove(path);
+            long now = System.currentTimeMillis();
+            if (pathEvents == null) {
+                pathEvents = new PathEvents();
+                pathEvents.firstEvent = now;
+            }
+            pathEvents.add(new Event(event, path));
+            pathEvents.lastEvent = now;
+            pending.put(path, pathEvents);
+            if (pending.size() == 1) {
+                pending.notify();
+            }
+        }
     }
 
     /**
      * Call the listeners.
-     * Listeners are organized per path in a Map. The number of paths is low so a simple iteration should be fast enough.
+     * Listeners registered on the path or any of its parents are collected while walking the trie.
      *
      * @param event
      *            the event
@@ -164,12 +300,20 @@ public class EventDispatcher implements Runnable {
      */
     // notify listeners about new event
     private void callListeners(final WatchEvent<?> event, final Path path) {
-        boolean matchedOne = false;
-        for (Map.Entry<Path, List<WatchEventListener>> list : listeners.entrySet()) {
-            if (path.startsWith(list.getKey())) {
-                matchedOne = true;
-                for (WatchEventListener listener : new ArrayList<>(list.getValue())) {
-                    WatchFileEvent agentEvent = new HotswapWatchFileEvent(event, path);
+        PathNode node = listenerRoot;
+        if (path.getRoot() != null) {
+            node = node.children.get(path.getRoot());
+        }
+
+        // single event instance shared by all listeners
+        WatchFileEvent agentEvent = null;
+        int nameCount = path.getNameCount();
+        for (int i = 0; node != null; i++) {
+            if (node.listeners != null) {
+                if (agentEvent == null) {
+                    agentEvent = new HotswapWatchFileEvent(event, path);
+                }
+                for (WatchEventListener listener : node.listeners) {
                     try {
                         listener.onEvent(agentEvent);
                     } catch (Throwable e) {
@@ -178,8 +322,12 @@ public class EventDispatcher implements Runnable {
                     }
                 }
             }
+            if (i == nameCount) {
+                break;
+            }
+            node = node.children.get(path.getName(i));
         }
-        if (!matchedOne) {
+        if (agentEvent == null) {
             LOGGER.error("No match for  watch event '{}',  path '{}'", event, path);
         }
     }
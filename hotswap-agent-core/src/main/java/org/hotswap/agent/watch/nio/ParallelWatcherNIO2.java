@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * NIO2 watcher implementation for large directory trees.
+ * <p/>
+ * Like WatcherNIO2 each directory is registered separately, but
+ * <ul>
+ * <li>subdirectories are listed and registered in parallel (fork/join),</li>
+ * <li>already registered directories (overlapping roots registered by several plugins, symlink loops) are skipped
+ * with their whole subtree - directories are identified by their real path,</li>
+ * <li>the watcher thread blocks on WatchService.take() instead of polling.</li>
+ * </ul>
+ */
+public class ParallelWatcherNIO2 extends AbstractNIO2Watcher {
+    private final static WatchEvent.Modifier HIGH;
+
+    static {
+        HIGH =  getWatchEventModifier("com.sun.nio.file.SensitivityWatchEventModifier","HIGH");
+    }
+
+    // real path of registered directory -> its key
+    private final Map<Path, WatchKey> registeredDirs = new ConcurrentHashMap<>();
+
+    private ForkJoinPool registrationPool;
+
+    public ParallelWatcherNIO2() throws IOException {
+        super();
+    }
+
+    @Override
+    protected void registerAll(final Path dir) throws IOException {
+        if (isRegistered(dir)) {
+            LOGGER.debug("Directory {} already registered", dir);
+            return;
+        }
+        LOGGER.debug("Registering directory  {}", dir);
+        getRegistrationPool().invoke(new RegisterTask(dir));
+    }
+
+    private synchronized ForkJoinPool getRegistrationPool() {
+        if (registrationPool == null) {
+            registrationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return registrationPool;
+    }
+
+    private boolean isRegistered(Path dir) {
+        try {
+            WatchKey key = registeredDirs.get(dir.toRealPath());
+            return key != null && key.isValid();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Register the given directory with the WatchService.
+     *
+     * @return false if already registered
+     */
+    private boolean register(Path dir) throws IOException {
+        Path realPath = dir.toRealPath();
+        WatchKey existing = registeredDirs.get(realPath);
+        if (existing != null && existing.isValid()) {
+            return false;
+        }
+        final WatchKey key = HIGH == null ? dir.register(watcher, KINDS) : dir.register(watcher, KINDS, HIGH);
+        // concurrent registration of the same directory (e.g. overlapping roots)
+        WatchKey previous = registeredDirs.put(realPath, key);
+        keys.put(key, dir);
+        return previous == null || previous == key || !previous.isValid();
+    }
+
+    @Override
+    protected WatchKey nextKey() throws InterruptedException {
+        try {
+            return watcher.take();
+        } catch (ClosedWatchServiceException e) {
+            // watcher stopped or replaced after all classloaders were closed
+            return null;
+        }
+    }
+
+    @Override
+    public void closeClassLoader(ClassLoader classLoader) {
+        super.closeClassLoader(classLoader);
+        if (classLoaderListeners.isEmpty()) {
+            registeredDirs.clear();
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        try {
+            // release the thread blocked in take()
+            watcher.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close watch service.", e);
+        }
+        synchronized (this) {
+            if (registrationPool != null) {
+                registrationPool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Register a directory and fork registration of its subdirectories.
+     */
+    private class RegisterTask extends RecursiveAction {
+        private final Path dir;
+
+        RegisterTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<RegisterTask> subdirs = new ArrayList<>();
+            try {
+                if (!register(dir)) {
+                    return;
+                }
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path child : stream) {
+                        if (Files.isDirectory(child)) {
+                            subdirs.add(new RegisterTask(child));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Unable to register directory {}", e, dir);
+            }
+            invokeAll(subdirs);
+        }
+    }
+}
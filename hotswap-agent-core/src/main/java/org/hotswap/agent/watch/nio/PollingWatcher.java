@@ -0,0 +1,394 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.Watcher;
+
+/**
+ * Polling watcher for file systems which do not produce WatchService events (bind mounts in containers,
+ * overlayfs, 9p, NFS...).
+ * <p/>
+ * A snapshot of each watched directory is kept in compact form - sorted entry names with primitive arrays
+ * of sizes and modification times. Directories are rescanned in parallel and diffed against the snapshot by
+ * a single merge pass. The rescan interval is adaptive per directory - a changed directory is scanned again
+ * after {@link #MIN_INTERVAL}, the interval of unchanged directories grows up to {@link #MAX_INTERVAL}.
+ * <p/>
+ * Changes are reported via EventDispatcher as CREATE / MODIFY / DELETE events, the same as NIO2 watchers.
+ */
+public class PollingWatcher implements Watcher {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(PollingWatcher.class);
+
+    /** Rescan interval of a recently changed directory (ms). */
+    static final long MIN_INTERVAL = 250;
+
+    /** Maximum rescan interval of an unchanged directory (ms). */
+    static final long MAX_INTERVAL = 4000;
+
+    // size of a directory entry
+    private static final long DIRECTORY = -1;
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final long[] NO_VALUES = new long[0];
+
+    private final Map<Path, List<WatchEventListener>> listeners = new ConcurrentHashMap<>();
+
+    // keep track about which classloader requested which event
+    protected Map<WatchEventListener, ClassLoader> classLoaderListeners = new ConcurrentHashMap<>();
+
+    // watched directory -> its snapshot
+    private final Map<Path, DirectorySnapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final EventDispatcher dispatcher = new EventDispatcher(listeners);
+
+    private ForkJoinPool scanPool;
+
+    private Thread runner;
+
+    private volatile boolean stopped;
+
+    /**
+     * Snapshot of a single directory. Modified only by the thread currently scanning the directory.
+     */
+    static class DirectorySnapshot {
+        final Path dir;
+
+        // entry names sorted, sizes (DIRECTORY for subdirectory) and modification times at the same index
+        String[] names = NO_NAMES;
+        long[] sizes = NO_VALUES;
+        long[] modified = NO_VALUES;
+
+        long interval = MIN_INTERVAL;
+        volatile long nextScan;
+
+        DirectorySnapshot(Path dir) {
+            this.dir = dir;
+        }
+    }
+
+    @Override
+    public synchronized void addEventListener(ClassLoader classLoader, URI pathPrefix, WatchEventListener listener) {
+        Path path;
+        try {
+            path = new File(pathPrefix).toPath();
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Unable to watch for path {}, not a local regular file or directory.", pathPrefix);
+            return;
+        }
+
+        if (Files.isDirectory(path)) {
+            addDirectory(path, false);
+        } else {
+            LOGGER.warning("Unable to watch for path {}, not a local regular file or directory.", pathPrefix);
+            return;
+        }
+
+        // listener lists are immutable (copy on write), the dispatcher uses them concurrently
+        Path listenerPath = Paths.get(pathPrefix);
+        List<WatchEventListener> list = listeners.get(listenerPath);
+        list = list == null ? new ArrayList<WatchEventListener>(1) : new ArrayList<>(list);
+        list.add(listener);
+        listeners.put(listenerPath, Collections.unmodifiableList(list));
+        dispatcher.refreshListeners();
+
+        if (classLoader != null) {
+            classLoaderListeners.put(listener, classLoader);
+        }
+    }
+
+    @Override
+    public void addEventListener(ClassLoader classLoader, URL pathPrefix, WatchEventListener listener) {
+        if (pathPrefix == null) {
+            return;
+        }
+
+        try {
+            addEventListener(classLoader, pathPrefix.toURI(), listener);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException("Unable to convert URL to URI " + pathPrefix, e);
+        }
+    }
+
+    @Override
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
+        for (Iterator<Entry<WatchEventListener, ClassLoader>> entryIterator = classLoaderListeners.entrySet().iterator(); entryIterator.hasNext();) {
+            Entry<WatchEventListener, ClassLoader> entry = entryIterator.next();
+            if (entry.getValue().equals(classLoader)) {
+                entryIterator.remove();
+                for (Iterator<Entry<Path, List<WatchEventListener>>> listenersIterator = listeners.entrySet().iterator(); listenersIterator.hasNext();) {
+                    Entry<Path, List<WatchEventListener>> pathListenerEntry = listenersIterator.next();
+                    List<WatchEventListener> l = pathListenerEntry.getValue();
+                    if (l.contains(entry.getKey())) {
+                        l = new ArrayList<>(l);
+                        l.remove(entry.getKey());
+                        pathListenerEntry.setValue(Collections.unmodifiableList(l));
+                    }
+                    if (l.isEmpty()) {
+                        listenersIterator.remove();
+                    }
+                }
+            }
+        }
+        if (classLoaderListeners.isEmpty()) {
+            listeners.clear();
+            snapshots.clear();
+            LOGGER.info("All classloaders closed, released polling watcher snapshots.");
+        }
+        dispatcher.refreshListeners();
+        LOGGER.debug("All watch listeners removed for classLoader {}", classLoader);
+    }
+
+    /**
+     * Create snapshots of a directory tree (unless already watched).
+     *
+     * @param root           the directory
+     * @param reportCreated  dispatch CREATE event for each entry (new directory found by a scan)
+     */
+    private void addDirectory(Path root, boolean reportCreated) {
+        if (snapshots.containsKey(root)) {
+            return;
+        }
+        DirectorySnapshot snapshot = new DirectorySnapshot(root);
+        if (snapshots.put(root, snapshot) != null) {
+            return;
+        }
+        try {
+            scan(snapshot, reportCreated);
+        } catch (IOException e) {
+            LOGGER.debug("Unable to scan directory {}", e, root);
+        }
+    }
+
+    /**
+     * Scan a directory and diff with its snapshot.
+     *
+     * @param snapshot       the snapshot
+     * @param reportCreated  report new entries also if the snapshot is empty (new directory)
+     * @return true if the directory changed
+     */
+    private boolean scan(DirectorySnapshot snapshot, boolean reportCreated) throws IOException {
+        String[] names = list(snapshot.dir);
+        long[] sizes = new long[names.length];
+        long[] modified = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(snapshot.dir.resolve(names[i]), BasicFileAttributes.class);
+                sizes[i] = attrs.isDirectory() ? DIRECTORY : attrs.size();
+                modified[i] = attrs.lastModifiedTime().toMillis();
+            } catch (IOException e) {
+                // deleted meanwhile - treat as unchanged, it will be reported by next scan
+                sizes[i] = DIRECTORY;
+                modified[i] = Long.MIN_VALUE;
+            }
+        }
+
+        boolean initial = snapshot.names == NO_NAMES && !reportCreated;
+        boolean changed = initial ? false : diff(snapshot, names, sizes, modified);
+
+        snapshot.names = names;
+        snapshot.sizes = sizes;
+        snapshot.modified = modified;
+
+        // new subdirectories
+        for (int i = 0; i < names.length; i++) {
+            if (sizes[i] == DIRECTORY && modified[i] != Long.MIN_VALUE) {
+                Path child = snapshot.dir.resolve(names[i]);
+                if (!snapshots.containsKey(child)) {
+                    addDirectory(child, !initial);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /*
+     * Merge pass over sorted old and new entries.
+     */
+    private boolean diff(DirectorySnapshot snapshot, String[] names, long[] sizes, long[] modified) {
+        String[] oldNames = snapshot.names;
+        boolean changed = false;
+        int i = 0;
+        int j = 0;
+        while (i < oldNames.length || j < names.length) {
+            int cmp = i == oldNames.length ? 1 : (j == names.length ? -1 : oldNames[i].compareTo(names[j]));
+            if (cmp < 0) {
+                deleted(snapshot.dir.resolve(oldNames[i]), snapshot.sizes[i] == DIRECTORY);
+                i++;
+            } else if (cmp > 0) {
+                fire(ENTRY_CREATE, snapshot.dir.resolve(names[j]));
+                j++;
+            } else {
+                if (modified[j] == Long.MIN_VALUE) {
+                    // unable to read attributes, keep old state
+                    sizes[j] = snapshot.sizes[i];
+                    modified[j] = snapshot.modified[i];
+                } else if ((snapshot.sizes[i] == DIRECTORY) != (sizes[j] == DIRECTORY)) {
+                    deleted(snapshot.dir.resolve(names[j]), snapshot.sizes[i] == DIRECTORY);
+                    fire(ENTRY_CREATE, snapshot.dir.resolve(names[j]));
+                    changed = true;
+                } else if (sizes[j] != DIRECTORY && (sizes[j] != snapshot.sizes[i] || modified[j] != snapshot.modified[i])) {
+                    fire(ENTRY_MODIFY, snapshot.dir.resolve(names[j]));
+                    changed = true;
+                }
+                i++;
+                j++;
+                continue;
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    private void deleted(Path path, boolean directory) {
+        if (directory) {
+            for (Iterator<Path> it = snapshots.keySet().iterator(); it.hasNext();) {
+                if (it.next().startsWith(path)) {
+                    it.remove();
+                }
+            }
+        }
+        fire(ENTRY_DELETE, path);
+    }
+
+    private void fire(WatchEvent.Kind<Path> kind, Path path) {
+        LOGGER.debug("Watch event '{}' on '{}'", kind.name(), path);
+        dispatcher.add(new SyntheticWatchEvent(kind, path.getFileName()), path);
+    }
+
+    private static String[] list(Path dir) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                names.add(child.getFileName().toString());
+            }
+        } catch (NoSuchFileException e) {
+            // directory deleted, reported by the parent directory scan
+        }
+        String[] result = names.toArray(new String[names.size()]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Scan all directories whose interval elapsed, in parallel.
+     *
+     * @return time of the next scan
+     */
+    private long scanDue() {
+        long now = System.currentTimeMillis();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final DirectorySnapshot snapshot : snapshots.values()) {
+            if (snapshot.nextScan <= now) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        rescan(snapshot);
+                        return null;
+                    }
+                });
+            }
+        }
+        if (!tasks.isEmpty()) {
+            scanPool.invokeAll(tasks);
+        }
+
+        long next = System.currentTimeMillis() + MAX_INTERVAL;
+        for (DirectorySnapshot snapshot : snapshots.values()) {
+            next = Math.min(next, snapshot.nextScan);
+        }
+        return next;
+    }
+
+    private void rescan(DirectorySnapshot snapshot) {
+        boolean changed;
+        try {
+            changed = scan(snapshot, false);
+        } catch (Exception e) {
+            LOGGER.debug("Unable to scan directory {}", e, snapshot.dir);
+            changed = false;
+        }
+        // hot directories are scanned more often
+        snapshot.interval = changed ? MIN_INTERVAL : Math.min(snapshot.interval * 2, MAX_INTERVAL);
+        snapshot.nextScan = System.currentTimeMillis() + snapshot.interval;
+    }
+
+    @Override
+    public void run() {
+        scanPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        runner = new Thread() {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    try {
+                        long next = scanDue();
+                        Thread.sleep(Math.max(10, Math.min(MIN_INTERVAL, next - System.currentTimeMillis())));
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (Throwable t) {
+                        LOGGER.error("Error scanning watched directories.", t);
+                    }
+                }
+            }
+        };
+        runner.setDaemon(true);
+        runner.setName("HotSwap Polling Watcher");
+        runner.start();
+
+        dispatcher.start();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        if (runner != null) {
+            runner.interrupt();
+        }
+        if (scanPool != null) {
+            scanPool.shutdown();
+        }
+    }
+}
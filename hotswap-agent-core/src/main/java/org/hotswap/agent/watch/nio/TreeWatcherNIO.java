@@ -102,4 +102,9 @@ public class TreeWatcherNIO extends AbstractNIO2Watcher {
         LOGGER.info("Registering directory {} ", dir);
         register(dir);
     }
+
+    @Override
+    protected boolean isFileTreeWatched() {
+        return FILE_TREE != null;
+    }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@
 package org.hotswap.agent;
 
 import org.hotswap.agent.annotation.handler.AnnotationProcessor;
+import org.hotswap.agent.config.PluginConfiguration;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.config.PluginRegistry;
 import org.hotswap.agent.testData.SimplePlugin;
@@ -30,9 +31,13 @@ import org.junit.Test;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.Collections;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 
 /**
@@ -69,5 +74,37 @@ public class PluginManagerTest {
         assertTrue("Plugin correct class", pluginRegistry.getRegisteredPlugins().keySet().iterator().next().equals(SimplePlugin.class));
     }
 
+    @Test
+    public void testChildClassLoaderConfiguration() throws Exception {
+        PluginManager pluginManager = PluginManager.getInstance();
+        ClassLoader parent = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+        ClassLoader child = new URLClassLoader(new URL[]{}, parent);
+
+        pluginManager.initClassLoader(parent);
+        PluginConfiguration parentConfiguration = pluginManager.getPluginConfiguration(parent);
+        assertSame("Child resolved to parent configuration", parentConfiguration, pluginManager.getPluginConfiguration(child));
+        assertSame("Memoized", parentConfiguration, pluginManager.getPluginConfiguration(child));
+
+        pluginManager.initClassLoader(child);
+        assertNotSame("Child has own configuration", parentConfiguration, pluginManager.getPluginConfiguration(child));
+
+        pluginManager.closeClassLoader(child);
+        assertSame("Child resolved to parent configuration after close", parentConfiguration, pluginManager.getPluginConfiguration(child));
+        pluginManager.closeClassLoader(parent);
+    }
 
+    @Test
+    public void testConfigurationSurvivesGc() throws Exception {
+        PluginManager pluginManager = PluginManager.getInstance();
+        ClassLoader classLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+
+        pluginManager.initClassLoader(classLoader);
+        PluginConfiguration configuration = pluginManager.getPluginConfiguration(classLoader);
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        assertSame("Configuration kept while classloader is reachable", configuration,
+                pluginManager.getPluginConfiguration(classLoader));
+        pluginManager.closeClassLoader(classLoader);
+    }
 }
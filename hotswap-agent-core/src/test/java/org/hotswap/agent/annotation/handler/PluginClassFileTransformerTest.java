@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.annotation.handler;
+
+import org.hotswap.agent.annotation.Maven;
+import org.hotswap.agent.annotation.OnClassLoadEvent;
+import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.annotation.Versions;
+import org.hotswap.agent.versions.DeploymentInfo;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test plugin transformer version check.
+ */
+public class PluginClassFileTransformerTest {
+
+    @Plugin(name = "VersionedPlugin", testedVersions = {})
+    @Versions(maven = {@Maven(value = "[99,)", groupId = "org.example", artifactId = "missing")})
+    public static class VersionedPlugin {
+        @OnClassLoadEvent(classNameRegexp = "org.example.Versioned")
+        public static void transform() {
+        }
+    }
+
+    // counts scans of maven resources
+    static class CountingClassLoader extends URLClassLoader {
+        final AtomicInteger mavenScans = new AtomicInteger();
+
+        CountingClassLoader() {
+            super(new URL[]{}, null);
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            if ("META-INF/maven/".equals(name)) {
+                mavenScans.incrementAndGet();
+            }
+            return super.getResources(name);
+        }
+    }
+
+    @Test
+    public void testVersionMismatchEvaluatedOnce() throws Exception {
+        Method method = VersionedPlugin.class.getMethod("transform");
+        PluginClassFileTransformer transformer = new PluginClassFileTransformer(null,
+                new PluginAnnotation<>(VersionedPlugin.class, null, method.getAnnotation(OnClassLoadEvent.class), method));
+        assertTrue(transformer.shouldCheckVersion());
+
+        CountingClassLoader classLoader = new CountingClassLoader();
+        assertFalse("Version mismatch", transformer.versionMatches(classLoader));
+        assertEquals(1, classLoader.mavenScans.get());
+
+        // even without cached deployment info the result is not evaluated again
+        DeploymentInfo.invalidate(classLoader);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(transformer.versionMatches(classLoader));
+        }
+        assertEquals("Evaluated once per classloader", 1, classLoader.mavenScans.get());
+
+        CountingClassLoader otherClassLoader = new CountingClassLoader();
+        assertFalse(transformer.versionMatches(otherClassLoader));
+        assertEquals("Evaluated for another classloader", 1, otherClassLoader.mavenScans.get());
+
+        DeploymentInfo.invalidate(otherClassLoader);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.annotation.handler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Test;
+
+public class PluginMethodInvokerTest {
+
+    private static final Class<?>[] ARGUMENT_TYPES = {ClassLoader.class, String.class};
+
+    public String instanceMethod(String name, ClassLoader classLoader) {
+        return name + classLoader.getClass().getSimpleName();
+    }
+
+    public static void staticMethod(Object object) {
+        throw new IllegalStateException(String.valueOf(object));
+    }
+
+    public static void unknownMethod(Integer value) {
+    }
+
+    @Test
+    public void testInstanceMethod() throws Exception {
+        PluginMethodInvoker invoker = new PluginMethodInvoker(
+                getClass().getMethod("instanceMethod", String.class, ClassLoader.class), this, ARGUMENT_TYPES);
+
+        assertArrayEquals(new int[] {1, 0}, invoker.getBindings());
+        assertNull(invoker.getUnknownParameterType());
+        ClassLoader classLoader = getClass().getClassLoader();
+        assertEquals("test" + classLoader.getClass().getSimpleName(),
+                invoker.invoke(new Object[] {"test", classLoader}));
+    }
+
+    @Test
+    public void testStaticMethodException() throws Exception {
+        PluginMethodInvoker invoker = new PluginMethodInvoker(
+                getClass().getMethod("staticMethod", Object.class), null, ARGUMENT_TYPES);
+
+        // Object is assignable from the first argument type
+        assertArrayEquals(new int[] {0}, invoker.getBindings());
+        try {
+            invoker.invoke(new Object[] {null});
+            fail("Exception expected");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testUnknownParameter() throws Exception {
+        PluginMethodInvoker invoker = new PluginMethodInvoker(
+                getClass().getMethod("unknownMethod", Integer.class), null, ARGUMENT_TYPES);
+
+        assertEquals(PluginMethodInvoker.UNKNOWN, invoker.getBindings()[0]);
+        assertEquals(Integer.class, invoker.getUnknownParameterType());
+    }
+}
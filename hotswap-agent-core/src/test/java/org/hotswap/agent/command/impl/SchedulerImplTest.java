@@ -18,7 +18,9 @@
  */
 package org.hotswap.agent.command.impl;
 
+import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.CommandExecutionListener;
+import org.hotswap.agent.command.MergeableCommand;
 import org.hotswap.agent.command.ReflectionCommand;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.util.test.WaitHelper;
@@ -27,8 +29,18 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -72,5 +84,236 @@ public class SchedulerImplTest {
         assertTrue("Event listener not called", WaitHelper.waitForResult(resultHolder));
     }
 
+    // all instances are equal - the scheduler sees it as the same command
+    private static class CountingCommand implements Command {
+        final AtomicInteger executed;
 
+        CountingCommand(AtomicInteger executed) {
+            this.executed = executed;
+        }
+
+        @Override
+        public void executeCommand() {
+            executed.incrementAndGet();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CountingCommand;
+        }
+
+        @Override
+        public int hashCode() {
+            return CountingCommand.class.hashCode();
+        }
+    }
+
+    @Test
+    public void testRescheduleCommand() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            scheduler.scheduleCommand(new CountingCommand(executed), 50);
+        }
+
+        assertTrue("Command not executed", WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return executed.get() > 0;
+            }
+        }));
+        Thread.sleep(100);
+        assertEquals("Equal commands executed once", 1, executed.get());
+    }
+
+    @Test
+    public void testCommandLanes() throws Exception {
+        final AtomicInteger proxyFinished = new AtomicInteger();
+        final WaitHelper.ResultHolder resultHolder = new WaitHelper.ResultHolder();
+
+        scheduler.scheduleCommand(new Command() {
+            @Override
+            public void executeCommand() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                proxyFinished.incrementAndGet();
+            }
+        }, 10, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.PROXY);
+
+        // shorter timeout, but must wait for the proxy lane
+        scheduler.scheduleCommand(new Command() {
+            @Override
+            public void executeCommand() {
+                resultHolder.result = proxyFinished.get() == 1;
+            }
+        }, 0, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.CLASS_INIT);
+
+        assertTrue("Class init lane executed after proxy lane", WaitHelper.waitForResult(resultHolder));
+    }
+
+    // all instances are equal, execution records payloads of the command and all merged commands
+    private static class PayloadCommand extends MergeableCommand {
+        final String payload;
+        final List<List<String>> executions;
+        final CountDownLatch started;
+        final CountDownLatch finish;
+
+        PayloadCommand(String payload, List<List<String>> executions, CountDownLatch started, CountDownLatch finish) {
+            this.payload = payload;
+            this.executions = executions;
+            this.started = started;
+            this.finish = finish;
+        }
+
+        @Override
+        public void executeCommand() {
+            List<String> payloads = new ArrayList<>();
+            payloads.add(payload);
+            for (Command merged : popMergedCommands()) {
+                payloads.add(((PayloadCommand) merged).payload);
+            }
+            executions.add(payloads);
+            started.countDown();
+            try {
+                finish.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PayloadCommand;
+        }
+
+        @Override
+        public int hashCode() {
+            return PayloadCommand.class.hashCode();
+        }
+    }
+
+    @Test
+    public void testMergeCommands() throws Exception {
+        final List<List<String>> executions = Collections.synchronizedList(new ArrayList<List<String>>());
+        CountDownLatch noWait = new CountDownLatch(0);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.scheduleCommand(new PayloadCommand("p" + i, executions, new CountDownLatch(1), noWait), 50,
+                    Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.REDEFINE);
+        }
+
+        assertTrue("Command not executed", WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return !executions.isEmpty();
+            }
+        }));
+        Thread.sleep(100);
+        assertEquals("Merged commands executed once", 1, executions.size());
+        assertEquals("All payloads merged", Arrays.asList("p0", "p1", "p2", "p3", "p4"), executions.get(0));
+
+        // replaced instances released the lane
+        assertLaneOpen();
+    }
+
+    @Test
+    public void testMergeWhileRunning() throws Exception {
+        final List<List<String>> executions = Collections.synchronizedList(new ArrayList<List<String>>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CountDownLatch noWait = new CountDownLatch(0);
+
+        scheduler.scheduleCommand(new PayloadCommand("a", executions, started, finish), 0,
+                Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.REDEFINE);
+        assertTrue("First command started", started.await(5, TimeUnit.SECONDS));
+
+        // rescheduled while running - merged and waiting for the running command
+        for (String payload : new String[]{"b", "c", "d"}) {
+            scheduler.scheduleCommand(new PayloadCommand(payload, executions, new CountDownLatch(1), noWait), 0,
+                    Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.REDEFINE);
+        }
+        Thread.sleep(100);
+        assertEquals("Not executed while running", 1, executions.size());
+
+        finish.countDown();
+        assertTrue("Merged command not executed after the running one", WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return executions.size() > 1;
+            }
+        }));
+        Thread.sleep(100);
+        assertEquals("Merged command executed exactly once", 2, executions.size());
+        assertEquals(Arrays.asList("a"), executions.get(0));
+        assertEquals(Arrays.asList("b", "c", "d"), executions.get(1));
+
+        assertLaneOpen();
+    }
+
+    @Test
+    public void testCommandLanesScopedByClassLoader() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+        ClassLoader childClassLoader = new URLClassLoader(new URL[]{}, appClassLoader);
+        ClassLoader otherClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+        final AtomicInteger redefined = new AtomicInteger();
+
+        // e.g. change set of a noisy classpath, pending for a long time
+        scheduler.scheduleCommand(new Command() {
+            @Override
+            public void executeCommand() {
+                redefined.incrementAndGet();
+            }
+        }, 500, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.REDEFINE, appClassLoader);
+
+        AtomicInteger other = scheduleProxy(redefined, otherClassLoader);
+        AtomicInteger same = scheduleProxy(redefined, appClassLoader);
+        AtomicInteger child = scheduleProxy(redefined, childClassLoader);
+        AtomicInteger unscoped = scheduleProxy(redefined, null);
+
+        assertTrue("Other classloader not blocked", waitForExecution(other, 400));
+        assertEquals("Other classloader executed before the redefinition", 0, other.get());
+
+        assertTrue(waitForExecution(same, 2000));
+        assertEquals("Same classloader executed after the redefinition", 1, same.get());
+        assertTrue(waitForExecution(child, 2000));
+        assertEquals("Child classloader executed after the redefinition", 1, child.get());
+        assertTrue(waitForExecution(unscoped, 2000));
+        assertEquals("Command without classloader executed after the redefinition", 1, unscoped.get());
+    }
+
+    // proxy lane command, the result is number of redefinitions seen at execution (-1 if not executed yet)
+    private AtomicInteger scheduleProxy(final AtomicInteger redefined, ClassLoader classLoader) {
+        final AtomicInteger observed = new AtomicInteger(-1);
+        scheduler.scheduleCommand(new Command() {
+            @Override
+            public void executeCommand() {
+                observed.set(redefined.get());
+            }
+        }, 0, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.PROXY, classLoader);
+        return observed;
+    }
+
+    private boolean waitForExecution(final AtomicInteger observed, int timeout) {
+        return WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return observed.get() >= 0;
+            }
+        }, timeout);
+    }
+
+    // a command of the last lane is executed only when no command of preceding lanes is pending
+    private void assertLaneOpen() throws Exception {
+        final WaitHelper.ResultHolder resultHolder = new WaitHelper.ResultHolder();
+        scheduler.scheduleCommand(new Command() {
+            @Override
+            public void executeCommand() {
+                resultHolder.result = true;
+            }
+        }, 0, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.FRAMEWORK_REFRESH);
+        assertTrue("Preceding lanes released", WaitHelper.waitForResult(resultHolder));
+    }
 }
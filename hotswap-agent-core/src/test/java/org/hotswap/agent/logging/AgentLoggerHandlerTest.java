@@ -20,12 +20,23 @@ package org.hotswap.agent.logging;
 
 import org.hamcrest.text.StringContains;
 import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.util.test.WaitHelper;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by bubnik on 14.10.13.
@@ -49,4 +60,93 @@ public class AgentLoggerHandlerTest {
         handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "A {} B {} C {}", null, "1", 2, 3L);
     }
 
+    @Test
+    public void testMissingAndExtraArguments() {
+        AgentLoggerHandler handler = new AgentLoggerHandler();
+        handler.setPrintStream(printStream);
+
+        context.checking(new Expectations() {{
+            oneOf(printStream).println(with(new StringContains("DEBUG (org.hotswap.agent.config.PluginManager) - A 1 B {} C")));
+            oneOf(printStream).println(with(new StringContains("DEBUG (org.hotswap.agent.config.PluginManager) - A null B")));
+        }});
+
+        handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "A {} B {} C", null, "1");
+        handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "A {} B", null, null, "2");
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AgentLoggerHandler handler = new AgentLoggerHandler();
+        handler.setPrintStream(new PrintStream(out, true));
+        handler.setAsync(16, true);
+
+        for (int i = 0; i < 100; i++) {
+            handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "Message {}", null, i);
+        }
+
+        assertTrue("All messages written", WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                synchronized (out) {
+                    return out.toString().contains("Message 99");
+                }
+            }
+        }, 5000));
+        String log = out.toString();
+        assertTrue(log.indexOf("Message 0") < log.indexOf("Message 50"));
+        assertTrue(log.indexOf("Message 50") < log.indexOf("Message 99"));
+    }
+
+    @Test
+    public void testLogAfterShutdown() throws Exception {
+        for (boolean blockWhenFull : new boolean[]{false, true}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            AgentLoggerHandler handler = new AgentLoggerHandler();
+            handler.setPrintStream(new PrintStream(out, true));
+            handler.setAsync(1, blockWhenFull);
+            handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "Before shutdown", null);
+
+            // shutdown hook
+            handler.stopAsync();
+            assertFalse(handler.isAsync());
+            assertTrue("Pending line written", out.toString().contains("Before shutdown"));
+
+            // e.g. logged from application shutdown hooks, more lines than the buffer capacity
+            for (int i = 0; i < 10; i++) {
+                handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "After shutdown {}", null, i);
+            }
+            assertTrue("Written synchronously", out.toString().contains("After shutdown 9"));
+        }
+    }
+
+    @Test
+    public void testSimpleDateFormatPattern() {
+        String[] patterns = {
+                "HH:mm:ss.SSS",
+                "yyyy-MM-dd'T'HH:mm:ss.SSSZ",
+                "yy.MM.dd G EEE EEEE MMM MMMM",
+                "hh:mm aa K k u F D w W",
+                "''HH'' 'o''clock' S SS",
+                "y YYYY XXX"
+        };
+        ZonedDateTime dateTime = ZonedDateTime.of(2013, 10, 14, 7, 5, 9, 7000000, ZoneId.systemDefault());
+        Date date = Date.from(dateTime.toInstant());
+        for (String pattern : patterns) {
+            assertEquals(pattern, new SimpleDateFormat(pattern).format(date),
+                    AgentLoggerHandler.ofSimpleDateFormatPattern(pattern).format(dateTime));
+        }
+    }
+
+    @Test
+    public void testInvalidDateFormatPattern() {
+        for (String pattern : new String[]{"HH:mm 'unterminated", "HH:mm:ss.SSS q", "XXXX"}) {
+            try {
+                AgentLoggerHandler.ofSimpleDateFormatPattern(pattern);
+                fail("Invalid pattern accepted: " + pattern);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
 }
@@ -24,6 +24,9 @@ import org.jmock.Mockery;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Created by bubnik on 12.10.13.
  */
@@ -59,4 +62,48 @@ public class AgentLoggerTest {
 
         context.assertIsSatisfied();
     }
+
+    @Test
+    public void testLevelChange() throws Exception {
+        AgentLogger logger = AgentLogger.getLogger(AgentLoggerTest.class);
+        assertFalse(logger.isDebugEnabled());
+
+        // cached effective level is invalidated
+        AgentLogger.setLevel(AgentLoggerTest.class.getName(), AgentLogger.Level.DEBUG);
+        assertTrue(logger.isDebugEnabled());
+        assertFalse(logger.isTraceEnabled());
+
+        AgentLogger.setLevel(AgentLoggerTest.class.getName(), AgentLogger.Level.INFO);
+        assertFalse(logger.isDebugEnabled());
+        assertTrue(logger.isInfoEnabled());
+    }
+
+    @Test
+    public void testConcurrentLevelChange() throws Exception {
+        final AgentLogger logger = AgentLogger.getLogger(AgentLoggerTest.class);
+        final String prefix = AgentLoggerTest.class.getName();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        AgentLogger.setLevel(prefix, AgentLogger.Level.INFO);
+                        logger.isDebugEnabled();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(logger.isDebugEnabled());
+
+        // every change after concurrent updates must still invalidate the cached level
+        AgentLogger.setLevel(prefix, AgentLogger.Level.DEBUG);
+        assertTrue(logger.isDebugEnabled());
+        AgentLogger.setLevel(prefix, AgentLogger.Level.INFO);
+        assertFalse(logger.isDebugEnabled());
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.hotswapper;
+
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.Scheduler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test change set batching of the hotswapper - the timer is driven by the test.
+ */
+public class HotswapperPluginTest {
+
+    static class A {
+    }
+
+    static class B {
+    }
+
+    static class C {
+    }
+
+    // scheduler keeping only the last scheduled command, the command is run by fire()
+    static class FakeScheduler implements Scheduler {
+        Command pending;
+        int pendingTimeout;
+        ClassLoader expectedClassLoader;
+        int scheduled;
+
+        @Override
+        public void scheduleCommand(Command command) {
+            scheduleCommand(command, 100);
+        }
+
+        @Override
+        public void scheduleCommand(Command command, int timeout) {
+            scheduleCommand(command, timeout, DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER);
+        }
+
+        @Override
+        public void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour) {
+            scheduleCommand(command, timeout, behaviour, null);
+        }
+
+        @Override
+        public void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour, CommandLane lane) {
+            scheduleCommand(command, timeout, behaviour, lane, null);
+        }
+
+        @Override
+        public void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour, CommandLane lane,
+                                    ClassLoader classLoader) {
+            assertEquals(CommandLane.REDEFINE, lane);
+            assertSame("Lane of the plugin classloader", expectedClassLoader, classLoader);
+            pending = command;
+            pendingTimeout = timeout;
+            scheduled++;
+        }
+
+        // wait for the timeout and run the pending command, return false if nothing is scheduled
+        boolean fire() throws InterruptedException {
+            Command command = pending;
+            if (command == null) {
+                return false;
+            }
+            Thread.sleep(pendingTimeout);
+            pending = null;
+            command.executeCommand();
+            return true;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    HotswapperPlugin plugin;
+    FakeScheduler scheduler;
+    ClassLoader appClassLoader = getClass().getClassLoader();
+
+    // classes of each redefinition
+    final List<Set<Class<?>>> redefinitions = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        plugin = new HotswapperPlugin();
+        plugin.scheduler = scheduler;
+        plugin.appClassLoader = appClassLoader;
+        scheduler.expectedClassLoader = appClassLoader;
+        plugin.quietPeriod = 10;
+        plugin.hotswapCommand = new Command() {
+            @Override
+            public void executeCommand() {
+                for (byte[] bytes : plugin.reloadMap.values()) {
+                    assertTrue("Class file read", bytes.length > 0);
+                }
+                redefinitions.add(new HashSet<>(plugin.reloadMap.keySet()));
+            }
+        };
+    }
+
+    @Test
+    public void testChangeSetRedefinedOnce() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        for (Class<?> clazz : new Class<?>[]{A.class, B.class, C.class, A.class}) {
+            plugin.watchReload(clazz.getName(), classLoader, classFileURI(clazz));
+        }
+        assertEquals(4, scheduler.scheduled);
+        assertSame("Single rescheduled command", plugin.changeSetCommand, scheduler.pending);
+        assertTrue("Nothing redefined before the quiet period", redefinitions.isEmpty());
+
+        assertTrue(scheduler.fire());
+
+        assertEquals("One batched redefinition", 1, redefinitions.size());
+        assertEquals(new HashSet<Class<?>>(Arrays.asList(A.class, B.class, C.class)), redefinitions.get(0));
+        assertNull("Change set closed", scheduler.pending);
+        assertTrue("Reload map cleared", plugin.reloadMap.isEmpty());
+    }
+
+    @Test
+    public void testChangeSetRedefinedUnderContinuousChanges() throws Exception {
+        File classFile = File.createTempFile("HotswapperPluginTest", ".class");
+        classFile.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(classFile)) {
+            out.write(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+        }
+        // timestamp in the future - the output never becomes quiet
+        assertTrue(classFile.setLastModified(System.currentTimeMillis() + 60000));
+
+        ClassLoader classLoader = getClass().getClassLoader();
+        long start = System.nanoTime();
+        plugin.watchReload(A.class.getName(), classLoader, classFile.toURI());
+
+        int fired = 0;
+        while (redefinitions.isEmpty() && fired < 1000) {
+            // another change of the class within each quiet period
+            plugin.watchReload(A.class.getName(), classLoader, classFile.toURI());
+            assertTrue("Change set postponed", scheduler.fire());
+            fired++;
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals("Cap forced one redefinition", 1, redefinitions.size());
+        assertTrue("Postponed while changing", fired > 1);
+        assertTrue("Redefined after the cap, elapsed " + elapsedMillis, elapsedMillis >= 20 * plugin.quietPeriod);
+        assertNull("Change set closed", scheduler.pending);
+    }
+
+    private URI classFileURI(Class<?> clazz) throws Exception {
+        String name = clazz.getName();
+        URI uri = clazz.getResource(name.substring(name.lastIndexOf('.') + 1) + ".class").toURI();
+        assertNotNull(uri);
+        return uri;
+    }
+}
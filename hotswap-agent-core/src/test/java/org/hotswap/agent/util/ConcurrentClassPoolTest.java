@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.NotFoundException;
+import org.hotswap.agent.plugin.jvm.AnonymousClassPatchPlugin;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentClassPoolTest {
+
+    private static final String CLASS_NAME = AnonymousClassPatchPlugin.class.getName();
+
+    @Test
+    public void testGet() throws Exception {
+        ConcurrentClassPool classPool = new ConcurrentClassPool(true);
+
+        CtClass ctClass = classPool.get(CLASS_NAME);
+        assertEquals(CLASS_NAME, ctClass.getName());
+        assertSame("Cached instance", ctClass, classPool.get(CLASS_NAME));
+        assertSame("Descriptor form", ctClass, classPool.getCtClass("[L" + CLASS_NAME + ";").getComponentType());
+        assertSame(CtClass.intType, classPool.get("int"));
+        assertNull(classPool.getOrNull("org.hotswap.agent.NotExisting"));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testNotFound() throws Exception {
+        new ConcurrentClassPool(true).get("org.hotswap.agent.NotExisting");
+    }
+
+    @Test
+    public void testConcurrentGet() throws Exception {
+        final ConcurrentClassPool classPool = new ConcurrentClassPool(true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CtClass>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(new Callable<CtClass>() {
+                    @Override
+                    public CtClass call() throws Exception {
+                        return classPool.get(CLASS_NAME);
+                    }
+                }));
+            }
+            CtClass ctClass = results.get(0).get();
+            for (Future<CtClass> result : results) {
+                assertSame("Same instance for all threads", ctClass, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMakeClass() throws Exception {
+        ConcurrentClassPool classPool = new ConcurrentClassPool();
+        CtClass ctClass = classPool.makeClass("org.hotswap.agent.MadeClass");
+        assertSame(ctClass, classPool.get("org.hotswap.agent.MadeClass"));
+    }
+
+    // exposes the inherited table walked by ClassPool.compress()
+    private static class InspectableClassPool extends ConcurrentClassPool {
+        InspectableClassPool() {
+            super(true);
+        }
+
+        boolean isRegistered(String classname) {
+            return classes.get(classname) != null;
+        }
+    }
+
+    @Test
+    public void testClassesRegisteredForCompress() throws Exception {
+        InspectableClassPool classPool = new InspectableClassPool();
+
+        CtClass ctClass = classPool.get(CLASS_NAME);
+        assertTrue("Created class registered", classPool.isRegistered(CLASS_NAME));
+        classPool.makeClass("org.hotswap.agent.MadeClass");
+        assertTrue("Made class registered", classPool.isRegistered("org.hotswap.agent.MadeClass"));
+
+        ctClass.detach();
+        assertFalse("Detached class unregistered", classPool.isRegistered(CLASS_NAME));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.lang.instrument.IllegalClassFormatException;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.hotswap.agent.annotation.OnClassLoadEvent;
+import org.hotswap.agent.annotation.handler.PluginAnnotation;
+import org.hotswap.agent.annotation.handler.PluginClassFileTransformer;
+import org.hotswap.agent.testData.SimplePlugin;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Transformer dispatch by class name regexp.
+ */
+public class HotswapTransformerTest {
+
+    private static class RecordingTransformer implements HaClassFileTransformer {
+        final String name;
+        final List<String> calls;
+
+        RecordingTransformer(String name, List<String> calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        @Override
+        public boolean isForRedefinitionOnly() {
+            return false;
+        }
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+            calls.add(name);
+            return classfileBuffer;
+        }
+    }
+
+    private class StubPluginTransformer extends PluginClassFileTransformer {
+        final String name;
+        final String group;
+        final boolean fallback;
+        final boolean versionMatches;
+        int resolved;
+
+        StubPluginTransformer(String name, String group, boolean fallback, boolean versionMatches) throws Exception {
+            super(null, pluginAnnotation());
+            this.name = name;
+            this.group = group;
+            this.fallback = fallback;
+            this.versionMatches = versionMatches;
+        }
+
+        @Override
+        public boolean isPluginDisabled(ClassLoader loader) {
+            resolved++;
+            return false;
+        }
+
+        @Override
+        public boolean versionMatches(ClassLoader loader) {
+            return versionMatches;
+        }
+
+        @Override
+        public boolean isFallbackPlugin() {
+            return fallback;
+        }
+
+        @Override
+        public String getPluginGroup() {
+            return group;
+        }
+
+        @Override
+        public void transformApplicable(TransformSession session, Class<?> classBeingRedefined, ProtectionDomain protectionDomain) {
+            calls.add(name);
+        }
+    }
+
+    private static PluginAnnotation<OnClassLoadEvent> pluginAnnotation() throws Exception {
+        Method method = SimplePlugin.class.getMethod("transform");
+        return new PluginAnnotation<>(SimplePlugin.class, new SimplePlugin(), method.getAnnotation(OnClassLoadEvent.class), method);
+    }
+
+    private List<String> calls = new ArrayList<>();
+
+    private HotswapTransformer hotswapTransformer = new HotswapTransformer() {
+        @Override
+        protected void ensureClassLoaderInitialized(ClassLoader classLoader, ProtectionDomain protectionDomain) {
+        }
+    };
+
+    private void register(String regexp, String name) {
+        hotswapTransformer.registerTransformer(null, regexp, new RecordingTransformer(name, calls));
+    }
+
+    private List<String> transform(String className) throws Exception {
+        calls.clear();
+        hotswapTransformer.transform(null, className, null, null, new byte[0]);
+        return new ArrayList<>(calls);
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        register(".*", "all");
+        register("org.example.Foo", "exact");
+        register("org.example.*", "prefix");
+        register("org.example.Foo.Inner", "inner");
+        register(".*\\$\\d+", "anonymous");
+        register("(org.example.Bar)|(org.example.Baz)", "alternative");
+
+        assertArrayEquals(new String[] {"all", "exact", "prefix"}, transform("org/example/Foo").toArray());
+        assertArrayEquals(new String[] {"all", "prefix", "inner"}, transform("org/example/Foo$Inner").toArray());
+        assertArrayEquals(new String[] {"all", "prefix", "anonymous"}, transform("org/example/Foo$1").toArray());
+        assertArrayEquals(new String[] {"all", "prefix", "alternative"}, transform("org/example/Baz").toArray());
+        assertArrayEquals(new String[] {"all"}, transform("org/other/Foo").toArray());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        RecordingTransformer transformer = new RecordingTransformer("exact", calls);
+        hotswapTransformer.registerTransformer(null, "org.example.Foo", transformer);
+        assertEquals(1, transform("org/example/Foo").size());
+
+        hotswapTransformer.removeTransformer("org.example.Foo", transformer);
+        assertEquals(0, transform("org/example/Foo").size());
+    }
+
+    @Test
+    public void testClassLoaderClassification() throws Exception {
+        register(".*", "all");
+
+        calls.clear();
+        byte[] bytes = new byte[0];
+        assertSame("Hidden class skipped", bytes, hotswapTransformer.transform(null, null, null, null, bytes));
+        assertEquals(0, calls.size());
+
+        ClassLoader appClassLoader = new ClassLoader() {
+        };
+        hotswapTransformer.transform(appClassLoader, "org/example/Foo", null, null, bytes);
+        assertEquals("Standard classloader transformed", 1, calls.size());
+
+        hotswapTransformer.setExcludedClassLoaderPatterns(Collections.singletonList(Pattern.compile(".*HotswapTransformerTest.*")));
+        assertEquals(HotswapTransformer.ClassLoaderKind.EXCLUDE,
+                hotswapTransformer.classLoaderKinds.get(appClassLoader.getClass()));
+    }
+
+    @Test
+    public void testClassLoaderSeenOnce() throws Exception {
+        HotswapTransformer transformer = new HotswapTransformer();
+        // excluded classloader is not initialized, nothing is scheduled
+        transformer.setExcludedClassLoaderPatterns(Collections.singletonList(Pattern.compile(".*HotswapTransformerTest.*")));
+        ClassLoader appClassLoader = new ClassLoader() {
+        };
+        transformer.transform(appClassLoader, "org/example/Foo", null, null, new byte[0]);
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        assertTrue("Seen classloader kept while reachable", transformer.seenClassLoaders.containsKey(appClassLoader));
+        assertNotNull("Initialization is not scheduled again", transformer.seenClassLoaders.putIfAbsent(appClassLoader, Boolean.TRUE));
+    }
+
+    @Test
+    public void testPluginApplicability() throws Exception {
+        StubPluginTransformer matching = new StubPluginTransformer("matching", "el", false, true);
+        StubPluginTransformer fallback = new StubPluginTransformer("fallback", "el", true, false);
+        StubPluginTransformer otherFallback = new StubPluginTransformer("otherFallback", "jsf", true, false);
+        StubPluginTransformer notMatching = new StubPluginTransformer("notMatching", null, false, false);
+        hotswapTransformer.registerTransformer(null, "org.example.Foo", fallback);
+        hotswapTransformer.registerTransformer(null, "org.example.*", otherFallback);
+        hotswapTransformer.registerTransformer(null, "org.example.*", notMatching);
+        hotswapTransformer.registerTransformer(null, "org.example.Bar", matching);
+
+        assertArrayEquals("Fallback used if no other plugin of the group applies",
+                new String[] {"fallback", "otherFallback"}, transform("org/example/Foo").toArray());
+        assertArrayEquals("Fallback skipped if other plugin of the group applies",
+                new String[] {"matching", "otherFallback"}, transform("org/example/Bar").toArray());
+
+        transform("org/example/Foo");
+        transform("org/example/Bar");
+        assertEquals("Applicability resolved once per classloader", 1, fallback.resolved);
+        assertEquals(1, otherFallback.resolved);
+        assertEquals(1, notMatching.resolved);
+        assertEquals(1, matching.resolved);
+    }
+
+    @Test
+    public void testPluginApplicabilityKeptAcrossGc() throws Exception {
+        StubPluginTransformer transformer = new StubPluginTransformer("transformer", null, false, true);
+        hotswapTransformer.registerTransformer(null, "org.example.Foo", transformer);
+        ClassLoader appClassLoader = new ClassLoader() {
+        };
+
+        hotswapTransformer.transform(appClassLoader, "org/example/Foo", null, null, new byte[0]);
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        hotswapTransformer.transform(appClassLoader, "org/example/Foo", null, null, new byte[0]);
+        assertEquals("Applicability not resolved again after GC", 1, transformer.resolved);
+    }
+
+    @Test
+    public void testPluginApplicabilityInvalidatedForDescendants() throws Exception {
+        StubPluginTransformer transformer = new StubPluginTransformer("transformer", null, false, true);
+        hotswapTransformer.registerTransformer(null, "org.example.Foo", transformer);
+        ClassLoader parentClassLoader = new ClassLoader(null) {
+        };
+        ClassLoader appClassLoader = new ClassLoader(parentClassLoader) {
+        };
+
+        hotswapTransformer.transform(appClassLoader, "org/example/Foo", null, null, new byte[0]);
+        assertEquals(1, transformer.resolved);
+
+        hotswapTransformer.invalidateApplicability(new ClassLoader(null) {
+        });
+        hotswapTransformer.invalidateApplicability(new ClassLoader(appClassLoader) {
+        });
+        hotswapTransformer.transform(appClassLoader, "org/example/Foo", null, null, new byte[0]);
+        assertEquals("Unrelated and child classloaders keep the table", 1, transformer.resolved);
+
+        hotswapTransformer.invalidateApplicability(parentClassLoader);
+        hotswapTransformer.transform(appClassLoader, "org/example/Foo", null, null, new byte[0]);
+        assertEquals("Parent classloader invalidates the table", 2, transformer.resolved);
+
+        hotswapTransformer.invalidateApplicability(appClassLoader);
+        hotswapTransformer.transform(appClassLoader, "org/example/Foo", null, null, new byte[0]);
+        assertEquals("Own classloader invalidates the table", 3, transformer.resolved);
+    }
+}
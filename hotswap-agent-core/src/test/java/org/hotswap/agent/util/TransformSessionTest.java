@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.CtField;
+import org.hotswap.agent.plugin.jvm.AnonymousClassPatchPlugin;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransformSessionTest {
+
+    private static final String CLASS_NAME = AnonymousClassPatchPlugin.class.getName().replace('.', '/');
+
+    private byte[] originalBytes() throws Exception {
+        return ClassPool.getDefault().get(AnonymousClassPatchPlugin.class.getName()).toBytecode();
+    }
+
+    @Test
+    public void testReadOnlyKeepsBytes() throws Exception {
+        byte[] bytes = originalBytes();
+        TransformSession session = new TransformSession(getClass().getClassLoader(), CLASS_NAME, bytes);
+
+        CtClass ctClass = session.getCtClass();
+        ctClass.getDeclaredMethods();
+        assertSame("Shared CtClass", ctClass, session.getCtClass());
+        assertSame("Unmodified class is not serialized", bytes, session.getBytes());
+        session.close();
+    }
+
+    @Test
+    public void testModification() throws Exception {
+        byte[] bytes = originalBytes();
+        TransformSession session = new TransformSession(getClass().getClassLoader(), CLASS_NAME, bytes);
+
+        CtClass ctClass = session.getCtClass();
+        ctClass.addField(CtField.make("public int addedField;", ctClass));
+        byte[] result = session.getBytes();
+        assertNotSame(bytes, result);
+
+        CtClass reparsed = session.getCtClass();
+        assertTrue(reparsed.getField("addedField") != null);
+
+        // changes after checkpoint are discarded
+        reparsed.addField(CtField.make("public int discardedField;", reparsed));
+        session.discardChanges();
+        assertSame(result, session.getBytes());
+        session.close();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.classloader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.testData.SimplePlugin;
+import org.hotswap.agent.util.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachedLoaderClassPathTest {
+
+    private static final String CLASS_NAME = SimplePlugin.class.getName();
+
+    private File dir;
+    private File classFile;
+    private byte[] bytes;
+
+    // counts resource lookups
+    private static class CountingClassLoader extends URLClassLoader {
+        int count;
+
+        CountingClassLoader(File dir) throws Exception {
+            super(new URL[]{dir.toURI().toURL()}, null);
+        }
+
+        @Override
+        public URL getResource(String name) {
+            count++;
+            return super.getResource(name);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("cachedLoaderClassPath").toFile();
+        classFile = new File(dir, CLASS_NAME.replace('.', '/') + ".class");
+        classFile.getParentFile().mkdirs();
+        try (InputStream is = SimplePlugin.class.getResourceAsStream(SimplePlugin.class.getSimpleName() + ".class")) {
+            bytes = IOUtils.toByteArray(is);
+        }
+        try (FileOutputStream os = new FileOutputStream(classFile)) {
+            os.write(bytes);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        classFile.delete();
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        CountingClassLoader classLoader = new CountingClassLoader(dir);
+        CachedLoaderClassPath classPath = CachedLoaderClassPath.getInstance(classLoader);
+        assertSame("Shared instance", classPath, CachedLoaderClassPath.getInstance(classLoader));
+
+        try (InputStream is = classPath.openClassfile(CLASS_NAME)) {
+            assertArrayEquals(bytes, IOUtils.toByteArray(is));
+        }
+        assertEquals(classFile.toURI().toURL(), classPath.find(CLASS_NAME));
+        assertEquals("Resource looked up once", 1, classLoader.count);
+
+        ClassPool classPool = new ClassPool();
+        classPool.appendClassPath(classPath);
+        CtClass ctClass = classPool.get(CLASS_NAME);
+        assertEquals(CLASS_NAME, ctClass.getName());
+        ctClass.getDeclaredMethods();
+        assertEquals("Class created from cache", 1, classLoader.count);
+
+        CachedLoaderClassPath.invalidate(classLoader, CLASS_NAME.replace('.', '/'));
+        classPath.find(CLASS_NAME);
+        assertEquals("Invalidated", 2, classLoader.count);
+
+        assertNull(classPath.find("org.hotswap.agent.NotExisting"));
+        assertEquals("Missing class is not cached", 1, classPath.size());
+    }
+
+    @Test
+    public void testSharedInstanceKeptAcrossGc() throws Exception {
+        CountingClassLoader classLoader = new CountingClassLoader(dir);
+        CachedLoaderClassPath classPath = CachedLoaderClassPath.getInstance(classLoader);
+        classPath.find(CLASS_NAME);
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        assertSame("Shared instance kept while classloader is reachable", classPath,
+                CachedLoaderClassPath.getInstance(classLoader));
+        assertEquals(1, classPath.size());
+    }
+
+    @Test
+    public void testEvictionUnderConcurrentAccess() throws Exception {
+        final URL url = classFile.toURI().toURL();
+        final CachedLoaderClassPath classPath = new CachedLoaderClassPath(new CountingClassLoader(dir) {
+            @Override
+            public URL getResource(String name) {
+                return url;
+            }
+        });
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 20000; i++) {
+                            classPath.find("org.example.Class" + random.nextInt(3 * CachedLoaderClassPath.MAX_SIZE));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull("No failure while purging", failure.get());
+        assertTrue("Size bounded", classPath.size() <= CachedLoaderClassPath.MAX_SIZE + threads.length);
+    }
+
+    @Test
+    public void testFileModified() throws Exception {
+        CountingClassLoader classLoader = new CountingClassLoader(dir);
+        CachedLoaderClassPath classPath = CachedLoaderClassPath.getInstance(classLoader);
+
+        classPath.find(CLASS_NAME);
+        classPath.find(CLASS_NAME);
+        assertEquals(1, classLoader.count);
+
+        classFile.setLastModified(classFile.lastModified() - 10000);
+        classPath.find(CLASS_NAME);
+        assertEquals("Modified file is looked up again", 2, classLoader.count);
+    }
+}
@@ -20,12 +20,22 @@ package org.hotswap.agent.util.classloader;
 
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.plugin.jvm.AnonymousClassInfo;
+import org.hotswap.agent.plugin.testsource.SourceReferencingTransformer;
+import org.hotswap.agent.plugin.testtarget.TargetHelper;
+import org.hotswap.agent.plugin.watchResources.WatchResourcesPlugin;
 import org.junit.Test;
 
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by bubnik on 29.10.13.
@@ -55,4 +65,57 @@ public class ClassLoaderDefineClassPatcherTest {
         ;
     }
 
+    @Test
+    public void testPatchPluginPackage() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+
+        new ClassLoaderDefineClassPatcher().patchPluginPackage(getClass().getClassLoader(), PluginManager.PLUGIN_PACKAGE.replace(".", "/"),
+                AnonymousClassInfo.class.getName(), appClassLoader, null);
+
+        assertEquals("Class of the plugin package created in app classloader", appClassLoader,
+                appClassLoader.loadClass(AnonymousClassInfo.class.getName()).getClassLoader());
+        assertEquals("Class of other plugin package not copied", getClass().getClassLoader(),
+                appClassLoader.loadClass(WatchResourcesPlugin.class.getName()).getClassLoader());
+    }
+
+    @Test
+    public void testPatchPackageReferencedFromSource() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+        ClassLoaderDefineClassPatcher patcher = new ClassLoaderDefineClassPatcher();
+        String pluginPath = PluginManager.PLUGIN_PACKAGE.replace(".", "/");
+
+        assertFalse(patcher.isPluginPackagePatched(pluginPath, SourceReferencingTransformer.class.getName(), appClassLoader));
+        patcher.patchPluginPackage(getClass().getClassLoader(), pluginPath,
+                SourceReferencingTransformer.class.getName(), appClassLoader, null);
+
+        assertEquals("Package referenced by name in a string defined as well", appClassLoader,
+                appClassLoader.loadClass(TargetHelper.class.getName()).getClassLoader());
+        assertTrue(patcher.isPluginPackagePatched(pluginPath, SourceReferencingTransformer.class.getName(), appClassLoader));
+        assertTrue(patcher.isPluginPackagePatched(pluginPath, TargetHelper.class.getName(), appClassLoader));
+    }
+
+    @Test
+    public void testProtectionDomainOfInitClassLoader() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+        ProtectionDomain appDomain = new ProtectionDomain(new CodeSource(new URL("file:/app/classes/"),
+                (Certificate[]) null), null, appClassLoader, null);
+        ProtectionDomain otherDomain = new ProtectionDomain(new CodeSource(new URL("file:/other/classes/"),
+                (Certificate[]) null), null, appClassLoader, null);
+        PluginManager pluginManager = PluginManager.getInstance();
+
+        // domain of the first transformed application class is kept
+        pluginManager.initClassLoader(appClassLoader, appDomain);
+        pluginManager.initClassLoader(appClassLoader, otherDomain);
+        // e.g. plugin initialization - no domain of the caller
+        pluginManager.patchClassLoader(appClassLoader, AnonymousClassInfo.class.getName(), null);
+
+        Class<?> pluginClass = appClassLoader.loadClass(AnonymousClassInfo.class.getName());
+        assertEquals(appClassLoader, pluginClass.getClassLoader());
+        assertSame("Domain passed to initClassLoader", appDomain, pluginClass.getProtectionDomain());
+        assertNotSame("Not domain of the classloader implementation", URLClassLoader.class.getProtectionDomain(),
+                pluginClass.getProtectionDomain());
+
+        pluginManager.closeClassLoader(appClassLoader);
+    }
+
 }
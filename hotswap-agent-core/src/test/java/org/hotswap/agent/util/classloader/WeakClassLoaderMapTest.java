@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.classloader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class WeakClassLoaderMapTest {
+
+    @Test
+    public void testEntryKeptWhileClassLoaderReachable() throws Exception {
+        WeakClassLoaderMap<Object> map = new WeakClassLoaderMap<>();
+        ClassLoader classLoader = new URLClassLoader(new URL[]{});
+        Object value = new Object();
+        map.put(classLoader, value);
+        map.put(null, "bootstrap");
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        assertSame("Entry survives GC", value, map.get(classLoader));
+        assertTrue(map.containsKey(classLoader));
+        assertEquals("bootstrap", map.get(null));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testEntryRemovedAfterClassLoaderCollected() throws Exception {
+        WeakClassLoaderMap<Object> map = new WeakClassLoaderMap<>();
+        map.put(new URLClassLoader(new URL[]{}), new Object());
+
+        for (int i = 0; i < 50 && map.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals("Entry of collected classloader removed", 0, map.size());
+    }
+
+    @Test
+    public void testIdentity() throws Exception {
+        WeakClassLoaderMap<String> map = new WeakClassLoaderMap<>();
+        ClassLoader classLoader1 = new URLClassLoader(new URL[]{});
+        ClassLoader classLoader2 = new URLClassLoader(new URL[]{});
+
+        assertNull(map.putIfAbsent(classLoader1, "a"));
+        assertEquals("a", map.putIfAbsent(classLoader1, "b"));
+        assertEquals("a", map.put(classLoader1, "c"));
+        assertNull(map.get(classLoader2));
+        map.put(classLoader2, "d");
+
+        int count = 0;
+        for (Map.Entry<ClassLoader, String> entry : map.entrySet()) {
+            assertEquals(entry.getKey() == classLoader1 ? "c" : "d", entry.getValue());
+            count++;
+        }
+        assertEquals(2, count);
+
+        assertEquals("c", map.remove(classLoader1));
+        assertNull(map.get(classLoader1));
+        assertEquals(1, map.size());
+    }
+}
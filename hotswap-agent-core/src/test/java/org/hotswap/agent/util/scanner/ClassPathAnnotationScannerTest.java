@@ -19,10 +19,27 @@
 package org.hotswap.agent.util.scanner;
 
 import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.plugin.hotswapper.HotswapperPlugin;
+import org.hotswap.agent.plugin.jdk.JdkPlugin;
+import org.hotswap.agent.plugin.watchResources.WatchResourcesPlugin;
 import org.hotswap.agent.testData.SimplePlugin;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test scanner.
@@ -36,4 +53,71 @@ public class ClassPathAnnotationScannerTest {
         assertArrayEquals("Plugin discovered", new String[]{SimplePlugin.class.getName()},
                 scanner.scanPlugins(getClass().getClassLoader(), "org/hotswap/agent/testData").toArray());
     }
+
+    @Test
+    public void testScanPluginsParallel() throws Exception {
+        ClassPathAnnotationScanner scanner = new ClassPathAnnotationScanner(Plugin.class.getName(), new ParallelClassPathScanner());
+
+        assertArrayEquals("Plugin discovered", new String[]{SimplePlugin.class.getName()},
+                scanner.scanPlugins(getClass().getClassLoader(), "org/hotswap/agent/testData").toArray());
+    }
+
+    @Test
+    public void testScanPluginsParallelOrder() throws Exception {
+        ClassPathAnnotationScanner scanner = new ClassPathAnnotationScanner(Plugin.class.getName(), new ParallelClassPathScanner());
+
+        List<String> plugins = scanner.scanPlugins(getClass().getClassLoader(), "org/hotswap/agent/plugin");
+        assertTrue("Plugins discovered", plugins.containsAll(Arrays.asList(HotswapperPlugin.class.getName(),
+                JdkPlugin.class.getName(), WatchResourcesPlugin.class.getName())));
+
+        List<String> sorted = new ArrayList<>(plugins);
+        Collections.sort(sorted);
+        assertEquals("Deterministic order", sorted, plugins);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Same order on each scan", plugins,
+                    scanner.scanPlugins(getClass().getClassLoader(), "org/hotswap/agent/plugin"));
+        }
+    }
+
+    @Test
+    public void testScanPluginsWithIndex() throws Exception {
+        // test classes are indexed by PluginIndexProcessor, scanner must not be used
+        Scanner failingScanner = new Scanner() {
+            @Override
+            public void scan(ClassLoader classLoader, String path, ScannerVisitor visitor) throws IOException {
+                throw new IOException("Index not used");
+            }
+
+            @Override
+            public void scan(URL pluginDirURL, ScannerVisitor visitor) throws IOException {
+                throw new IOException("Index not used for " + pluginDirURL);
+            }
+        };
+        ClassPathAnnotationScanner scanner = new ClassPathAnnotationScanner(Plugin.class.getName(), failingScanner,
+                ClassPathIndex.PLUGIN_INDEX);
+
+        assertArrayEquals("Plugin discovered", new String[]{SimplePlugin.class.getName()},
+                scanner.scanPlugins(getClass().getClassLoader(), "org/hotswap/agent/testData").toArray());
+    }
+
+    @Test
+    public void testReadIndex() throws Exception {
+        File root = File.createTempFile("index", "");
+        root.delete();
+        File dir = new File(root, "org/example/plugin");
+        dir.mkdirs();
+        URL dirURL = dir.toURI().toURL();
+
+        assertNull("No index", ClassPathIndex.read(dirURL, "org/example/plugin", ClassPathIndex.PLUGIN_INDEX));
+
+        File index = new File(root, ClassPathIndex.PLUGIN_INDEX);
+        index.getParentFile().mkdirs();
+        try (OutputStream os = new FileOutputStream(index)) {
+            os.write("# comment\norg.example.plugin.a.APlugin\norg.example.other.BPlugin\n\norg.example.plugin.CPlugin$Inner\n"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals("Classes of the directory", Arrays.asList("org.example.plugin.a.APlugin", "org.example.plugin.CPlugin$Inner"),
+                ClassPathIndex.read(dirURL, "org/example/plugin", ClassPathIndex.PLUGIN_INDEX));
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.testData.SimplePlugin;
+import org.hotswap.agent.util.IOUtils;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test constant pool probe.
+ */
+public class ConstantPoolReaderTest {
+
+    // long and double constants take two constant pool entries
+    static class Constants {
+        static final long LONG = 1234567890123L;
+        static final double DOUBLE = 1.5e300;
+        String name = "\u00e9t\u00e9";
+    }
+
+    @Test
+    public void testContainsUtf8() throws Exception {
+        byte[] descriptor = ConstantPoolReader.toDescriptor(Plugin.class.getName());
+
+        assertTrue("Annotation found", ConstantPoolReader.containsUtf8(classBytes(SimplePlugin.class), descriptor));
+        assertFalse("Annotation not found", ConstantPoolReader.containsUtf8(classBytes(ConstantPoolReaderTest.class), descriptor));
+        assertTrue("Unknown format", ConstantPoolReader.containsUtf8(new byte[]{1, 2}, descriptor));
+    }
+
+    @Test
+    public void testGetClassName() throws Exception {
+        assertEquals(SimplePlugin.class.getName(), ConstantPoolReader.getClassName(classBytes(SimplePlugin.class)));
+        assertEquals(Constants.class.getName(), ConstantPoolReader.getClassName(classBytes(Constants.class)));
+
+        byte[] bytes = classBytes(SimplePlugin.class);
+        assertNull("Truncated", ConstantPoolReader.getClassName(Arrays.copyOf(bytes, bytes.length / 2)));
+        assertNull("Unknown format", ConstantPoolReader.getClassName(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}));
+    }
+
+    private byte[] classBytes(Class<?> clazz) throws Exception {
+        String name = clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1);
+        try (InputStream is = clazz.getResourceAsStream(name + ".class")) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ClassSignatureCacheTest {
+
+    private static final ClassSignatureElement[] METHODS = {ClassSignatureElement.METHOD};
+
+    private static final ClassSignatureElement[] ALL = ClassSignatureElement.values();
+
+    @Test
+    public void testCachedPerClassAndElements() throws Exception {
+        Assume.assumeTrue("Redefinition counter not accessible", ClassSignatureCache.isEnabled());
+
+        String signature = ClassSignatureCache.getJavaClassSignature(SignatureTest.OneMethod.class, METHODS);
+        assertSame(signature, ClassSignatureCache.getJavaClassSignature(SignatureTest.OneMethod.class, METHODS));
+
+        String allSignature = ClassSignatureCache.getJavaClassSignature(SignatureTest.OneMethod.class, ALL);
+        assertNotSame(signature, allSignature);
+        assertSame(allSignature, ClassSignatureCache.getJavaClassSignature(SignatureTest.OneMethod.class, ALL));
+
+        ClassFingerprint fingerprint = ClassSignatureCache.getClassFingerprint(SignatureTest.OneMethod.class, ALL);
+        assertSame(fingerprint, ClassSignatureCache.getClassFingerprint(SignatureTest.OneMethod.class, ALL));
+    }
+
+    @Test
+    public void testKeptAcrossGc() throws Exception {
+        Assume.assumeTrue("Redefinition counter not accessible", ClassSignatureCache.isEnabled());
+
+        String signature = ClassSignatureCache.getJavaClassSignature(SignatureTest.B.class, ALL);
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        assertSame("Cached value survives GC", signature, ClassSignatureCache.getJavaClassSignature(SignatureTest.B.class, ALL));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        Assume.assumeTrue("Redefinition counter not accessible", ClassSignatureCache.isEnabled());
+
+        String signature = ClassSignatureCache.getJavaClassSignature(SignatureTest.A.class, ALL);
+        ClassSignatureCache.invalidate(SignatureTest.A.class);
+
+        String newSignature = ClassSignatureCache.getJavaClassSignature(SignatureTest.A.class, ALL);
+        assertNotSame(signature, newSignature);
+        assertEquals(signature, newSignature);
+    }
+}
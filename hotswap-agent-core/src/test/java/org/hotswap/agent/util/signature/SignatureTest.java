@@ -19,8 +19,10 @@
 package org.hotswap.agent.util.signature;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -28,7 +30,11 @@ import java.lang.annotation.Target;
 
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.CtField;
+import org.hotswap.agent.javassist.CtNewMethod;
 import org.hotswap.agent.javassist.NotFoundException;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.util.IOUtils;
 import org.junit.Test;
 
 public class SignatureTest {
@@ -303,4 +309,46 @@ public class SignatureTest {
         String actual = ClassSignatureComparerHelper.getCtClassSignature(makeClass, SIGNATURE_ELEMENTS);
         assertEquals("Signatures not equal", expected, actual);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFingerprint() throws Exception {
+        Class<?>[] classes = {TestSignatures.class, A.class, B.class, C.class, OneMethod.class, SwitchTestClass.class};
+        for (Class<?> clazz : classes) {
+            ClassFingerprint expected = ClassSignatureComparerHelper.getClassFingerprint(clazz, SIGNATURE_ELEMENTS);
+            ClassFingerprint actual = ClassSignatureComparerHelper.getClassFingerprint(classFile(clazz),
+                    clazz.getClassLoader(), SIGNATURE_ELEMENTS);
+            assertEquals("Fingerprints not equal " + clazz.getName(), expected, actual);
+
+            CtClass ctClass = ClassPool.getDefault().get(clazz.getName());
+            assertEquals("CtClass fingerprint not equal " + clazz.getName(), expected,
+                    ClassSignatureComparerHelper.getClassFingerprint(ctClass, clazz.getClassLoader(), SIGNATURE_ELEMENTS));
+        }
+    }
+
+    @Test
+    public void testFingerprintDifferent() throws Exception {
+        ClassPool classPool = new ClassPool();
+        classPool.appendSystemPath();
+
+        CtClass ctClass = classPool.get(OneMethod.class.getName());
+        assertEquals(false, ClassSignatureComparerHelper.isDifferent(ctClass, OneMethod.class, SIGNATURE_ELEMENTS));
+
+        ctClass.addMethod(CtNewMethod.make("public int get10() { return 10; }", ctClass));
+        assertEquals(true, ClassSignatureComparerHelper.isDifferent(ctClass, OneMethod.class, SIGNATURE_ELEMENTS));
+        assertEquals("Method not part of signature", false, ClassSignatureComparerHelper.isDifferent(ctClass,
+                OneMethod.class, new ClassSignatureElement[] {ClassSignatureElement.FIELD}));
+
+        ctClass = classPool.get(A.class.getName());
+        ctClass.getClassFile2().removeAttribute(AnnotationsAttribute.visibleTag);
+        assertEquals(true, ClassSignatureComparerHelper.isDifferent(ctClass, A.class, SIGNATURE_ELEMENTS));
+        ctClass.addField(new CtField(CtClass.intType, "aField", ctClass));
+        assertNotEquals(ClassSignatureComparerHelper.getClassFingerprint(A.class, SIGNATURE_ELEMENTS),
+                ClassSignatureComparerHelper.getClassFingerprint(ctClass, A.class.getClassLoader(), SIGNATURE_ELEMENTS));
+    }
+
+    private static byte[] classFile(Class<?> clazz) throws IOException {
+        try (InputStream is = clazz.getClassLoader().getResourceAsStream(clazz.getName().replace('.', '/') + ".class")) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+}
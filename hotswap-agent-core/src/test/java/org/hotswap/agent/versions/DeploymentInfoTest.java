@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.versions;
+
+import org.hotswap.agent.config.PluginManager;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test deployment info cache.
+ */
+public class DeploymentInfoTest {
+
+    // counts scans of maven resources
+    static class CountingClassLoader extends URLClassLoader {
+        final AtomicInteger mavenScans = new AtomicInteger();
+
+        CountingClassLoader() {
+            super(new URL[]{}, null);
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            if ("META-INF/maven/".equals(name)) {
+                mavenScans.incrementAndGet();
+            }
+            return super.getResources(name);
+        }
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        CountingClassLoader classLoader = new CountingClassLoader();
+
+        DeploymentInfo info = DeploymentInfo.fromClassLoaderCached(classLoader);
+        assertEquals(1, classLoader.mavenScans.get());
+
+        assertSame("Cached instance", info, DeploymentInfo.fromClassLoaderCached(classLoader));
+        assertEquals("Not scanned again", 1, classLoader.mavenScans.get());
+
+        DeploymentInfo.invalidate(classLoader);
+    }
+
+    @Test
+    public void testEvictedOnCloseClassLoader() throws Exception {
+        CountingClassLoader classLoader = new CountingClassLoader();
+
+        DeploymentInfo info = DeploymentInfo.fromClassLoaderCached(classLoader);
+        PluginManager.getInstance().closeClassLoader(classLoader);
+
+        assertNotSame("Evicted on close", info, DeploymentInfo.fromClassLoaderCached(classLoader));
+        assertEquals("Scanned again", 2, classLoader.mavenScans.get());
+
+        DeploymentInfo.invalidate(classLoader);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.hotswap.agent.util.test.WaitHelper;
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventDispatcherTest {
+
+    Path root = Paths.get("/tmp/eventDispatcherTest").toAbsolutePath();
+    final List<FileEvent> events = Collections.synchronizedList(new ArrayList<FileEvent>());
+    final Map<Path, List<WatchEventListener>> listeners = new ConcurrentHashMap<>();
+    EventDispatcher dispatcher;
+
+    @Before
+    public void setup() {
+        List<WatchEventListener> list = new ArrayList<>();
+        list.add(new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                events.add(event.getEventType());
+            }
+        });
+        listeners.put(root, list);
+        dispatcher = new EventDispatcher(listeners);
+        dispatcher.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        Path file = root.resolve("Test.class");
+        dispatcher.add(new SyntheticWatchEvent(ENTRY_CREATE, file.getFileName()), file);
+        dispatcher.add(new SyntheticWatchEvent(ENTRY_MODIFY, file.getFileName()), file);
+        dispatcher.add(new SyntheticWatchEvent(ENTRY_MODIFY, file.getFileName()), file);
+
+        assertTrue("Event dispatched", waitForEvents(1));
+        Thread.sleep(EventDispatcher.DEBOUNCE_MILLIS * 3);
+        assertEquals(Collections.singletonList(FileEvent.CREATE), events);
+    }
+
+    @Test
+    public void testMaxWaitForContinuouslyModifiedFile() throws Exception {
+        Path file = root.resolve("app.log");
+        long start = System.currentTimeMillis();
+        // modified more often than the debounce period for longer than max wait
+        while (System.currentTimeMillis() - start < EventDispatcher.MAX_WAIT_MILLIS * 2) {
+            dispatcher.add(new SyntheticWatchEvent(ENTRY_MODIFY, file.getFileName()), file);
+            Thread.sleep(EventDispatcher.DEBOUNCE_MILLIS / 4);
+            if (!events.isEmpty()) {
+                break;
+            }
+        }
+        assertTrue("Event dispatched while the file is still being modified", !events.isEmpty());
+    }
+
+    @Test
+    public void testKeepDistinctEvents() throws Exception {
+        Path file = root.resolve("Test.class");
+        dispatcher.add(new SyntheticWatchEvent(ENTRY_DELETE, file.getFileName()), file);
+        dispatcher.add(new SyntheticWatchEvent(ENTRY_CREATE, file.getFileName()), file);
+        dispatcher.add(new SyntheticWatchEvent(ENTRY_MODIFY, file.getFileName()), file);
+
+        assertTrue("Events dispatched", waitForEvents(2));
+        assertEquals(FileEvent.DELETE, events.get(0));
+        assertEquals(FileEvent.CREATE, events.get(1));
+    }
+
+    @Test
+    public void testListenerLookup() throws Exception {
+        final List<WatchFileEvent> nested = Collections.synchronizedList(new ArrayList<WatchFileEvent>());
+        final List<WatchFileEvent> sibling = Collections.synchronizedList(new ArrayList<WatchFileEvent>());
+        listeners.put(root.resolve("a/b"), Collections.<WatchEventListener>singletonList(new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                nested.add(event);
+            }
+        }));
+        listeners.put(root.resolve("a/c"), Collections.<WatchEventListener>singletonList(new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                sibling.add(event);
+            }
+        }));
+        dispatcher.refreshListeners();
+
+        Path file = root.resolve("a/b/Test.class");
+        dispatcher.add(new SyntheticWatchEvent(ENTRY_MODIFY, file.getFileName()), file);
+
+        assertTrue("Event dispatched", waitForEvents(1));
+        assertTrue("Nested listener called", WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return nested.size() == 1;
+            }
+        }));
+        assertEquals("Sibling listener not called", 0, sibling.size());
+    }
+
+    private boolean waitForEvents(final int count) {
+        return WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return events.size() >= count;
+            }
+        });
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.hotswap.agent.util.test.WaitHelper;
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelWatcherNIO2Test {
+
+    ParallelWatcherNIO2 watcher;
+    Path temp;
+
+    @Before
+    public void setup() throws IOException {
+        watcher = new ParallelWatcherNIO2();
+        temp = Files.createTempDirectory("parallelWatcherNIO2Test");
+        watcher.run();
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+    }
+
+    @Test
+    public void createFileInOverlappingRoots() throws IOException {
+        Path subdir = Files.createDirectories(temp.resolve("a/b"));
+        final WaitHelper.ResultHolder resultHolder = new WaitHelper.ResultHolder();
+
+        // the subdirectory is already registered with the root
+        watcher.addEventListener(null, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+            }
+        });
+        watcher.addEventListener(null, subdir.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                if (event.getEventType() == FileEvent.CREATE && event.getURI().toString().endsWith("test.class")) {
+                    resultHolder.result = true;
+                }
+            }
+        });
+
+        new File(subdir.toFile(), "test.class").createNewFile();
+
+        assertTrue("Event listener called", WaitHelper.waitForResult(resultHolder, 10000));
+    }
+}
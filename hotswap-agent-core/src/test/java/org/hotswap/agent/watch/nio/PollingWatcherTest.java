@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.hotswap.agent.util.test.WaitHelper;
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PollingWatcherTest {
+
+    PollingWatcher watcher;
+    Path temp;
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setup() throws IOException {
+        watcher = new PollingWatcher();
+        temp = Files.createTempDirectory("pollingWatcherTest");
+        watcher.run();
+        watcher.addEventListener(null, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                String uri = event.getURI().toString();
+                events.add(event.getEventType() + " " + uri.substring(uri.lastIndexOf('/', uri.length() - 2) + 1));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+    }
+
+    @Test
+    public void createModifyDelete() throws Exception {
+        File testFile = new File(temp.toFile(), "test.class");
+        testFile.createNewFile();
+        assertTrue("Create event", waitForEvent(FileEvent.CREATE + " test.class"));
+
+        FileOutputStream out = new FileOutputStream(testFile);
+        out.write(1);
+        out.close();
+        assertTrue("Modify event", waitForEvent(FileEvent.MODIFY + " test.class"));
+
+        testFile.delete();
+        assertTrue("Delete event", waitForEvent(FileEvent.DELETE + " test.class"));
+    }
+
+    @Test
+    public void createInNewDirectory() throws Exception {
+        Path subdir = Files.createDirectories(temp.resolve("a"));
+        Files.createFile(subdir.resolve("test.class"));
+        assertTrue("Create event of new directory content", waitForEvent(FileEvent.CREATE + " test.class"));
+    }
+
+    private boolean waitForEvent(final String event) {
+        return WaitHelper.waitForCommand(new WaitHelper.Command() {
+            @Override
+            public boolean result() throws Exception {
+                return events.contains(event);
+            }
+        }, 10000);
+    }
+}
@@ -83,7 +83,7 @@ public class OwbPlugin {
      * Wait for this this timeout(milliseconds) after class file event before ClassPathBeanRefreshCommand
      */
     private static final int WAIT_ON_CREATE = 500;
-    private static final int WAIT_ON_REDEFINE = 200;
+    private static final int WAIT_ON_REDEFINE = 100;
 
     @Init
     Watcher watcher;
@@ -252,7 +252,10 @@ public class OwbPlugin {
                                     oldSignByStrategy,
                                     entry.getValue(),
                                     beanReloadStrategy),
-                            WAIT_ON_REDEFINE
+                            WAIT_ON_REDEFINE,
+                            Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER,
+                            Scheduler.CommandLane.FRAMEWORK_REFRESH,
+                            appClassLoader
                             );
                     break;
                 }
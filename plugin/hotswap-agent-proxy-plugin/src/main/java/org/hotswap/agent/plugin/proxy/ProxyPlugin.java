@@ -25,6 +25,7 @@ import java.util.Set;
 import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
@@ -95,7 +96,8 @@ public class ProxyPlugin {
         reloadFlag = true;
 
         // TODO: can be single command if scheduler guarantees the keeping execution order in the order of redefinition
-        PluginManager.getInstance().getScheduler().scheduleCommand(new ReloadJavaProxyCommand(classLoader, className, signatureMapOrig), 50);
+        PluginManager.getInstance().getScheduler().scheduleCommand(new ReloadJavaProxyCommand(classLoader, className, signatureMapOrig), 50,
+                Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.PROXY, classLoader);
     }
 
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE, skipSynthetic = false)
@@ -20,9 +20,9 @@ package org.hotswap.agent.plugin.spring;
 
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.spring.signature.ClassSignatureComparer;
+import org.hotswap.agent.util.classloader.CachedLoaderClassPath;
 
 /**
  * Determines if a full Spring reload is needed. Changes to synthetic and known generated classes are ignored. For other
@@ -44,8 +44,7 @@ public class SpringChangesAnalyzer {
                 return classLoader;
             }
         };
-        cp.appendSystemPath();
-        cp.appendClassPath(new LoaderClassPath(classLoader));
+        CachedLoaderClassPath.appendClassPath(cp, classLoader);
     }
 
     public boolean isReloadNeeded(Class<?> classBeingRedefined, byte[] classfileBuffer) {
@@ -80,7 +80,7 @@ public class WeldPlugin {
      * Wait for this this timeout(milliseconds) after class file event before ClassPathBeanRefreshCommand
      */
     private static final int WAIT_ON_CREATE = 500;
-    private static final int WAIT_ON_REDEFINE = 200;
+    private static final int WAIT_ON_REDEFINE = 100;
 
     @Init
     Watcher watcher;
@@ -248,7 +248,9 @@ public class WeldPlugin {
                 String oldSignatureByStrategy = WeldClassSignatureHelper.getSignatureByStrategy(beanReloadStrategy, original);
                 String oldFullSignature = ClassSignatureComparerHelper.getJavaClassSignature(original, ClassSignatureElement.values());
                 scheduler.scheduleCommand(new BeanClassRefreshCommand(classLoader, archivePath, registeredProxiedBeans,
-                        original.getName(), oldFullSignature, oldSignatureForProxyCheck, oldSignatureByStrategy, beanReloadStrategy), WAIT_ON_REDEFINE);
+                        original.getName(), oldFullSignature, oldSignatureForProxyCheck, oldSignatureByStrategy, beanReloadStrategy), WAIT_ON_REDEFINE,
+                        Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER, Scheduler.CommandLane.FRAMEWORK_REFRESH,
+                        classLoader);
             }
         } catch (Exception e) {
             LOGGER.error("classReload() exception {}.", e, e.getMessage());